@@ -6,6 +6,9 @@ package omnia;
  * through all devices in the configuration and creates new SNMP operations and
  * then parses the results to analyzer.
  *
+ * Besides the devices in the configuration, the devices found by crawling the
+ * LLDP neighbours of the seed devices are collected. See Crawler.
+ *
  * The class is multi threaded. The main thread is started calling the run
  * method, which forks of new threads for each asynchronous SNMP call.
  *
@@ -13,30 +16,32 @@ package omnia;
  *
  * @author Marcus Hoff <marcus.hoff@ring2.dk>
  */
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import omnia.db.DbOperation;
+import omnia.db.NeighbourResolver;
+import omnia.db.Sweeper;
 import omnia.snmp.*;
 import org.snmp4j.CommunityTarget;
 import org.snmp4j.PDU;
 import org.snmp4j.smi.Address;
+import org.snmp4j.smi.IpAddress;
 import org.snmp4j.smi.OctetString;
 
-public class Collector implements Runnable, OperationListener {
+public class Collector implements Runnable, OperationListener,
+                                  Spool.Consumer {
 
-    /**
-     * Shorthand for the configurationHandler.
-     */
-    private final ConfigurationHandler configurationHandler =
-            Omnia.configurationHandler;
-    /**
-     * Shorthand for the pluginHandler.
-     */
-    private final SnmpPluginHandler pluginHandler =
-            Omnia.snmpPluginHandler;
     /**
      * Mapping of the capabilities of each device.
      */
@@ -45,6 +50,40 @@ public class Collector implements Runnable, OperationListener {
      * The devices to collect data from.
      */
     private Address[] devices;
+    /**
+     * The fingerprints of the rows of the last cycle.
+     */
+    private final FingerprintStore fingerprints = new FingerprintStore();
+    /**
+     * The current cycle of each device.
+     */
+    private final ConcurrentMap<Address, DeviceCycle> cycles =
+            new ConcurrentHashMap<Address, DeviceCycle>();
+    /**
+     * The number of cycles a device may go without being stamped, before it is
+     * deleted.
+     */
+    private static final int STALE_CYCLES = 3;
+    /**
+     * The writers of the finished cycles. The devices are sharded over them.
+     */
+    private final DbWriter[] writers;
+    /**
+     * The sweeper of stale topology.
+     */
+    private final Sweeper sweeper;
+    /**
+     * The resolver of the neighbours claimed by LLDP.
+     */
+    private final NeighbourResolver resolver;
+    /**
+     * The crawler of the LLDP neighbours.
+     */
+    private final Crawler crawler = new Crawler();
+    /**
+     * The spool of the finished cycles or null if it cannot be opened.
+     */
+    private Spool spool;
 
     /**
      * Default constructor. Initializes SNMP transport.
@@ -53,13 +92,48 @@ public class Collector implements Runnable, OperationListener {
         this.deviceCapabilities =
                 Collections.synchronizedMap(
                 new HashMap<Address, CapabilityTemplate>());
+        ConfigurationHandler configurationHandler = Omnia.configurationHandler;
+        this.sweeper = new Sweeper(configurationHandler.getDbBatchSize(),
+                                   configurationHandler.getDbSweepBudget());
+        Thread sweeperThread = new Thread(sweeper, "Sweeper");
+        sweeperThread.setDaemon(true);
+        sweeperThread.start();
+        this.resolver = new NeighbourResolver(
+                configurationHandler.getDbBatchSize(),
+                configurationHandler.getDbNeighbourExpiry());
+        Thread resolverThread = new Thread(resolver, "NeighbourResolver");
+        resolverThread.setDaemon(true);
+        resolverThread.start();
+        this.writers = new DbWriter[Math.max(1,
+                                             configurationHandler.getDbWriters())];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new DbWriter(configurationHandler.getDbQueueSize(),
+                                      fingerprints, sweeper);
+            Thread writerThread = new Thread(writers[i], "DbWriter-" + i);
+            writerThread.start();
+        }
+        try {
+            this.spool = new Spool(new File(
+                    configurationHandler.getSpoolDirectory()), this);
+            for (int i = 0; i < writers.length; i++) {
+                writers[i].setSpool(spool);
+            }
+            Thread spoolThread = new Thread(spool, "Spool");
+            spoolThread.start();
+        } catch (IOException ex) {
+            Logger.getLogger(Collector.class.getName()).log(
+                    Level.SEVERE, "Cannot open spool, writing without it", ex);
+            this.spool = null;
+        }
     }
 
     /**
      * Start the main thread. Cycles through all configured devices and spawns
      * of new asynchronous SNMP requests. It repeats after cycle time. The cycle
      * time is stored in the configuration. The thread can be stopped by calling
-     * an close.
+     * an close. The plugins and configuration are read at the start of each
+     * cycle, so reloaded plugins and configuration are used from the next
+     * cycle, while running operations keep the ones they were created with.
      */
     @Override
     public void run() {
@@ -67,11 +141,69 @@ public class Collector implements Runnable, OperationListener {
             while (true) {
                 Date date = new Date();
                 long startTime = date.getTime();
-                this.devices = configurationHandler.getDevices();
+                SnmpPluginHandler pluginHandler = Omnia.snmpPluginHandler;
+                ConfigurationHandler configurationHandler =
+                        pluginHandler.getConfiguration();
+                long staleTime = startTime - STALE_CYCLES
+                                             * configurationHandler.getSnmpCycleTime();
+                this.devices = getDevices(configurationHandler, staleTime);
                 //TODO handle device timeouts, when new requested array is initialized
                 for (int i = 0; i < this.devices.length; i++) {
                     createOperation(new CapabilityTemplate(startTime),
-                                    devices[i]);
+                                    devices[i], pluginHandler);
+                }
+                /*
+                 * Stale topology is measured against the oldest cycle, which
+                 * has not been written yet, so a backlog of the writers does
+                 * not expire devices, whose cycles are still waiting.
+                 */
+                long expireTime = getUnwrittenTime(startTime) - STALE_CYCLES
+                                  * configurationHandler.getSnmpCycleTime();
+                sweeper.expire(expireTime);
+                Omnia.dbHandler.getMacs().expire(expireTime);
+                Omnia.dbHandler.getArps().expire(expireTime);
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "Labels: {0}, hit rate {1}",
+                        new Object[]{SnmpParser.getLabels(),
+                                     SnmpParser.getLabels().getHitRate()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "Device cycles waiting to be written: {0}",
+                        getBacklog());
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "Devices: {0}, {1} discovered by crawling",
+                        new Object[]{devices.length,
+                                     crawler.getDiscovered()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "MAC table: {0} entries of {1} devices",
+                        new Object[]{Omnia.dbHandler.getMacs().size(),
+                                     Omnia.dbHandler.getMacs().devices()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "ARP table: {0} entries of {1} devices",
+                        new Object[]{Omnia.dbHandler.getArps().size(),
+                                     Omnia.dbHandler.getArps().devices()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "Sweeper: {0} deleted, {1} waiting",
+                        new Object[]{sweeper.getDeleted(),
+                                     sweeper.getBacklog()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE,
+                        "Neighbours: {0} cabled, {1} expired, {2} waiting",
+                        new Object[]{resolver.getCabled(),
+                                     resolver.getExpired(),
+                                     resolver.getPending()});
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.FINE, "Property updates: {0} written, {1} elided",
+                        new Object[]{DbOperation.getWrittenUpdates(),
+                                     DbOperation.getElidedUpdates()});
+                if (spool != null) {
+                    Logger.getLogger(Collector.class.getName()).log(
+                            Level.FINE,
+                            "Spool: {0} cycles appended, {1} written, "
+                            + "{2} bytes and {3} ms behind",
+                            new Object[]{spool.getAppended(),
+                                         spool.getConsumed(),
+                                         spool.getLagBytes(),
+                                         spool.getLagTime(startTime)});
                 }
                 long doneTime = date.getTime();
                 long runTime = doneTime - startTime;
@@ -90,11 +222,43 @@ public class Collector implements Runnable, OperationListener {
         }
     }
 
+    /**
+     * Returns the configured devices and the crawled devices, which have been
+     * seen since a time.
+     */
+    private Address[] getDevices(ConfigurationHandler configurationHandler,
+                                 long since) {
+        Set<Address> all = new LinkedHashSet<Address>();
+        all.addAll(Arrays.asList(configurationHandler.getDevices()));
+        all.addAll(Arrays.asList(crawler.getDevices(since)));
+        return all.toArray(new Address[all.size()]);
+    }
+
+    private long getUnwrittenTime(long now) {
+        long oldest = now;
+        for (int i = 0; i < writers.length; i++) {
+            oldest = Math.min(oldest, writers[i].getUnwrittenTime(now));
+        }
+        if (spool != null) {
+            oldest = Math.min(oldest, now - spool.getLagTime(now));
+        }
+        return oldest;
+    }
+
+    private int getBacklog() {
+        int backlog = 0;
+        for (int i = 0; i < writers.length; i++) {
+            backlog += writers[i].getBacklog();
+        }
+        return backlog;
+    }
+
     private CapabilityTemplate getCapabilities(Address address) {
         return this.deviceCapabilities.get(address);
     }
 
-    private CommunityTarget[] createTargets(Address device) {
+    private CommunityTarget[] createTargets(Address device,
+                                            ConfigurationHandler configurationHandler) {
         CommunityTarget[] targets;
         SnmpAuthorization[] snmpAuthorizations;
         snmpAuthorizations = configurationHandler.getSnmpAuthorizationForDevice(
@@ -113,10 +277,12 @@ public class Collector implements Runnable, OperationListener {
         return targets;
     }
 
-    private void createOperation(ElementTemplate template, Address address) {
-        SnmpOperation operation = new SnmpOperation(createTargets(address),
-                                                    template, this);
-        SnmpParser parser = new SnmpParser();
+    private void createOperation(ElementTemplate template, Address address,
+                                 SnmpPluginHandler pluginHandler) {
+        SnmpOperation operation = new SnmpOperation(
+                createTargets(address, pluginHandler.getConfiguration()),
+                template, this, pluginHandler);
+        SnmpParser parser = new SnmpParser(pluginHandler);
         parser.parseOperation(operation, getCapabilities(address));
         Thread operationThread = new Thread(operation);
         operationThread.start();
@@ -124,32 +290,150 @@ public class Collector implements Runnable, OperationListener {
     }
 
     /**
-     * Is called on an asynchronous response. Dispatches the response for
-     * handling based on the request of the operation.
+     * Is called when an operation has finished, with or without responses.
+     * Dispatches the response for handling based on the request of the
+     * operation. The rows of the operations of a device are collected, until
+     * all operations of the device have finished, and are then appended to the
+     * spool, so this thread never waits for the database. Cycles, which
+     * cannot be spooled, are passed directly to the writer of the device.
      */
     @Override
     public void onStop(SnmpOperation operation) {
-        if (operation.hasResponses()) {
-            //TODO: her  need to implement message passing between threads with new allocation of objects, so thread can be interrupted.
-            Address peer = operation.getAddress();
-            ElementTemplate[] templates;
-            ElementTemplate template = operation.getTemplate().clone();
-            SnmpParser parser = new SnmpParser();
-            PDU[] responses = operation.getResponses();
-            templates = parser.parseTemplate(responses, template, peer, getCapabilities(peer));
-            long time = template.getTime();
-            if (template instanceof CapabilityTemplate) {
-                capabilityResponse(peer, time, templates);
+        //TODO: her  need to implement message passing between threads with new allocation of objects, so thread can be interrupted.
+        Address peer = operation.getAddress();
+        ElementTemplate template = operation.getTemplate();
+        SnmpParser parser = new SnmpParser(operation.getPluginHandler());
+        PDU[] responses = operation.getResponses();
+        long time = template.getTime();
+        if (template instanceof CapabilityTemplate) {
+            if (operation.hasResponses()) {
+                ElementTemplate[] templates =
+                        parser.parseTemplate(responses, operation.getColumns(),
+                                             template.clone(), peer,
+                                             getCapabilities(peer));
+                capabilityResponse(peer, time, templates,
+                                   operation.getPluginHandler());
             } else {
-                for (int i = 0; i < templates.length; i++) {
-                    templates[i].analyze();
-               }
+                //TODO catch response errors and non responders
+            }
+            return;
+        }
+        RowBatch batch = null;
+        if (operation.hasResponses()) {
+            batch = parser.parseBatch(responses, operation.getColumns(),
+                                      template.clone(), peer,
+                                      getCapabilities(peer));
+            batch.setComplete(operation.isComplete());
+        }
+        DeviceCycle cycle = this.cycles.get(peer);
+        if (cycle == null || !cycle.expects(template)) {
+            /*
+             * The operation is not part of the current cycle of the device.
+             */
+            cycle = new DeviceCycle(time, getDevice(peer),
+                                    new ElementTemplate[]{template});
+        }
+        if (cycle.finish(template, batch)) {
+            this.cycles.remove(peer, cycle);
+            crawl(cycle, peer, operation.getPluginHandler());
+            if (spool != null && spool.append(cycle)) {
+                return;
+            }
+            if (!getWriter(cycle.getDevice()).submit(cycle)) {
+                Logger.getLogger(Collector.class.getName()).log(
+                        Level.WARNING,
+                        "Write queue full, device cycle {0} of {1} dropped",
+                        new Object[]{cycle.getTime(), peer});
             }
-        } else {
-            //TODO catch response errors and non responders
         }
     }
 
+    /**
+     * Crawls the LLDP neighbours of a finished cycle. The device is identified
+     * by its chassis id, and the management addresses of its neighbours, which
+     * are allowed by a crawl range, are polled at once.
+     *
+     * @param cycle         the finished cycle.
+     * @param peer          the address of the device.
+     * @param pluginHandler the plugins of the cycle.
+     */
+    private void crawl(DeviceCycle cycle, Address peer,
+                       SnmpPluginHandler pluginHandler) {
+        RowBatch device = null;
+        RowBatch ports = null;
+        RowBatch systems = null;
+        for (int i = 0; i < cycle.size(); i++) {
+            ElementTemplate template = cycle.getTemplate(i);
+            if (template instanceof DeviceTemplate) {
+                device = cycle.getBatch(i);
+            } else if (template instanceof LldpRemotePortTemplate) {
+                ports = cycle.getBatch(i);
+            } else if (template instanceof LldpRemoteSystemTemplate) {
+                systems = cycle.getBatch(i);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (device != null && device.rows() > 0) {
+            DeviceTemplate row = new DeviceTemplate(cycle.getTime());
+            device.read(0, row);
+            String chassisId = row.getValueAsString(DeviceTemplate.CHASSISID);
+            if (chassisId != null && !crawler.identify(chassisId, peer, now)) {
+                return;
+            }
+        }
+        if (ports == null || systems == null) {
+            return;
+        }
+        Map<Long, String> chassisIds = new HashMap<Long, String>();
+        LldpRemotePortTemplate port =
+                new LldpRemotePortTemplate(cycle.getTime());
+        for (int i = 0; i < ports.rows(); i++) {
+            ports.read(i, port);
+            long key = port.getRowKey();
+            if (key != ElementTemplate.NO_KEY) {
+                chassisIds.put(key, port.getValueAsString(
+                        LldpRemotePortTemplate.CHASSISID));
+            }
+        }
+        ConfigurationHandler configurationHandler =
+                pluginHandler.getConfiguration();
+        for (int i = 0; i < systems.rows(); i++) {
+            String oid = systems.getOid(i, LldpRemoteSystemTemplate.IFID);
+            String ip = LldpRemoteSystemTemplate.getManagementAddress(oid);
+            if (ip == null) {
+                continue;
+            }
+            Address address = configurationHandler.getDeviceAddress(ip);
+            if (configurationHandler.getCrawlDeclaration(address) == null) {
+                continue;
+            }
+            String chassisId = chassisIds.get(
+                    LldpRemoteSystemTemplate.getRemoteKey(oid));
+            if (crawler.discover(chassisId, address, now)) {
+                createOperation(new CapabilityTemplate(now), address,
+                                pluginHandler);
+            }
+        }
+    }
+
+    /**
+     * Passes a cycle read from the spool to the writer of its device. Waits,
+     * if the queue of the writer is full.
+     */
+    @Override
+    public void consume(DeviceCycle cycle) throws InterruptedException {
+        getWriter(cycle.getDevice()).put(cycle);
+    }
+
+    private DbWriter getWriter(String device) {
+        return writers[(device.hashCode() & Integer.MAX_VALUE)
+                       % writers.length];
+    }
+
+    private static String getDevice(Address peer) {
+        return new IpAddress(peer.toByteArray()).toString();
+    }
+
     /**
      * Handles the response of a capability request. This must be the first
      * request. It stores the capabilities and creates all subsequent
@@ -158,16 +442,26 @@ public class Collector implements Runnable, OperationListener {
      * @param operation the finished operation.
      */
     private void capabilityResponse(Address peer, long time,
-                                    ElementTemplate[] parsedTemplates) {
+                                    ElementTemplate[] parsedTemplates,
+                                    SnmpPluginHandler pluginHandler) {
 //        Address peer = operation.getAddress();
         this.deviceCapabilities.put(peer,
                                     (CapabilityTemplate) parsedTemplates[0]);
         pluginHandler.setPlugin((CapabilityTemplate) parsedTemplates[0]);
-        createOperation(new DeviceTemplate(time), peer);
-        createOperation(new InterfaceTemplate(time), peer);
-        createOperation(new LldpLocalPortTemplate(time), peer);
-        createOperation(new LldpRemotePortTemplate(time), peer);
-        createOperation(new LldpRemoteSystemTemplate(time), peer);
+        ElementTemplate[] templates = new ElementTemplate[]{
+            new DeviceTemplate(time),
+            new InterfaceTemplate(time),
+            new LldpLocalPortTemplate(time),
+            new LldpRemotePortTemplate(time),
+            new LldpRemoteSystemTemplate(time),
+            new BridgePortTemplate(time),
+            new FdbTemplate(time),
+            new ArpTemplate(time)
+        };
+        this.cycles.put(peer, new DeviceCycle(time, getDevice(peer), templates));
+        for (int i = 0; i < templates.length; i++) {
+            createOperation(templates[i], peer, pluginHandler);
+        }
         //TODO implement template and analyzer for entity (ENTITY-MIB)
     }
-}
\ No newline at end of file
+}
@@ -15,6 +15,7 @@ import org.jdom2.input.SAXBuilder;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.IpAddress;
 
 /**
  * This class is an abstraction layer for accessing the contents of the
@@ -41,7 +42,15 @@ public class ConfigurationHandler {
     private static final String DEFAULT_SNMP_PDUSIZE = "3";
     private static final String DEFAULT_DIR_MIBS = "mibs";
     private static final String DEFAULT_DIR_PLUGINS = "plugins";
+    private static final String DEFAULT_DIR_SPOOL = "spool";
     private static final String DEFAULT_PLUGIN_DEFAULT = "default.xml";
+    private static final String DEFAULT_RELOAD_INTERVAL = "5000";
+    private static final String DEFAULT_DB_BATCHSIZE = "1000";
+    private static final String DEFAULT_DB_WIPE = "false";
+    private static final String DEFAULT_DB_WRITERS = "2";
+    private static final String DEFAULT_DB_QUEUESIZE = "1024";
+    private static final String DEFAULT_DB_SWEEPBUDGET = "500";
+    private static final String DEFAULT_DB_NEIGHBOUREXPIRY = "900000";
 
     /**
      * Default constructor. Connects to the configuration file and sets the root
@@ -49,7 +58,7 @@ public class ConfigurationHandler {
      */
     public ConfigurationHandler() {
         try {
-            File configurationFile = new File(configurationFileName);
+            File configurationFile = getConfigurationFile();
             SAXBuilder builder = new SAXBuilder();
             Document configurationDoc = builder.build(configurationFile);
             rootElement = configurationDoc.getRootElement();
@@ -61,6 +70,25 @@ public class ConfigurationHandler {
         }
     }
 
+    /**
+     * Returns the configuration file.
+     *
+     * @return the File containing the configuration.
+     */
+    public static File getConfigurationFile() {
+        return new File(configurationFileName);
+    }
+
+    /**
+     * Returns true if the configuration file was read successfully.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the configuration is loaded.
+     */
+    public boolean isLoaded() {
+        return rootElement != null;
+    }
+
     /**
      * Returns all devices in the configuration.
      *
@@ -118,6 +146,30 @@ public class ConfigurationHandler {
 
     }
 
+    private String getReloadElement(String element, String defaultValue) {
+        Element reload = rootElement.getChild("reload");
+        if (reload == null) {
+            return defaultValue;
+        }
+        String xmlString = reload.getChildTextNormalize(element);
+        if (xmlString == null || xmlString.isEmpty()) {
+            return defaultValue;
+        }
+        return xmlString;
+    }
+
+    private String getDbElement(String element, String defaultValue) {
+        Element db = rootElement.getChild("db");
+        if (db == null) {
+            return defaultValue;
+        }
+        String xmlString = db.getChildTextNormalize(element);
+        if (xmlString == null || xmlString.isEmpty()) {
+            return defaultValue;
+        }
+        return xmlString;
+    }
+
     private Element getSnmp() {
         return rootElement.getChild("snmp");
     }
@@ -140,6 +192,8 @@ public class ConfigurationHandler {
                 String name = currentElement.getName();
                 if (name.matches("cidr")) {
                     parseCidr(currentElement, declaration);
+                } else if (name.matches("seed")) {
+                    parseSeed(currentElement, declaration);
                 }
             }
         }
@@ -170,6 +224,65 @@ public class ConfigurationHandler {
         }
     }
 
+    private void parseSeed(Element seedElement, Element declaration) {
+        try {
+            devices.put(getDeviceAddress(seedElement.getTextNormalize()),
+                        Integer.valueOf(getIdValue(declaration)));
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(ConfigurationHandler.class.getName()).log(
+                    Level.SEVERE,
+                    null,
+                    ex);
+        }
+    }
+
+    /**
+     * Returns the SNMP address of a device.
+     *
+     * @param ip the IP address of the device.
+     *
+     * @return the Address using the configured protocol and port.
+     */
+    public Address getDeviceAddress(String ip) {
+        return GenericAddress.parse(getProtocol() + ":" + ip + "/" + getPort());
+    }
+
+    /**
+     * Returns the device declaration, which allows a device to be crawled. A
+     * declaration allows the addresses in its crawl ranges. Devices found by
+     * crawling use the authorizations of the declaration.
+     *
+     * @param device the device.
+     *
+     * @return an Integer containing the id of the first declaration, which
+     *         allows the device, or null if the device may not be crawled.
+     */
+    public Integer getCrawlDeclaration(Address device) {
+        String ip = new IpAddress(device.toByteArray()).toString();
+        Iterator<Element> deviceIterator = getDeviceIterator();
+        while (deviceIterator.hasNext()) {
+            Element declaration = deviceIterator.next();
+            Iterator<Element> crawlIterator = declaration.getChildren(
+                    "crawl").iterator();
+            while (crawlIterator.hasNext()) {
+                try {
+                    SubnetUtils utils = new SubnetUtils(
+                            crawlIterator.next().getTextNormalize());
+                    utils.setInclusiveHostCount(true);
+                    if (utils.getInfo().isInRange(ip)) {
+                        return Integer.valueOf(getIdValue(declaration));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    Logger.getLogger(ConfigurationHandler.class.getName()).log(
+                            Level.SEVERE,
+                            null,
+                            ex);
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns an array of SNMP authorizations in preferred order for a device
      *
@@ -179,6 +292,9 @@ public class ConfigurationHandler {
      */
     public SnmpAuthorization[] getSnmpAuthorizationForDevice(Address device) {
         Integer deviceId = devices.get(device);
+        if (deviceId == null) {
+            deviceId = getCrawlDeclaration(device);
+        }
         Integer foundId = null;
         Element deviceElement = null;
         Iterator deviceIterator = getDeviceIterator();
@@ -328,4 +444,102 @@ public class ConfigurationHandler {
     public String getDefaultPlugin() {
         return getPluginsElement("default", DEFAULT_PLUGIN_DEFAULT);
     }
+
+    /**
+     * Returns the interval between checks for changes to the configuration
+     * file and the plugins.
+     *
+     * @return an
+     * <code>int</code> containing the interval in ms or the default value if
+     * not found.
+     */
+    public int getReloadInterval() {
+        return Integer.parseInt(getReloadElement("interval",
+                                                 DEFAULT_RELOAD_INTERVAL));
+    }
+
+    /**
+     * Returns the number of rows of a device written to the database in one
+     * transaction.
+     *
+     * @return an
+     * <code>int</code> containing the number of rows or the default value if
+     * not found.
+     */
+    public int getDbBatchSize() {
+        return Integer.parseInt(getDbElement("batchSize",
+                                             DEFAULT_DB_BATCHSIZE));
+    }
+
+    /**
+     * Returns if the database must be wiped at startup. Otherwise the graph
+     * is kept across restarts.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the database is wiped or the default
+     * value if not found.
+     */
+    public boolean getDbWipe() {
+        return Boolean.parseBoolean(getDbElement("wipe", DEFAULT_DB_WIPE));
+    }
+
+    /**
+     * Returns the number of threads writing device cycles to the database.
+     *
+     * @return an
+     * <code>int</code> containing the number of writers or the default value
+     * if not found.
+     */
+    public int getDbWriters() {
+        return Integer.parseInt(getDbElement("writers", DEFAULT_DB_WRITERS));
+    }
+
+    /**
+     * Returns the number of device cycles, which can wait to be written by
+     * each writer.
+     *
+     * @return an
+     * <code>int</code> containing the number of cycles or the default value if
+     * not found.
+     */
+    public int getDbQueueSize() {
+        return Integer.parseInt(getDbElement("queueSize",
+                                             DEFAULT_DB_QUEUESIZE));
+    }
+
+    /**
+     * Returns the directory of the spool of the collected device cycles.
+     *
+     * @return a String containing the directory or the default value if not
+     *         found.
+     */
+    public String getSpoolDirectory() {
+        return getDirectoriesElement("spool", DEFAULT_DIR_SPOOL);
+    }
+
+    /**
+     * Returns the maximum number of stale nodes and relationships deleted per
+     * second by the sweeper.
+     *
+     * @return an
+     * <code>int</code> containing the number of deletions or the default value
+     * if not found.
+     */
+    public int getDbSweepBudget() {
+        return Integer.parseInt(getDbElement("sweepBudget",
+                                             DEFAULT_DB_SWEEPBUDGET));
+    }
+
+    /**
+     * Returns the time a neighbour claimed by LLDP is kept, while the remote
+     * port is not known.
+     *
+     * @return an
+     * <code>int</code> containing the time in ms or the default value if not
+     * found.
+     */
+    public int getDbNeighbourExpiry() {
+        return Integer.parseInt(getDbElement("neighbourExpiry",
+                                             DEFAULT_DB_NEIGHBOUREXPIRY));
+    }
 }
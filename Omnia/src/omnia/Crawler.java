@@ -0,0 +1,124 @@
+package omnia;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.snmp4j.smi.Address;
+
+/**
+ * A crawler of the topology by LLDP. The crawl starts from the seed devices in
+ * the configuration. When the cycle of a device has finished, the management
+ * addresses of its LLDP neighbours are discovered and polled at once, so the
+ * frontier is expanded breadth-first and concurrently, one hop per cycle of
+ * each device, without probing addresses, which are not in use.
+ *
+ * A device is known by its chassis id, so a device, which is reported with
+ * several management addresses, is only polled at the first one. Devices,
+ * which have not been identified for a while, are forgotten.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+class Crawler {
+
+    /**
+     * The address of each known device by chassis id.
+     */
+    private final ConcurrentMap<String, Address> chassis =
+            new ConcurrentHashMap<String, Address>();
+    /**
+     * The time each crawled device was last discovered or identified, by
+     * address.
+     */
+    private final ConcurrentMap<Address, Long> devices =
+            new ConcurrentHashMap<Address, Long>();
+    private final AtomicLong discovered = new AtomicLong();
+
+    /**
+     * Adds a neighbour to the crawl. The neighbour is ignored, if its chassis
+     * id or address is already known.
+     *
+     * @param chassisId the chassis id of the neighbour or null if unknown.
+     * @param address   the management address of the neighbour.
+     * @param now       the current time in ms.
+     *
+     * @return true if the neighbour is new and must be polled.
+     */
+    boolean discover(String chassisId, Address address, long now) {
+        if (chassisId != null && chassis.containsKey(chassisId)) {
+            return false;
+        }
+        if (devices.putIfAbsent(address, now) != null) {
+            return false;
+        }
+        if (chassisId != null && chassis.putIfAbsent(chassisId, address)
+                                 != null) {
+            devices.remove(address);
+            return false;
+        }
+        discovered.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the chassis id reported by a device itself. If the chassis is
+     * already known at another address, a crawled device is forgotten, as it
+     * is polled at the other address.
+     *
+     * @param chassisId the chassis id of the device.
+     * @param address   the address the device was polled at.
+     * @param now       the current time in ms.
+     *
+     * @return false if the device is polled at another address.
+     */
+    boolean identify(String chassisId, Address address, long now) {
+        Address known = chassis.putIfAbsent(chassisId, address);
+        if (known != null && !known.equals(address)) {
+            devices.remove(address);
+            return false;
+        }
+        if (devices.containsKey(address)) {
+            devices.put(address, now);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the crawled devices. Devices, which have not been discovered or
+     * identified since a time, are forgotten first.
+     *
+     * @param since the time in ms.
+     *
+     * @return an array of Address containing the devices.
+     */
+    Address[] getDevices(long since) {
+        List<Address> current = new ArrayList<Address>(devices.size());
+        Iterator<Map.Entry<Address, Long>> entries =
+                devices.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Address, Long> entry = entries.next();
+            if (entry.getValue() < since) {
+                entries.remove();
+                chassis.values().remove(entry.getKey());
+            } else {
+                current.add(entry.getKey());
+            }
+        }
+        return current.toArray(new Address[current.size()]);
+    }
+
+    /**
+     * Returns the number of devices discovered since startup.
+     *
+     * @return a
+     * <code>long</code> containing the number of devices.
+     */
+    long getDiscovered() {
+        return discovered.get();
+    }
+}
@@ -0,0 +1,303 @@
+package omnia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.db.DeviceSession;
+import omnia.db.Sweeper;
+import omnia.snmp.ElementTemplate;
+import omnia.snmp.FingerprintStore;
+import omnia.snmp.RowBatch;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * A writer of finished device cycles to the database. The collection threads
+ * submit their cycles to a bounded queue and return at once, and the writer
+ * thread drains the queue and writes the cycles. Cycles read from the spool
+ * are acknowledged, when they have been written. Several cycles waiting in
+ * the queue are written as a group through one session, so they share
+ * transactions and commits.
+ *
+ * The collector shards the devices over a few writers, so the cycles of a
+ * device are always written in order by the same writer. If the queue is
+ * full, the cycle is dropped. Its fingerprints are not stored, so the rows
+ * are written in the next cycle.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+class DbWriter implements Runnable {
+
+    /**
+     * The maximum number of cycles written in one group.
+     */
+    private static final int GROUP_SIZE = 16;
+    /**
+     * The number of times a deadlocked group is tried.
+     */
+    private static final int DEADLOCK_RETRIES = 3;
+    /**
+     * The maximum backoff in ms before the first retry of a deadlocked group.
+     * It grows with each retry.
+     */
+    private static final int DEADLOCK_BACKOFF = 50;
+    private static final long NO_FLOOR = Long.MIN_VALUE;
+    private final BlockingQueue<DeviceCycle> queue;
+    private final FingerprintStore fingerprints;
+    private final Sweeper sweeper;
+    private final Random random = new Random();
+    /**
+     * The spool the cycles are read from or null.
+     */
+    private volatile Spool spool;
+    /**
+     * The time id of the oldest cycle of the group being written or
+     * Long.MAX_VALUE if none.
+     */
+    private volatile long writing = Long.MAX_VALUE;
+
+    /**
+     * Default constructor.
+     *
+     * @param capacity     the number of cycles, which can wait in the queue.
+     * @param fingerprints the fingerprints of the rows of the last cycle.
+     * @param sweeper      the sweeper of the stale topology of the devices.
+     */
+    DbWriter(int capacity, FingerprintStore fingerprints, Sweeper sweeper) {
+        this.queue = new ArrayBlockingQueue<DeviceCycle>(Math.max(1, capacity));
+        this.fingerprints = fingerprints;
+        this.sweeper = sweeper;
+    }
+
+    /**
+     * Submits a finished cycle for writing. It never blocks.
+     *
+     * @param cycle the cycle.
+     *
+     * @return true if the cycle was queued, false if the queue is full.
+     */
+    boolean submit(DeviceCycle cycle) {
+        return queue.offer(cycle);
+    }
+
+    /**
+     * Submits a finished cycle for writing. Waits, if the queue is full.
+     *
+     * @param cycle the cycle.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void put(DeviceCycle cycle) throws InterruptedException {
+        queue.put(cycle);
+    }
+
+    /**
+     * Sets the spool, which is acknowledged, when spooled cycles have been
+     * written.
+     *
+     * @param spool the spool.
+     */
+    void setSpool(Spool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Returns the number of cycles waiting to be written.
+     *
+     * @return an
+     * <code>int</code> containing the number of cycles.
+     */
+    int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the time id of the oldest cycle, which has not been written
+     * yet. Stale topology is measured against it, so nothing is expired only
+     * because the writer is behind.
+     *
+     * @param now the current time in ms.
+     *
+     * @return a
+     * <code>long</code> containing the time id or now if all cycles have been
+     * written.
+     */
+    long getUnwrittenTime(long now) {
+        long oldest = Math.min(now, writing);
+        DeviceCycle waiting = queue.peek();
+        if (waiting != null) {
+            oldest = Math.min(oldest, waiting.getTime());
+        }
+        return oldest;
+    }
+
+    /**
+     * Start the writer thread. Writes the queued cycles, until the thread is
+     * interrupted.
+     */
+    @Override
+    public void run() {
+        List<DeviceCycle> group = new ArrayList<DeviceCycle>(GROUP_SIZE);
+        try {
+            while (true) {
+                group.add(queue.take());
+                queue.drainTo(group, GROUP_SIZE - 1);
+                writing = getOldest(group);
+                try {
+                    write(group, Omnia.snmpPluginHandler.getConfiguration());
+                } catch (RuntimeException ex) {
+                    /*
+                     * The group has been rolled back. Its fingerprints are not
+                     * stored, so the rows are written again in the next cycle.
+                     */
+                    Logger.getLogger(DbWriter.class.getName()).log(
+                            Level.SEVERE, "Group of " + group.size()
+                                          + " device cycles failed", ex);
+                }
+                acknowledge(group);
+                writing = Long.MAX_VALUE;
+                group.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long getOldest(List<DeviceCycle> group) {
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < group.size(); i++) {
+            oldest = Math.min(oldest, group.get(i).getTime());
+        }
+        return oldest;
+    }
+
+    /**
+     * Acknowledges the spooled cycles of a group. Cycles, which failed, are
+     * acknowledged too, as their fingerprints are not stored, so their rows
+     * are written again in the next cycle.
+     */
+    private void acknowledge(List<DeviceCycle> group) {
+        Spool acknowledged = spool;
+        if (acknowledged == null) {
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).getPosition() >= 0) {
+                acknowledged.acknowledge(group.get(i).getPosition());
+            }
+        }
+    }
+
+    /**
+     * Writes a group of cycles. A group, which deadlocks, is rolled back and
+     * retried after a random backoff. A group, which fails otherwise, is
+     * rolled back and the exception is thrown.
+     *
+     * @param group                the cycles.
+     * @param configurationHandler the configuration.
+     *
+     * @throws InterruptedException if interrupted during the backoff.
+     */
+    private void write(List<DeviceCycle> group,
+                       ConfigurationHandler configurationHandler) throws
+            InterruptedException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                writeSession(group, configurationHandler);
+                return;
+            } catch (DeadlockDetectedException ex) {
+                if (attempt >= DEADLOCK_RETRIES) {
+                    Logger.getLogger(DbWriter.class.getName()).log(
+                            Level.WARNING,
+                            "Group of {0} device cycles deadlocked {1} times",
+                            new Object[]{group.size(), attempt});
+                    return;
+                }
+            }
+            Thread.sleep(random.nextInt(DEADLOCK_BACKOFF * attempt) + 1);
+        }
+    }
+
+    /**
+     * Writes a group of cycles in one session. The nodes and relationships of
+     * each device are upserted in place. When the session succeeds, the
+     * devices are submitted to the sweeper, which removes those not stamped
+     * since the baseline of the device. The writes
+     * are upserts, so a session, which has been rolled back, can be run
+     * again. The fingerprints of the rows are only stored, if the session
+     * succeeds. If an analyzer fails, the current transaction is rolled back
+     * and the exception is thrown.
+     *
+     * @param group                the cycles.
+     * @param configurationHandler the configuration.
+     */
+    private void writeSession(List<DeviceCycle> group,
+                              ConfigurationHandler configurationHandler) {
+        DeviceSession session =
+                new DeviceSession(configurationHandler.getDbBatchSize());
+        List<FingerprintStore.Changes> changes =
+                new ArrayList<FingerprintStore.Changes>();
+        long[] devices = new long[group.size()];
+        long[] floors = new long[group.size()];
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                floors[i] = writeCycle(group.get(i), session, changes);
+                devices[i] = session.getDeviceId();
+                session.nextDevice();
+            }
+        } catch (RuntimeException ex) {
+            session.abort();
+            throw ex;
+        }
+        boolean succeeded = session.close();
+        if (succeeded) {
+            for (int i = 0; i < changes.size(); i++) {
+                changes.get(i).commit();
+            }
+            for (int i = 0; i < group.size(); i++) {
+                if (floors[i] != NO_FLOOR) {
+                    sweeper.submit(devices[i], floors[i]);
+                }
+            }
+        }
+        Logger.getLogger(DbWriter.class.getName()).log(
+                Level.FINE,
+                "{0} device cycles written in {1} transactions, {2} waiting",
+                new Object[]{group.size(), session.getCommits(),
+                             queue.size()});
+    }
+
+    /**
+     * Writes the rows of a cycle.
+     *
+     * @return the time id of the oldest cycle, which is still valid for the
+     *         device, or NO_FLOOR if the cycle has no rows.
+     */
+    private long writeCycle(DeviceCycle cycle, DeviceSession session,
+                            List<FingerprintStore.Changes> changes) {
+        long floor = cycle.getTime();
+        boolean changed = false;
+        for (int i = 0; i < cycle.size(); i++) {
+            RowBatch batch = cycle.getBatch(i);
+            if (batch == null) {
+                continue;
+            }
+            ElementTemplate template = cycle.getTemplate(i).clone();
+            FingerprintStore.Changes batchChanges =
+                    fingerprints.compare(batch, template);
+            template.analyze(batch, batchChanges, session);
+            changes.add(batchChanges);
+            floor = Math.min(floor, batchChanges.getBaseline());
+            changed = true;
+        }
+        if (!changed) {
+            return NO_FLOOR;
+        }
+        return floor;
+    }
+}
@@ -0,0 +1,154 @@
+package omnia;
+
+import omnia.snmp.ElementTemplate;
+import omnia.snmp.RowBatch;
+
+/**
+ * The operations of one device in one cycle. It collects the parsed rows of
+ * each operation, until all operations of the device have finished, so the
+ * rows can be written to the database in one session.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+class DeviceCycle {
+
+    private final long time;
+    private final String device;
+    private final ElementTemplate[] templates;
+    private final RowBatch[] batches;
+    private final boolean[] finished;
+    private int remaining;
+    /**
+     * The position of the cycle in the spool or -1 if it is not spooled.
+     */
+    private volatile long position = -1;
+
+    /**
+     * Default constructor.
+     *
+     * @param time      the unique time id of the cycle.
+     * @param device    the address of the device.
+     * @param templates the templates of the operations of the device, in the
+     *                  order they must be analyzed.
+     */
+    DeviceCycle(long time, String device, ElementTemplate[] templates) {
+        this.time = time;
+        this.device = device;
+        this.templates = templates;
+        this.batches = new RowBatch[templates.length];
+        this.finished = new boolean[templates.length];
+        this.remaining = templates.length;
+    }
+
+    /**
+     * Returns the unique time id of the cycle.
+     *
+     * @return a
+     * <code>long</code> representing the time id.
+     */
+    long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the address of the device.
+     *
+     * @return a String representing the device.
+     */
+    String getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the position of the cycle in the spool.
+     *
+     * @return a
+     * <code>long</code> containing the position or -1 if it is not spooled.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Sets the position of the cycle in the spool.
+     *
+     * @param position the position.
+     */
+    void setPosition(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Tests if an operation belongs to this cycle.
+     *
+     * @param template the template of the operation.
+     *
+     * @return true if the template is one of the templates of the cycle.
+     */
+    boolean expects(ElementTemplate template) {
+        return indexOf(template) >= 0;
+    }
+
+    private int indexOf(ElementTemplate template) {
+        for (int i = 0; i < templates.length; i++) {
+            if (templates[i] == template) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the rows of a finished operation.
+     *
+     * @param template the template of the operation.
+     * @param batch    the parsed rows or null if the operation has no
+     *                 responses.
+     *
+     * @return true if this was the last operation of the cycle to finish.
+     */
+    synchronized boolean finish(ElementTemplate template, RowBatch batch) {
+        int i = indexOf(template);
+        if (i < 0 || finished[i]) {
+            return false;
+        }
+        batches[i] = batch;
+        finished[i] = true;
+        remaining--;
+        return remaining == 0;
+    }
+
+    /**
+     * Returns the number of operations of the cycle.
+     *
+     * @return an
+     * <code>int</code> containing the number of operations.
+     */
+    int size() {
+        return templates.length;
+    }
+
+    /**
+     * Returns the template of an operation.
+     *
+     * @param i the operation.
+     *
+     * @return the ElementTemplate of the operation.
+     */
+    ElementTemplate getTemplate(int i) {
+        return templates[i];
+    }
+
+    /**
+     * Returns the rows of an operation.
+     *
+     * @param i the operation.
+     *
+     * @return the RowBatch of the operation or null if it has no rows.
+     */
+    synchronized RowBatch getBatch(int i) {
+        return batches[i];
+    }
+}
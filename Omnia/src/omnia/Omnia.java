@@ -4,25 +4,43 @@ import omnia.db.DbHandler;
 import omnia.snmp.SnmpPluginHandler;
 
 /**
- * 
+ *
  * @author Marcus Hoff <marcus.hoff@ring2.dk>
  */
 public class Omnia {
 
     public static Thread collector;
-    public static ConfigurationHandler configurationHandler;
+    public static Thread reloader;
+    public static volatile ConfigurationHandler configurationHandler;
     public static DbHandler dbHandler;
-    public static SnmpPluginHandler snmpPluginHandler;
+    public static volatile SnmpPluginHandler snmpPluginHandler;
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
         configurationHandler = new ConfigurationHandler();
-        dbHandler = new DbHandler();
+        dbHandler = new DbHandler(configurationHandler.getDbWipe());
         snmpPluginHandler = new SnmpPluginHandler();
         collector = new Thread(new Collector());
         collector.start();
+        reloader = new Thread(new ReloadHandler());
+        reloader.setDaemon(true);
+        reloader.start();
 
     }
+
+    /**
+     * Swaps in a reloaded configuration and plugins. The plugins must have
+     * been built from the configuration. The collector reads the plugins,
+     * and through them the configuration, as one snapshot.
+     *
+     * @param configuration the reloaded configuration.
+     * @param plugins       the reloaded plugins.
+     */
+    static synchronized void reload(ConfigurationHandler configuration,
+                                    SnmpPluginHandler plugins) {
+        configurationHandler = configuration;
+        snmpPluginHandler = plugins;
+    }
 }
@@ -0,0 +1,122 @@
+package omnia;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.snmp.SnmpPluginHandler;
+
+/**
+ * This class watches the configuration file and the plugins directory and
+ * reloads them when they change, without restarting. It polls the files for
+ * changes in the reload interval of the configuration.
+ *
+ * New configuration and plugin snapshots are built on this thread and then
+ * swapped in atomically through Omnia. The collector picks them up at the
+ * start of its next cycle, while running operations keep the snapshot they
+ * were created with. A snapshot that fails to load is ignored and the current
+ * one is kept.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class ReloadHandler implements Runnable {
+
+    /**
+     * The last seen state of the configuration file.
+     */
+    private long configurationStamp;
+    /**
+     * The last seen state of the plugins directory.
+     */
+    private long pluginsStamp;
+
+    /**
+     * Default constructor. Records the current state of the configuration
+     * file and the plugins directory.
+     */
+    public ReloadHandler() {
+        configurationStamp = getConfigurationStamp();
+        pluginsStamp = getPluginsStamp(Omnia.configurationHandler);
+    }
+
+    /**
+     * Start the watching thread. Checks for changes in each reload interval,
+     * until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Thread.sleep(Omnia.configurationHandler.getReloadInterval());
+                reloadIfChanged();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reloads the configuration and plugins if any of them have changed since
+     * the last check. The plugins are rebuilt when the configuration changes,
+     * since they depend on it.
+     */
+    private void reloadIfChanged() {
+        ConfigurationHandler configuration = Omnia.configurationHandler;
+        long newConfigurationStamp = getConfigurationStamp();
+        boolean configurationChanged =
+                newConfigurationStamp != configurationStamp;
+        if (configurationChanged) {
+            ConfigurationHandler reloaded = new ConfigurationHandler();
+            if (!reloaded.isLoaded()) {
+                Logger.getLogger(ReloadHandler.class.getName()).log(
+                        Level.WARNING,
+                        "Configuration could not be reloaded, keeping current");
+                return;
+            }
+            configuration = reloaded;
+        }
+        long newPluginsStamp = getPluginsStamp(configuration);
+        if (!configurationChanged && newPluginsStamp == pluginsStamp) {
+            return;
+        }
+        SnmpPluginHandler plugins =
+                new SnmpPluginHandler(configuration, Omnia.snmpPluginHandler);
+        if (!plugins.isLoaded()) {
+            Logger.getLogger(ReloadHandler.class.getName()).log(
+                    Level.WARNING,
+                    "Plugins could not be reloaded, keeping current");
+            return;
+        }
+        Omnia.reload(configuration, plugins);
+        /*
+         * The stamps are only moved on, when the reload succeeded, so a failed
+         * reload is tried again at the next check.
+         */
+        configurationStamp = newConfigurationStamp;
+        pluginsStamp = newPluginsStamp;
+        Logger.getLogger(ReloadHandler.class.getName()).log(
+                Level.INFO, "Configuration and plugins reloaded");
+    }
+
+    private long getConfigurationStamp() {
+        File file = ConfigurationHandler.getConfigurationFile();
+        return file.lastModified() * 31 + file.length();
+    }
+
+    private long getPluginsStamp(ConfigurationHandler configuration) {
+        File[] files = new File(configuration.getPluginsDir()).listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        long stamp = files.length;
+        for (int i = 0; i < files.length; i++) {
+            stamp = stamp * 31 + files[i].getName().hashCode();
+            stamp = stamp * 31 + files[i].lastModified();
+            stamp = stamp * 31 + files[i].length();
+        }
+        return stamp;
+    }
+}
@@ -0,0 +1,412 @@
+package omnia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.snmp.ElementTemplate;
+import omnia.snmp.RowBatch;
+
+/**
+ * An append-only spool of finished device cycles on disk, between collection
+ * and the database writers. The collection threads append their cycles to the
+ * spool, which is a memory-mapped file, so they never wait for the database.
+ * The reader thread of the spool reads the cycles at the pace of the writers
+ * and passes them on.
+ *
+ * The spool is stored in segment files of a fixed size. A record is the
+ * length of the record, the time id of the cycle and the cycle. The length is
+ * written last, so a record, which was not completely written, is never read.
+ * A length of -1 marks the end of a segment.
+ *
+ * The position of the oldest cycle, which has not been written to the
+ * database, is stored in a position file, each time a cycle is acknowledged.
+ * At startup the cycles from this position are read again, so cycles spooled
+ * before a restart are written. A cycle may be written twice, which is safe,
+ * as the writes are upserts.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+class Spool implements Runnable {
+
+    /**
+     * The size of a segment file.
+     */
+    static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final int END_OF_SEGMENT = -1;
+    private final File directory;
+    private final Consumer consumer;
+    /**
+     * The segment and position appended to.
+     */
+    private MappedByteBuffer appendSegment;
+    private long appendPosition;
+    /**
+     * The segment and position read from.
+     */
+    private MappedByteBuffer readSegment;
+    private long readPosition;
+    /**
+     * The stored position of the oldest cycle not acknowledged.
+     */
+    private final MappedByteBuffer acknowledged;
+    /**
+     * The time id of each cycle read and not acknowledged, by position.
+     */
+    private final ConcurrentSkipListMap<Long, Long> pending =
+            new ConcurrentSkipListMap<Long, Long>();
+    private long appended;
+    private long consumed;
+
+    /**
+     * Receives the cycles read from the spool.
+     */
+    interface Consumer {
+
+        /**
+         * Receives a cycle. It may block, until the cycle can be handled.
+         *
+         * @param cycle the cycle, with its position in the spool set.
+         *
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void consume(DeviceCycle cycle) throws InterruptedException;
+    }
+
+    /**
+     * Default constructor. Opens the spool in a directory and continues after
+     * the last acknowledged cycle.
+     *
+     * @param directory the directory of the spool.
+     * @param consumer  the receiver of the cycles read.
+     *
+     * @throws IOException if the spool cannot be opened.
+     */
+    Spool(File directory, Consumer consumer) throws IOException {
+        this.directory = directory;
+        this.consumer = consumer;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool " + directory);
+        }
+        acknowledged = map(new File(directory, "position"), 8);
+        readPosition = acknowledged.getLong(0);
+        readSegment = openSegment(readPosition);
+        appendPosition = findEnd(readPosition);
+        appendSegment = openSegment(appendPosition);
+        deleteSegments(segment(readPosition));
+    }
+
+    private static long segment(long position) {
+        return position / SEGMENT_SIZE;
+    }
+
+    private static int offset(long position) {
+        return (int) (position % SEGMENT_SIZE);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws
+            IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                        size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private MappedByteBuffer openSegment(long position) throws IOException {
+        return map(new File(directory, "segment-" + segment(position)),
+                   SEGMENT_SIZE);
+    }
+
+    /**
+     * Finds the end of the spool by skipping the complete records from a
+     * position.
+     */
+    private long findEnd(long position) throws IOException {
+        MappedByteBuffer segment = openSegment(position);
+        while (true) {
+            int length = offset(position) + 4 <= SEGMENT_SIZE
+                         ? segment.getInt(offset(position)) : END_OF_SEGMENT;
+            if (length == 0) {
+                return position;
+            }
+            if (length == END_OF_SEGMENT) {
+                position = (segment(position) + 1) * SEGMENT_SIZE;
+                segment = openSegment(position);
+            } else {
+                position += HEADER_SIZE + length;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segment files before a segment.
+     */
+    private void deleteSegments(long before) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            if (name.startsWith("segment-")) {
+                try {
+                    if (Long.parseLong(name.substring(8)) < before) {
+                        files[i].delete();
+                    }
+                } catch (NumberFormatException ex) {
+                    // not a segment
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a finished cycle to the spool.
+     *
+     * @param cycle the cycle.
+     *
+     * @return true if the cycle was appended, false if it is too large for a
+     *         segment or cannot be encoded.
+     */
+    boolean append(DeviceCycle cycle) {
+        byte[] record;
+        try {
+            record = encode(cycle);
+        } catch (IOException ex) {
+            Logger.getLogger(Spool.class.getName()).log(Level.WARNING,
+                                                        "Cannot spool cycle",
+                                                        ex);
+            return false;
+        }
+        if (HEADER_SIZE + record.length + 4 > SEGMENT_SIZE) {
+            return false;
+        }
+        synchronized (this) {
+            try {
+                if (offset(appendPosition) + HEADER_SIZE + record.length + 4
+                    > SEGMENT_SIZE) {
+                    appendSegment.putInt(offset(appendPosition),
+                                         END_OF_SEGMENT);
+                    appendPosition = (segment(appendPosition) + 1)
+                                     * SEGMENT_SIZE;
+                    appendSegment = openSegment(appendPosition);
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(Spool.class.getName()).log(Level.SEVERE,
+                                                            "Cannot extend spool",
+                                                            ex);
+                return false;
+            }
+            int offset = offset(appendPosition);
+            appendSegment.putLong(offset + 4, cycle.getTime());
+            for (int i = 0; i < record.length; i++) {
+                appendSegment.put(offset + HEADER_SIZE + i, record[i]);
+            }
+            appendSegment.putInt(offset, record.length);
+            appendPosition += HEADER_SIZE + record.length;
+            appended++;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Start the reader thread. Reads the cycles in the order they were
+     * appended and passes them to the consumer, until the thread is
+     * interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                DeviceCycle cycle = next();
+                if (cycle != null) {
+                    consumer.consume(cycle);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            Logger.getLogger(Spool.class.getName()).log(Level.SEVERE,
+                                                        "Cannot read spool",
+                                                        ex);
+        }
+    }
+
+    /**
+     * Reads the next cycle. Waits, until one has been appended. This is done
+     * by the reader thread, but it can also be called without it.
+     *
+     * @return the DeviceCycle or null if the record cannot be decoded or the
+     *         end of a segment was read.
+     */
+    synchronized DeviceCycle next() throws InterruptedException, IOException {
+        while (readPosition == appendPosition) {
+            wait();
+        }
+        int offset = offset(readPosition);
+        int length = readSegment.getInt(offset);
+        if (length == END_OF_SEGMENT) {
+            readPosition = (segment(readPosition) + 1) * SEGMENT_SIZE;
+            readSegment = openSegment(readPosition);
+            return null;
+        }
+        long time = readSegment.getLong(offset + 4);
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; i++) {
+            record[i] = readSegment.get(offset + HEADER_SIZE + i);
+        }
+        long position = readPosition;
+        readPosition += HEADER_SIZE + length;
+        pending.put(position, time);
+        try {
+            DeviceCycle cycle = decode(record, time);
+            cycle.setPosition(position);
+            return cycle;
+        } catch (Exception ex) {
+            Logger.getLogger(Spool.class.getName()).log(Level.WARNING,
+                                                        "Skipping spooled cycle",
+                                                        ex);
+            acknowledge(position);
+            return null;
+        }
+    }
+
+    /**
+     * Acknowledges, that a cycle read from the spool has been written to the
+     * database. The stored position is moved to the oldest cycle not yet
+     * acknowledged, and segments before it are deleted.
+     *
+     * @param position the position of the cycle.
+     */
+    synchronized void acknowledge(long position) {
+        if (pending.remove(position) == null) {
+            return;
+        }
+        consumed++;
+        long oldest = pending.isEmpty() ? readPosition : pending.firstKey();
+        long stored = acknowledged.getLong(0);
+        if (oldest > stored) {
+            acknowledged.putLong(0, oldest);
+            if (segment(oldest) > segment(stored)) {
+                deleteSegments(segment(oldest));
+            }
+        }
+    }
+
+    /**
+     * Returns how far persistence is behind collection in bytes.
+     *
+     * @return a
+     * <code>long</code> containing the bytes spooled and not acknowledged.
+     */
+    synchronized long getLagBytes() {
+        long oldest = pending.isEmpty() ? readPosition : pending.firstKey();
+        return appendPosition - oldest;
+    }
+
+    /**
+     * Returns how far persistence is behind collection in time.
+     *
+     * @param now the current time in ms.
+     *
+     * @return a
+     * <code>long</code> containing the age in ms of the oldest cycle read and
+     * not acknowledged, or 0 if all cycles read have been acknowledged.
+     */
+    long getLagTime(long now) {
+        Map.Entry<Long, Long> oldest = pending.firstEntry();
+        if (oldest == null) {
+            return 0;
+        }
+        return Math.max(0, now - oldest.getValue());
+    }
+
+    /**
+     * Returns the number of cycles appended since startup.
+     *
+     * @return a
+     * <code>long</code> containing the number of cycles.
+     */
+    synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Returns the number of cycles acknowledged since startup.
+     *
+     * @return a
+     * <code>long</code> containing the number of cycles.
+     */
+    synchronized long getConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Encodes a cycle. It is the device, the number of templates and for
+     * each template its class and its rows, if it has any.
+     */
+    static byte[] encode(DeviceCycle cycle) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(cycle.getDevice());
+        out.writeInt(cycle.size());
+        for (int i = 0; i < cycle.size(); i++) {
+            out.writeUTF(cycle.getTemplate(i).getClass().getName());
+            RowBatch batch = cycle.getBatch(i);
+            out.writeBoolean(batch != null);
+            if (batch != null) {
+                batch.write(out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a cycle encoded with encode().
+     */
+    static DeviceCycle decode(byte[] record, long time) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(record));
+        String device = in.readUTF();
+        ElementTemplate[] templates = new ElementTemplate[in.readInt()];
+        RowBatch[] batches = new RowBatch[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = createTemplate(in.readUTF(), time);
+            if (in.readBoolean()) {
+                batches[i] = RowBatch.read(in, templates[i]);
+            }
+        }
+        DeviceCycle cycle = new DeviceCycle(time, device, templates);
+        for (int i = 0; i < templates.length; i++) {
+            cycle.finish(templates[i], batches[i]);
+        }
+        return cycle;
+    }
+
+    private static ElementTemplate createTemplate(String name, long time) throws
+            IOException {
+        try {
+            return (ElementTemplate) Class.forName(name).getConstructor(
+                    long.class).newInstance(time);
+        } catch (Exception ex) {
+            throw new IOException("Unknown template " + name);
+        }
+    }
+}
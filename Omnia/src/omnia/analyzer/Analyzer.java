@@ -1,10 +1,13 @@
 package omnia.analyzer;
 
 import omnia.db.DbOperation;
+import omnia.db.DeviceSession;
 import omnia.snmp.ElementTemplate;
 
 /**
- * The analyzer. This is the superclass of all the analyzers.
+ * The analyzer. This is the superclass of all the analyzers. An analyzer
+ * writes a row to the database through the session of the device of the
+ * row.
  *
  * @versionElement 1.0
  *
@@ -12,51 +15,92 @@ import omnia.snmp.ElementTemplate;
  */
 public class Analyzer {
 
-    protected final DbOperation operation = new DbOperation();
+    protected final DeviceSession session;
+    protected final DbOperation operation;
+
+    /**
+     * Default constructor. Uses the current transaction of the session.
+     *
+     * @param session the session of the device.
+     */
+    public Analyzer(DeviceSession session) {
+        this.session = session;
+        this.operation = session.getOperation();
+    }
 
     public static void analyze(ElementTemplate template) {
     }
 
+    /**
+     * Returns the device of the session. The device is looked up and its
+     * cycle time updated only once per transaction of the session.
+     *
+     * @param template the template of the row.
+     *
+     * @return the device handle.
+     */
+    protected int getDevice(ElementTemplate template) {
+        if (!session.hasDevice()) {
+            int device = operation.getOrCreateDevice(null, template.getDevice());
+            session.setDevice(updateDeviceCycleTime(device, null, template));
+        }
+        return session.getDevice();
+    }
+
+    /**
+     * Writes all elements of a template to a node, overwriting the values in
+     * place. Elements without a value are removed from the node.
+     *
+     * @param template the template.
+     * @param object   the node handle.
+     */
     protected void updateAllElements(ElementTemplate template,
                                             int object) {
         for (int i = 0; i < template.size(); i++) {
-            if (template.hasValue(i)) {
-                operation.update(object, template.getElement(i),
-                                 template.getValue(i));
-            }
+            operation.update(object, template.getElement(i),
+                             template.getValue(i));
         }
     }
 
+    /**
+     * Stamps a device with the cycle time of a template. Stale values are not
+     * cleared here, as the node is updated in place. Stale interfaces and
+     * relationships are removed by the sweeper, when the cycle of the device
+     * has been written.
+     *
+     * @param device    the device handle.
+     * @param chassisId the chassis id of the device or null.
+     * @param template  the template.
+     *
+     * @return the device handle.
+     */
     protected int updateDeviceCycleTime(int device,
                                                   String chassisId,
                                                   ElementTemplate template) {
-        Long cycleTime = (Long) operation.getProperty(device, "cycleTime");
-        String snmpAddress = template.getDevice();
-        if (cycleTime == null) {
-            operation.update(device, "cycleTime", template.getTime());
-        } else if (cycleTime < template.getTime()) {
-            operation.clear(device);
-            device = operation.getOrCreateDevice(chassisId, snmpAddress);
-            operation.update(device, "cycleTime", template.getTime());
-        }
+        stampCycleTime(device, template);
         return device;
     }
 
+    /**
+     * Stamps an interface with the cycle time of a template. See
+     * updateDeviceCycleTime().
+     *
+     * @return the interface handle.
+     */
     protected int updateInterfaceCycleTime(int iface,
                                                      ElementTemplate template,
                                                      int device,
                                                      String index, String alias,
                                                      String nameX,
                                                      Integer portnumber) {
-        Long cycleTime = (Long) operation.getProperty(iface, "cycleTime");
-        if (cycleTime == null) {
-            operation.update(iface, "cycleTime", template.getTime());
-        } else if (cycleTime < template.getTime()) {
-            operation.clear(iface);
-            iface = operation.getOrCreateInterface(device, index, alias, nameX,
-                                                   portnumber);
-            operation.update(iface, "cycleTime", template.getTime());
-        }
+        stampCycleTime(iface, template);
         return iface;
     }
+
+    private void stampCycleTime(int node, ElementTemplate template) {
+        Long cycleTime = (Long) operation.getProperty(node, "cycleTime");
+        if (cycleTime == null || cycleTime < template.getTime()) {
+            operation.update(node, "cycleTime", template.getTime());
+        }
+    }
 }
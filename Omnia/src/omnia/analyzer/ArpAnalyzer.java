@@ -0,0 +1,141 @@
+package omnia.analyzer;
+
+import omnia.Omnia;
+import omnia.db.ArpTable;
+import omnia.db.DeviceSession;
+import omnia.snmp.ArpTemplate;
+import omnia.snmp.RowBatch;
+import org.snmp4j.smi.OID;
+
+/**
+ * The IP to MAC address table analyzer. For analyzing Arp templates. The rows
+ * of a cycle replace the table of the device in the ARP table, so the
+ * addresses are never written to the graph.
+ *
+ * Both ipNetToPhysicalTable and the older ipNetToMediaTable of IP-MIB are
+ * understood, so a plugin can use either.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class ArpAnalyzer extends Analyzer {
+
+    /**
+     * The entry of ipNetToPhysicalTable. The instance of a row is the
+     * ifIndex, the address type, the address length and the address.
+     */
+    private static final OID NET_TO_PHYSICAL = new OID("1.3.6.1.2.1.4.35.1");
+    /**
+     * The entry of ipNetToMediaTable. The instance of a row is the ifIndex
+     * and the IPv4 address.
+     */
+    private static final OID NET_TO_MEDIA = new OID("1.3.6.1.2.1.4.22.1");
+    private static final int IPV4 = 1;
+    private static final int IPV6 = 2;
+
+    public ArpAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
+    /**
+     * Replaces the table of the device with the rows of a batch. Invalid rows
+     * and rows, whose address cannot be read, are skipped.
+     *
+     * @param batch    the rows.
+     * @param template a template of the schema of the batch.
+     */
+    public void analyze(RowBatch batch, ArpTemplate template) {
+        if (!batch.isComplete()) {
+            /*
+             * The walk did not finish, so the previous table is kept
+             * instead of being cut short.
+             */
+            return;
+        }
+        int rows = batch.rows();
+        long[] high = new long[rows];
+        long[] low = new long[rows];
+        long[] macs = new long[rows];
+        long[] address = new long[2];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            batch.read(row, template);
+            if ("invalid".equals(template.getValue(ArpTemplate.TYPE))) {
+                continue;
+            }
+            if (!template.hasValue(ArpTemplate.PHYSADDRESS)
+                || !parseInstance(batch.getOid(row, ArpTemplate.PHYSADDRESS),
+                                  address)) {
+                continue;
+            }
+            high[count] = address[0];
+            low[count] = address[1];
+            macs[count] = template.getLong(ArpTemplate.PHYSADDRESS);
+            count++;
+        }
+        Omnia.dbHandler.getArps().replace(batch.getDevice(), high, low, macs,
+                                          count, batch.getTime());
+    }
+
+    /**
+     * Reads the IP address from the OID of a row.
+     *
+     * @param oid     the OID of an element of the row.
+     * @param address the array, which receives the high and low bits of the
+     *                address.
+     *
+     * @return true if the OID has an IPv4 or IPv6 address.
+     */
+    private static boolean parseInstance(String oid, long[] address) {
+        if (oid == null) {
+            return false;
+        }
+        OID parsed = new OID(oid);
+        int[] value = parsed.getValue();
+        if (parsed.startsWith(NET_TO_MEDIA)) {
+            /*
+             * The column and the ifIndex precede the address.
+             */
+            int start = NET_TO_MEDIA.size() + 2;
+            if (value.length != start + 4) {
+                return false;
+            }
+            address[0] = ArpTable.IPV4_HIGH;
+            address[1] = ArpTable.IPV4_LOW | toLong(value, start, 4);
+            return true;
+        }
+        if (!parsed.startsWith(NET_TO_PHYSICAL)) {
+            return false;
+        }
+        int start = NET_TO_PHYSICAL.size() + 2;
+        if (value.length < start + 2) {
+            return false;
+        }
+        int type = value[start];
+        int length = value[start + 1];
+        int first = start + 2;
+        if (value.length != first + length) {
+            return false;
+        }
+        if (type == IPV4 && length == 4) {
+            address[0] = ArpTable.IPV4_HIGH;
+            address[1] = ArpTable.IPV4_LOW | toLong(value, first, 4);
+            return true;
+        }
+        if (type == IPV6 && length == 16) {
+            address[0] = toLong(value, first, 8);
+            address[1] = toLong(value, first + 8, 8);
+            return true;
+        }
+        return false;
+    }
+
+    private static long toLong(int[] octets, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (octets[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
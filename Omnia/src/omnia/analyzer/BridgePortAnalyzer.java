@@ -0,0 +1,58 @@
+package omnia.analyzer;
+
+import omnia.Omnia;
+import omnia.db.DeviceSession;
+import omnia.snmp.BridgePortTemplate;
+import omnia.snmp.RowBatch;
+import org.snmp4j.smi.OID;
+
+/**
+ * The bridge port analyzer. For analyzing BridgePort templates. The rows of a
+ * cycle replace the ifIndex of the bridge ports of the device in the MAC
+ * table, which gives the ports of the forwarding table as interfaces.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class BridgePortAnalyzer extends Analyzer {
+
+    public BridgePortAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
+    /**
+     * Replaces the bridge ports of the device with the rows of a batch. The
+     * instance of a row of dot1dBasePortTable is the bridge port.
+     *
+     * @param batch    the rows.
+     * @param template a template of the schema of the batch.
+     */
+    public void analyze(RowBatch batch, BridgePortTemplate template) {
+        if (!batch.isComplete()) {
+            // The walk did not finish, so the previous bridge ports are kept.
+            return;
+        }
+        int rows = batch.rows();
+        int[] ports = new int[rows];
+        int[] ifIndexes = new int[rows];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            batch.read(row, template);
+            String oid = batch.getOid(row, BridgePortTemplate.IFINDEX);
+            if (!template.hasValue(BridgePortTemplate.IFINDEX) || oid == null) {
+                continue;
+            }
+            OID instance = new OID(oid);
+            if (instance.size() == 0) {
+                continue;
+            }
+            ports[count] = instance.last();
+            ifIndexes[count] = template.getInteger(BridgePortTemplate.IFINDEX);
+            count++;
+        }
+        Omnia.dbHandler.getMacs().replacePorts(batch.getDevice(), ports,
+                                               ifIndexes, count,
+                                               batch.getTime());
+    }
+}
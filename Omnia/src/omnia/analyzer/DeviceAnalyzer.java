@@ -1,5 +1,6 @@
 package omnia.analyzer;
 
+import omnia.db.DeviceSession;
 import omnia.snmp.DeviceTemplate;
 
 /**
@@ -11,11 +12,15 @@ import omnia.snmp.DeviceTemplate;
  */
 public class DeviceAnalyzer extends Analyzer {
 
+    public DeviceAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
     public void analyze(DeviceTemplate template) {
         int thisDevice = operation.getOrCreateDevice(template.getValueAsString(
                 DeviceTemplate.CHASSISID), template.getDevice());
+        session.setDevice(thisDevice);
         operation.update(thisDevice, "cycleTime", template.getTime());
         updateAllElements(template, thisDevice);
-        operation.close();
     }
 }
@@ -0,0 +1,80 @@
+package omnia.analyzer;
+
+import omnia.Omnia;
+import omnia.db.DeviceSession;
+import omnia.db.MacTable;
+import omnia.snmp.FdbTemplate;
+import omnia.snmp.RowBatch;
+import org.snmp4j.smi.OID;
+
+/**
+ * The forwarding table analyzer. For analyzing Fdb templates. The rows of a
+ * cycle replace the forwarding table of the device in the MAC table, so the
+ * MAC addresses are never written to the graph.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class FdbAnalyzer extends Analyzer {
+
+    /**
+     * The columns of dot1qTpFdbTable, whose instance is the filtering database
+     * id and the MAC address. The instance of dot1dTpFdbTable is only the MAC
+     * address.
+     */
+    private static final OID Q_BRIDGE_FDB = new OID("1.3.6.1.2.1.17.7.1.2.2.1");
+    private static final int MAC_LENGTH = 6;
+
+    public FdbAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
+    /**
+     * Replaces the forwarding table of the device with the rows of a batch.
+     * Rows of the bridge itself and invalid rows are skipped.
+     *
+     * @param batch    the rows.
+     * @param template a template of the schema of the batch.
+     */
+    public void analyze(RowBatch batch, FdbTemplate template) {
+        if (!batch.isComplete()) {
+            /*
+             * The walk did not finish, so the previous forwarding table is kept
+             * instead of being cut short.
+             */
+            return;
+        }
+        int rows = batch.rows();
+        long[] macs = new long[rows];
+        int[] ports = new int[rows];
+        int[] vlans = new int[rows];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            batch.read(row, template);
+            Object port = template.getValue(FdbTemplate.PORT);
+            Object status = template.getValue(FdbTemplate.STATUS);
+            if (!(port instanceof Integer) || "self".equals(status)
+                || "invalid".equals(status)) {
+                continue;
+            }
+            String oid = batch.getOid(row, FdbTemplate.PORT);
+            if (oid == null) {
+                continue;
+            }
+            OID instance = new OID(oid);
+            int[] value = instance.getValue();
+            if (value.length < MAC_LENGTH) {
+                continue;
+            }
+            int mac = value.length - MAC_LENGTH;
+            macs[count] = MacTable.pack(value, mac);
+            ports[count] = (Integer) port;
+            vlans[count] = instance.startsWith(Q_BRIDGE_FDB) && mac > 0
+                           ? value[mac - 1] : 0;
+            count++;
+        }
+        Omnia.dbHandler.getMacs().replace(batch.getDevice(), macs, ports, vlans,
+                                          count, batch.getTime());
+    }
+}
@@ -1,5 +1,6 @@
 package omnia.analyzer;
 
+import omnia.db.DeviceSession;
 import omnia.snmp.InterfaceTemplate;
 
 /**
@@ -11,16 +12,34 @@ import omnia.snmp.InterfaceTemplate;
  */
 public class InterfaceAnalyzer extends Analyzer {
 
+    public InterfaceAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
     public void analyze(InterfaceTemplate template) {
-        int thisDevice = operation.getOrCreateDevice(null, template.getDevice());
-        thisDevice = updateDeviceCycleTime(thisDevice, null, template);
+        int thisDevice = getDevice(template);
         //TODO check name difference between name and nameX
         int thisInterface = operation.getOrCreateInterface(thisDevice,
                                                            template.getValue(
                 InterfaceTemplate.INDEX), null, null, null);
         operation.update(thisInterface, "cycleTime", template.getTime());
-        operation.setHas(thisDevice, thisInterface);
+        operation.setHas(thisDevice, thisInterface, template.getTime());
         updateAllElements(template, thisInterface);
-        operation.close();
+    }
+
+    /**
+     * Removes an interface, which is no longer in the interface table of the
+     * device.
+     *
+     * @param template the template with the device of the interface.
+     * @param index    the ifIndex of the interface.
+     */
+    public void remove(InterfaceTemplate template, int index) {
+        int thisDevice = getDevice(template);
+        int thisInterface = operation.getInterface(thisDevice, "index",
+                                                   Integer.valueOf(index));
+        if (thisInterface >= 0) {
+            operation.deleteInterface(thisDevice, thisInterface);
+        }
     }
 }
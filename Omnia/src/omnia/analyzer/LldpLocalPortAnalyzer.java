@@ -1,5 +1,6 @@
 package omnia.analyzer;
 
+import omnia.db.DeviceSession;
 import omnia.snmp.LldpLocalPortTemplate;
 
 /**
@@ -11,9 +12,12 @@ import omnia.snmp.LldpLocalPortTemplate;
  */
 public class LldpLocalPortAnalyzer extends Analyzer {
 
+    public LldpLocalPortAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
     public  void analyze(LldpLocalPortTemplate template) {
-        int thisDevice = operation.getOrCreateDevice(null, template.getDevice());
-        thisDevice = updateDeviceCycleTime(thisDevice, null, template);
+        int thisDevice = getDevice(template);
 //TODO implement check for portComponent, macAddress, networkAddress, agentCircuitId (DHCP)
         String subtype = (String) template.getValue(
                 LldpLocalPortTemplate.SUBTYPE);
@@ -39,6 +43,5 @@ public class LldpLocalPortAnalyzer extends Analyzer {
                                                  thisDevice, index, alias, nameX,
                                                  portnumber);
         operation.update(thisInterface, "portnumber", portnumber);
-        operation.close();
     }
 }
@@ -1,65 +1,79 @@
 package omnia.analyzer;
 
+import omnia.db.DeviceSession;
 import omnia.snmp.LldpRemotePortTemplate;
 
 /**
- * The LLDP Remote Port analyzer. For analyzing LldpRemotePort templates.
+ * The LLDP Remote Port analyzer. For analyzing LldpRemotePort templates. The
+ * local interface is written, and the remote port is claimed as its neighbour.
+ * The remote device is not looked up here, so the transaction of the local
+ * device never locks it. A cable, which the row has already created, is
+ * stamped at once, otherwise the cable is created later by the neighbour
+ * resolver, when the remote port is known.
  *
  * @versionElement 1.0
  *
  * @author Marcus Hoff <marcus.hoff@ring2.dk>
  */
 public class LldpRemotePortAnalyzer extends Analyzer {
-//TODO: run sanitycheck on this
 
-    public static void analyze(LldpRemotePortTemplate template) {
-//        Object thisDevice = dbHandler.getOrCreateDevice(null,
-//                                                        template.getDevice());
-//        thisDevice = updateDeviceCycleTime(thisDevice, null, template);
-//        Integer portnumber = (Integer) template.getValue(
-//                LldpRemotePortTemplate.LOCALPORT);
-//        Object thisInterface = dbHandler.getOrCreateInterface(thisDevice, null,
-//                                                              null, null,
-//                                                              portnumber);
-//        thisInterface = updateInterfaceCycleTime(thisInterface, template,
-//                                                 thisDevice, null, null, null,
-//                                                 portnumber);
-//        dbHandler.setHas(thisDevice, thisInterface);
-//        Object remoteDevice =
-//                dbHandler.getOrCreateDevice(template.getValueAsString(
-//                LldpRemotePortTemplate.CHASSISID), null);
-//
-//        remoteDevice = updateDeviceCycleTime(remoteDevice,
-//                                             template.getValueAsString(
-//                LldpRemotePortTemplate.CHASSISID), template);
-//
-////TODO implement check for portComponent, macAddress, networkAddress, agentCircuitId (DHCP)
-//        String subtype = (String) template.getValue(
-//                LldpRemotePortTemplate.SUBTYPE);
-//        String index = template.getValueAsString(LldpRemotePortTemplate.INDEX);
-//        String alias = null;
-//        String nameX = null;
-//        if (subtype.equals("interfaceAlias")) {
-//            alias = template.getValueAsString(LldpRemotePortTemplate.ID);
-//        } else if (subtype.equals("interfaceName")) {
-//            nameX = template.getValueAsString(LldpRemotePortTemplate.ID);
-//        } else if (subtype.equals("local")) {
-//            index = template.getValueAsString(LldpRemotePortTemplate.ID);
-//        }
-//        Object remoteInterface =
-//                dbHandler.getOrCreateInterface(remoteDevice, index,
-//                                               alias, nameX, null);
-//        remoteInterface =
-//                updateInterfaceCycleTime(remoteInterface, template, remoteDevice,
-//                                         index, alias, nameX, null);
-//        dbHandler.setHas(remoteDevice, remoteInterface);
-//        dbHandler.update(remoteInterface, "description",
-//                         template.getValue(LldpRemotePortTemplate.DESCRIPTION));
-//        dbHandler.update(remoteDevice, "name",
-//                         template.getValue(LldpRemotePortTemplate.SYSTEMNAME));
-//        dbHandler.update(remoteDevice, "description",
-//                         template.getValue(
-//                LldpRemotePortTemplate.SYSTEMDESCRIPTION));
-//        dbHandler.setCable(thisInterface, remoteInterface);
+    public LldpRemotePortAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
+    public void analyze(LldpRemotePortTemplate template) {
+        int thisDevice = getDevice(template);
+        Integer portnumber = (Integer) template.getValue(
+                LldpRemotePortTemplate.LOCALPORT);
+        if (portnumber == null) {
+            return;
+        }
+        int thisInterface = operation.getInterface(thisDevice, "portnumber",
+                                                   portnumber);
+        if (thisInterface < 0) {
+            thisInterface = operation.getOrCreateInterface(thisDevice, null,
+                                                           null, null,
+                                                           portnumber);
+        }
+        thisInterface = updateInterfaceCycleTime(thisInterface, template,
+                                                 thisDevice, null, null, null,
+                                                 portnumber);
+        operation.setHas(thisDevice, thisInterface, template.getTime());
+//TODO implement check for portComponent, macAddress, networkAddress, agentCircuitId (DHCP)
+        String chassisId = template.getValueAsString(
+                LldpRemotePortTemplate.CHASSISID);
+        String subtype = (String) template.getValue(
+                LldpRemotePortTemplate.SUBTYPE);
+        String id = template.getValueAsString(LldpRemotePortTemplate.ID);
+        String key = null;
+        if ("interfaceAlias".equals(subtype)) {
+            key = "alias";
+        } else if ("interfaceName".equals(subtype)) {
+            key = "nameX";
+        } else if ("local".equals(subtype)) {
+            key = "index";
+        }
+        if (chassisId == null || key == null || id == null) {
+            return;
+        }
+        operation.claimCable(thisInterface, template.getRowKey(), chassisId,
+                             key, id, template.getTime());
+    }
+
+    /**
+     * Removes the cables claimed by an LLDP row, which is no longer in the
+     * remote table of the device.
+     *
+     * @param template the template with the device of the row.
+     * @param key      the row key, see LldpRemotePortTemplate.getRowKey().
+     */
+    public void remove(LldpRemotePortTemplate template, long key) {
+        int thisDevice = getDevice(template);
+        int thisInterface = operation.getInterface(thisDevice, "portnumber",
+                                                   Integer.valueOf(
+                (int) (key >>> 32)));
+        if (thisInterface >= 0) {
+            operation.removeCables(thisInterface, key);
+        }
     }
 }
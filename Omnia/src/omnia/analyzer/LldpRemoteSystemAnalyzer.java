@@ -1,5 +1,6 @@
 package omnia.analyzer;
 
+import omnia.db.DeviceSession;
 import omnia.snmp.LldpRemoteSystemTemplate;
 
 /**
@@ -11,6 +12,10 @@ import omnia.snmp.LldpRemoteSystemTemplate;
  */
 public class LldpRemoteSystemAnalyzer extends Analyzer {
 
+    public LldpRemoteSystemAnalyzer(DeviceSession session) {
+        super(session);
+    }
+
     public static void analyze(LldpRemoteSystemTemplate template) {
 //        Object thisDevice = getThisDevice(template);
     }
@@ -0,0 +1,384 @@
+package omnia.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import omnia.util.LongMultiMap;
+
+/**
+ * A store of the IP to MAC address tables of the devices, like the ARP and
+ * neighbour tables of routers. Like the MacTable, the entries are kept in
+ * memory instead of the graph.
+ *
+ * An IP address is stored as two longs, the high and low 64 bits of the IPv6
+ * address. An IPv4 address is stored as an IPv4-mapped IPv6 address, so both
+ * share one table. Each device has primitive arrays of the addresses and MAC
+ * addresses, and the rows of all devices are found by an index from a hash of
+ * the address to the device and row. The address of the row is compared, so
+ * a lookup is exact.
+ *
+ * The table of a device is replaced as a whole with the rows of each cycle. A
+ * table is a generation, which is never changed, once it has been stored. The
+ * index is updated, when a table is replaced, and guarded by a read-write
+ * lock.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class ArpTable {
+
+    /**
+     * The high bits of an IPv4-mapped IPv6 address.
+     */
+    public static final long IPV4_HIGH = 0;
+    /**
+     * The low bits of an IPv4-mapped IPv6 address, without the IPv4 address.
+     */
+    public static final long IPV4_LOW = 0xffff00000000L;
+    private final ConcurrentMap<String, DeviceTable> devices =
+            new ConcurrentHashMap<String, DeviceTable>();
+    /**
+     * The device and row of each address by the hash of the address. A
+     * device is indexed by its number.
+     */
+    private final LongMultiMap index = new LongMultiMap();
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+    private final List<DeviceTable> tables = new ArrayList<DeviceTable>();
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * The IP to MAC address table of a device.
+     */
+    private static final class DeviceTable {
+
+        private final long[] high;
+        private final long[] low;
+        private final long[] macs;
+        private final long generation;
+
+        private DeviceTable(long[] high, long[] low, long[] macs, int count,
+                            long generation) {
+            this.high = copyOf(high, count);
+            this.low = copyOf(low, count);
+            this.macs = copyOf(macs, count);
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Replaces the table of a device. An address, which occurs more than once,
+     * maps to its last MAC address.
+     *
+     * @param device     the device.
+     * @param high       the high bits of the addresses.
+     * @param low        the low bits of the addresses.
+     * @param macs       the MAC address of each address, as packed by
+     *                   MacTable.pack().
+     * @param count      the number of entries in the arrays.
+     * @param generation the time id of the cycle.
+     */
+    public void replace(String device, long[] high, long[] low, long[] macs,
+                        int count, long generation) {
+        DeviceTable table = new DeviceTable(high, low, macs, count,
+                                            generation);
+        indexLock.writeLock().lock();
+        try {
+            int number = getNumber(device);
+            DeviceTable old = devices.put(device, table);
+            if (old != null) {
+                unindex(old, number);
+            }
+            tables.set(number, table);
+            for (int i = 0; i < count; i++) {
+                index.add(hash(table.high[i], table.low[i]), number, i);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of a device in the index. A device keeps its number,
+     * after its table has expired.
+     */
+    private int getNumber(String device) {
+        Integer number = numbers.get(device);
+        if (number == null) {
+            number = Integer.valueOf(tables.size());
+            numbers.put(device, number);
+            tables.add(null);
+        }
+        return number.intValue();
+    }
+
+    private void unindex(DeviceTable table, int number) {
+        for (int i = 0; i < table.macs.length; i++) {
+            index.remove(hash(table.high[i], table.low[i]), number);
+        }
+        tables.set(number, null);
+    }
+
+    /**
+     * Returns the MAC address of an IP address. If several devices know the
+     * address, the MAC address of the newest generation is returned.
+     *
+     * @param high the high bits of the address.
+     * @param low  the low bits of the address.
+     *
+     * @return a
+     * <code>long</code> containing the MAC address, as packed by
+     * MacTable.pack(), or MacTable.INVALID if the address is not known.
+     */
+    public long getMac(long high, long low) {
+        long mac = MacTable.INVALID;
+        long newest = Long.MIN_VALUE;
+        int newestRow = -1;
+        indexLock.readLock().lock();
+        try {
+            for (int entry = index.first(hash(high, low));
+                 entry != LongMultiMap.END; entry = index.next(entry)) {
+                DeviceTable table = tables.get(index.getOwner(entry));
+                int row = index.getRow(entry);
+                if (table.high[row] != high || table.low[row] != low) {
+                    continue;
+                }
+                /*
+                 * The last row of an address wins within a device.
+                 */
+                if (table.generation > newest
+                    || (table.generation == newest && row > newestRow)) {
+                    mac = table.macs[row];
+                    newest = table.generation;
+                    newestRow = row;
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return mac;
+    }
+
+    /**
+     * Returns the MAC address of an IP address. See getMac(long, long).
+     *
+     * @param ip the IPv4 or IPv6 address.
+     *
+     * @return a
+     * <code>long</code> containing the MAC address or MacTable.INVALID if the
+     * address is not known or cannot be parsed.
+     */
+    public long getMac(String ip) {
+        long[] address = new long[2];
+        if (!parse(ip, address)) {
+            return MacTable.INVALID;
+        }
+        return getMac(address[0], address[1]);
+    }
+
+    /**
+     * Returns the switch ports, where the MAC address of an IP address has
+     * been learned.
+     *
+     * @param ip   the IPv4 or IPv6 address.
+     * @param macs the forwarding tables.
+     *
+     * @return an array of Location ordered as by MacTable.locate(), which is
+     *         empty if the address is not known.
+     */
+    public MacTable.Location[] locate(String ip, MacTable macs) {
+        long mac = getMac(ip);
+        if (mac == MacTable.INVALID) {
+            return new MacTable.Location[0];
+        }
+        return macs.locate(mac);
+    }
+
+    /**
+     * Removes the tables, which have not been replaced since a cycle.
+     *
+     * @param floor the time id of the oldest cycle, which is still valid.
+     *
+     * @return the number of devices removed.
+     */
+    public int expire(long floor) {
+        int removed = 0;
+        indexLock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<String, DeviceTable>> stored =
+                    devices.entrySet().iterator();
+            while (stored.hasNext()) {
+                Map.Entry<String, DeviceTable> table = stored.next();
+                if (table.getValue().generation < floor) {
+                    stored.remove();
+                    unindex(table.getValue(), getNumber(table.getKey()));
+                    removed++;
+                }
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of devices with a table.
+     *
+     * @return an
+     * <code>int</code> containing the number of devices.
+     */
+    public int devices() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the number of entries of all devices.
+     *
+     * @return an
+     * <code>int</code> containing the number of entries.
+     */
+    public int size() {
+        int size = 0;
+        Iterator<DeviceTable> stored = devices.values().iterator();
+        while (stored.hasNext()) {
+            size += stored.next().macs.length;
+        }
+        return size;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address into its high and low 64 bits. An IPv4
+     * address is parsed as an IPv4-mapped IPv6 address.
+     *
+     * @param ip      the address.
+     * @param address the array, which receives the high and low bits.
+     *
+     * @return true if the address was parsed.
+     */
+    public static boolean parse(String ip, long[] address) {
+        if (ip == null) {
+            return false;
+        }
+        ip = ip.trim();
+        if (ip.indexOf(':') < 0) {
+            long ipv4 = parseIpv4(ip);
+            if (ipv4 < 0) {
+                return false;
+            }
+            address[0] = IPV4_HIGH;
+            address[1] = IPV4_LOW | ipv4;
+            return true;
+        }
+        return parseIpv6(ip, address);
+    }
+
+    private static long parseIpv4(String ip) {
+        String[] octets = ip.split("\\.", -1);
+        if (octets.length != 4) {
+            return -1;
+        }
+        long ipv4 = 0;
+        for (int i = 0; i < octets.length; i++) {
+            int octet;
+            try {
+                octet = Integer.parseInt(octets[i]);
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+            if (octet < 0 || octet > 0xff) {
+                return -1;
+            }
+            ipv4 = (ipv4 << 8) | octet;
+        }
+        return ipv4;
+    }
+
+    private static boolean parseIpv6(String ip, long[] address) {
+        int[] groups = new int[8];
+        int gap = ip.indexOf("::");
+        if (gap >= 0 && ip.indexOf("::", gap + 1) >= 0) {
+            return false;
+        }
+        String head = gap >= 0 ? ip.substring(0, gap) : ip;
+        String tail = gap >= 0 ? ip.substring(gap + 2) : "";
+        int[] headGroups = parseGroups(head);
+        int[] tailGroups = parseGroups(tail);
+        if (headGroups == null || tailGroups == null) {
+            return false;
+        }
+        int count = headGroups.length + tailGroups.length;
+        if (gap < 0 ? count != 8 : count > 7) {
+            return false;
+        }
+        System.arraycopy(headGroups, 0, groups, 0, headGroups.length);
+        System.arraycopy(tailGroups, 0, groups, 8 - tailGroups.length,
+                         tailGroups.length);
+        address[0] = 0;
+        address[1] = 0;
+        for (int i = 0; i < 4; i++) {
+            address[0] = (address[0] << 16) | groups[i];
+            address[1] = (address[1] << 16) | groups[i + 4];
+        }
+        return true;
+    }
+
+    /**
+     * Parses the colon separated groups of a part of an IPv6 address. A
+     * trailing IPv4 address counts as two groups.
+     *
+     * @return the groups or null if they cannot be parsed.
+     */
+    private static int[] parseGroups(String part) {
+        if (part.isEmpty()) {
+            return new int[0];
+        }
+        String[] texts = part.split(":", -1);
+        String last = texts[texts.length - 1];
+        boolean ipv4 = last.indexOf('.') >= 0;
+        int[] groups = new int[texts.length + (ipv4 ? 1 : 0)];
+        for (int i = 0; i < texts.length; i++) {
+            if (i == texts.length - 1 && ipv4) {
+                long value = parseIpv4(last);
+                if (value < 0) {
+                    return null;
+                }
+                groups[i] = (int) (value >>> 16);
+                groups[i + 1] = (int) (value & 0xffff);
+                break;
+            }
+            if (texts[i].isEmpty() || texts[i].length() > 4) {
+                return null;
+            }
+            try {
+                groups[i] = Integer.parseInt(texts[i], 16);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            if (groups[i] < 0) {
+                return null;
+            }
+        }
+        return groups;
+    }
+
+    private static long hash(long high, long low) {
+        long hash = (high ^ 0xcbf29ce484222325L) * 0x100000001b3L;
+        hash = (hash ^ low) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long[] copyOf(long[] values, int count) {
+        long[] copy = new long[count];
+        System.arraycopy(values, 0, copy, 0, count);
+        return copy;
+    }
+}
@@ -7,16 +7,26 @@ package omnia.db;
  * @author Marcus Hoff <marcus.hoff@ring2.dk>
  * @version 1.0
  */
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.util.LongLongMap;
 import org.neo4j.cypher.EntityNotFoundException;
 import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.index.Index;
-import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.server.WrappingNeoServerBootstrapper;
 import org.neo4j.server.configuration.Configurator;
@@ -28,18 +38,115 @@ public class DbHandler {
     private static EmbeddedGraphDatabase db;
 //    private AutoIndexer<Node> nodeAutoIndexer;
     private final String DEVICESERIALINDEX = "serial";
+    /**
+     * The directory of the store of the database.
+     */
+    private static final String STOREDIR = "db";
+    /**
+     * The index of the device properties, which devices are searched by.
+     */
+    static final String DEVICEPROPERTIES = "deviceProperties";
+    /**
+     * The device properties, which are indexed in DEVICEPROPERTIES.
+     */
+    static final Set<String> INDEXEDPROPERTIES =
+            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "brand", "model", "serial", "location", "type")));
+    /**
+     * The execution engine shared by all queries, so query plans are cached.
+     */
+    private final ExecutionEngine engine;
     private final WrappingNeoServerBootstrapper srv;
     private Index<Node> devices;
     //  private Index<Node> interfaces;
+    private final IdentityCache identities = new IdentityCache();
+    private final NeighbourTable neighbours = new NeighbourTable();
+    private final MacTable macs = new MacTable();
+    private final ArpTable arps = new ArpTable();
 
     private static EmbeddedGraphDatabase getDb() {
         return db;
     }
 
-    Index getIndex(String index) {
+    Index<Node> getIndex(String index) {
         return db.index().forNodes(index);
     }
 
+    IdentityCache getIdentities() {
+        return identities;
+    }
+
+    /**
+     * Returns the neighbours claimed by LLDP, which are not yet cabled.
+     *
+     * @return the NeighbourTable.
+     */
+    public NeighbourTable getNeighbours() {
+        return neighbours;
+    }
+
+    /**
+     * Returns the forwarding tables of the devices.
+     *
+     * @return the MacTable.
+     */
+    public MacTable getMacs() {
+        return macs;
+    }
+
+    /**
+     * Returns the IP to MAC address tables of the devices.
+     *
+     * @return the ArpTable.
+     */
+    public ArpTable getArps() {
+        return arps;
+    }
+
+    /**
+     * Returns a node by id.
+     *
+     * @param id the node id.
+     *
+     * @return the Node or null if it does not exist.
+     */
+    Node getNode(long id) {
+        try {
+            return db.getNodeById(id);
+        } catch (NotFoundException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns devices, which have not been stamped since a cycle. Devices
+     * are found by their type in the index of the device properties.
+     *
+     * @param floor the time id of the oldest cycle, which is still valid.
+     * @param limit the maximum number of devices to return.
+     *
+     * @return a long[] of the node ids of the devices.
+     */
+    long[] findStaleDevices(long floor, int limit) {
+        long[] stale = new long[Math.max(0, limit)];
+        int count = 0;
+        IndexHits<Node> hits = getIndex(DEVICEPROPERTIES).get("type", "device");
+        try {
+            while (hits.hasNext() && count < stale.length) {
+                Node device = hits.next();
+                Object cycleTime = device.getProperty("cycleTime", null);
+                if (cycleTime instanceof Long && (Long) cycleTime < floor) {
+                    stale[count++] = device.getId();
+                }
+            }
+        } finally {
+            hits.close();
+        }
+        long[] found = new long[count];
+        System.arraycopy(stale, 0, found, 0, count);
+        return found;
+    }
+
     Transaction beginTx() {
         return db.beginTx();
     }
@@ -54,27 +161,31 @@ public class DbHandler {
         CABLE
     }
 
+    /**
+     * Default constructor. Opens the database and keeps the graph of the last
+     * run.
+     */
     public DbHandler() {
+        this(false);
+    }
+
+    /**
+     * Opens the database. The graph of the last run is kept, and stale nodes
+     * are removed by the sweeper. If wipe is set, the store is
+     * deleted before it is opened, so the database starts empty.
+     *
+     * @param wipe true to start with an empty database.
+     */
+    public DbHandler(boolean wipe) {
+        if (wipe) {
+            Logger.getLogger(DbHandler.class.getName()).log(
+                    Level.INFO, "Wiping database");
+            deleteStore(new File(STOREDIR));
+        }
         db =
                 (EmbeddedGraphDatabase) new GraphDatabaseFactory().newEmbeddedDatabase(
-                "db");
+                STOREDIR);
         registerShutdownHook(db);
-        Iterator allNodes = db.getAllNodes().iterator();
-        long nodecount = 0;
-        while (allNodes.hasNext()) {
-            allNodes.next();
-            nodecount++;
-        }
-        System.out.println("Node count before drop:" + nodecount);
-        dropDb(db);
-        dropIndexs(db);
-        allNodes = db.getAllNodes().iterator();
-        nodecount = 0;
-        while (allNodes.hasNext()) {
-            nodecount++;
-            allNodes.next();
-        }
-        System.out.println("Node count after drop:" + nodecount);
         Configurator config;
         config = new ServerConfigurator(db);
 
@@ -87,24 +198,89 @@ public class DbHandler {
 //        nodeAutoIndexer.setEnabled(true);
         devices = db.index().forNodes("devices");
 //        interfaces = index.forNodes("interfaces");
+        engine = new ExecutionEngine(db);
+        rebuildIdentities();
+    }
+
+    /**
+     * Rebuilds the identity cache from the graph. A device is a node with an
+     * indexName, which marks device nodes, and its interfaces are the nodes it has a <it>HAS</it>
+     * relationship to. The keys are read from the properties of the nodes.
+     */
+    private void rebuildIdentities() {
+        identities.clear();
+        LongLongMap deviceKeys = new LongLongMap();
+        LongLongMap interfaceKeys = new LongLongMap();
+        Iterator<Node> allNodes =
+                GlobalGraphOperations.at(db).getAllNodes().iterator();
+        while (allNodes.hasNext()) {
+            Node device = allNodes.next();
+            if (!device.hasProperty("indexName")) {
+                continue;
+            }
+            for (int i = 0; i < IdentityCache.DEVICE_KEYS.length; i++) {
+                Object value = device.getProperty(IdentityCache.DEVICE_KEYS[i],
+                                                  null);
+                if (value != null) {
+                    deviceKeys.put(IdentityCache.deviceKey(
+                            IdentityCache.DEVICE_KEYS[i], value),
+                                   device.getId());
+                }
+            }
+            Iterator<Relationship> has = device.getRelationships(
+                    RelTypes.HAS, Direction.OUTGOING).iterator();
+            while (has.hasNext()) {
+                Node iface = has.next().getEndNode();
+                for (int i = 0; i < IdentityCache.INTERFACE_KEYS.length; i++) {
+                    Object value = iface.getProperty(
+                            IdentityCache.INTERFACE_KEYS[i], null);
+                    if (value != null) {
+                        interfaceKeys.put(IdentityCache.interfaceKey(
+                                device.getId(), IdentityCache.INTERFACE_KEYS[i],
+                                value), iface.getId());
+                    }
+                }
+            }
+        }
+        identities.putAll(deviceKeys, interfaceKeys);
+        Logger.getLogger(DbHandler.class.getName()).log(
+                Level.INFO,
+                "Identity cache rebuilt: {0} device keys, {1} interface keys",
+                new Object[]{identities.devices(), identities.interfaces()});
     }
 
     private static void registerShutdownHook(final GraphDatabaseService graphDb) {
         // Registers a shutdown hook for the Neo4j instance so that it
         // shuts down nicely when the VM exits (even if you "Ctrl-C" the
         // running example before it's completed)
-        // Deletes all entries to the database.
         Runtime.getRuntime().addShutdownHook(new Thread() {
 
             @Override
             public void run() {
-                dropDb(graphDb);
-                dropIndexs(graphDb);
                 graphDb.shutdown();
             }
         });
     }
 
+    /**
+     * Deletes the store of the database. This must be done before the
+     * database is opened.
+     *
+     * @param file the store directory or a file in it.
+     */
+    private static void deleteStore(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                deleteStore(files[i]);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Logger.getLogger(DbHandler.class.getName()).log(
+                    Level.WARNING, "Could not delete {0}", file.getPath());
+        }
+    }
+
     private static <T> Object[] copyIterator(Iterator<T> iterator) {
         List<T> copy = new ArrayList<T>();
         try {
@@ -145,45 +321,6 @@ public class DbHandler {
 
     }
 
-    private static void dropDb(GraphDatabaseService graphDb) {
-        System.out.println("Dropping database...");
-        Iterator<Node> allNodes =
-                GlobalGraphOperations.at(graphDb).getAllNodes().
-                iterator();
-        while (allNodes.hasNext()) {
-            Transaction tx = graphDb.beginTx();
-            try {
-                delete(tx, allNodes.next());
-                tx.success();
-            } catch (Exception ex) {
-                tx.failure();
-            } finally {
-                tx.finish();
-            }
-        }
-        System.out.println("Database dropped");
-    }
-
-    private static void dropIndexs(GraphDatabaseService graphDb) {
-        System.out.println("Dropping indexes...");
-        IndexManager index = graphDb.index();
-        String[] indexNames = index.nodeIndexNames();
-        for (int i = 0; i < indexNames.length; i++) {
-            Index thisIndex = index.forNodes(indexNames[i]);
-            if (thisIndex.isWriteable()) {
-                Transaction tx = graphDb.beginTx();
-                try {
-                    System.out.println("Deleting index " + indexNames[i]);
-                    thisIndex.delete();
-                    tx.success();
-                } finally {
-                    tx.finish();
-                }
-            }
-        }
-        System.out.println("Indexes dropped");
-    }
-
     /**
      * Creates a new node in the database and adds a <it>setHas</it>
      * relationship from an existing node. If the existing node already setHas a
@@ -236,30 +373,92 @@ public class DbHandler {
      */
     public Object[] findHas(Object node, String type, String property,
                             Object value) {
-        String query = "start n=node(" + ((Node) node).getId() + ") "
-                       + " match (n) -[:HAS]-> (x) "
-                       + " where x." + property + " = \"" + value.toString()
-                       + "\" return x";
-        ExecutionEngine engine = new ExecutionEngine(db);
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> xColumn = result.columnAs("x");
-        return copyIterator(xColumn);
-    }
-
-    private String nodeQuery(Object[] nodes) {
-        String query = "start n=node(" + ((Node) nodes[0]).getId();
-        for (int i = 1; i < nodes.length; i++) {
-            query += ", " + ((Node) nodes[i]).getId();
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", ((Node) node).getId());
+        params.put("value", value);
+        return query("start n=node({id}) match (n) -[:HAS]-> (x) where x."
+                     + property + "! = {value} return x", params, "x");
+    }
+
+    /**
+     * Runs a parameterized query on the shared execution engine. The engine
+     * caches the plan of each query, so a query must not contain values, only
+     * parameters.
+     *
+     * @param query  the query.
+     * @param params the parameters of the query.
+     * @param column the column to return.
+     *
+     * @return an array of handles to the results.
+     */
+    private Object[] query(String query, Map<String, Object> params,
+                           String column) {
+        ExecutionResult result = engine.execute(query, params);
+        Iterator<Node> nColumn = result.columnAs(column);
+        return copyIterator(nColumn);
+    }
+
+    /**
+     * Searches a set of devices for a property value.
+     *
+     * @param devices  the devices to search through.
+     * @param property the property.
+     * @param value    the value of the property.
+     *
+     * @return an array of handles to the search results.
+     */
+    private Object[] findDevices(Object[] devices, String property,
+                                 Object value) {
+        if (devices.length == 0) {
+            return devices;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("ids", nodeIds(devices));
+        params.put("value", value);
+        return query("start n=node({ids}) where n.type! = \"device\" and n."
+                     + property + "! = {value} return n", params, "n");
+    }
+
+    private static List<Long> nodeIds(Object[] nodes) {
+        List<Long> ids = new ArrayList<Long>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            ids.add(((Node) nodes[i]).getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the devices with a property value from an index.
+     *
+     * @param index    the index.
+     * @param property the property.
+     * @param value    the value of the property.
+     *
+     * @return an array of handles to the search results.
+     */
+    private static Object[] findIndexed(Index<Node> index, String property,
+                                        Object value) {
+        IndexHits<Node> hits = index.get(property, value);
+        try {
+            return copyIterator(hits);
+        } finally {
+            hits.close();
         }
-        query += ") ";
-        return query;
     }
 
     /*
      * Search methods
      */
+    /**
+     * Searches the DB for devices by chassis id. Returns the devices matching
+     * the criteria.
+     *
+     * @param value the chassis id of the devices.
+     *
+     * @return an array of handles to the search results.
+     */
     public Object[] FindDevicesByChassisId(Object value) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return findIndexed(devices, "chassisId", value);
     }
 
     /**
@@ -274,14 +473,19 @@ public class DbHandler {
      */
     public Object[] FindDevicesBySerial(String brand, String model,
                                         String serial) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = "start n=node(*) where n.type = \"device\" and n.brand = \""
-                       + brand + "\" and n.model = \"" + model
-                       + "\" and n.serial = \""
-                       + serial + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("serial", serial);
+        String query = "start n=node:" + DEVICEPROPERTIES
+                       + "(serial = {serial}) where n.type! = \"device\"";
+        if (brand != null) {
+            params.put("brand", brand);
+            query += " and n.brand! = {brand}";
+        }
+        if (model != null) {
+            params.put("model", model);
+            query += " and n.model! = {model}";
+        }
+        return query(query + " return n", params, "n");
     }
 
     /**
@@ -294,14 +498,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindDevicesBySnmp(Object[] devices, String snmpAddress) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where  n.type = \"device\" and n.snmpAddress = \""
-                 + snmpAddress
-                 + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "snmpAddress", snmpAddress);
     }
 
     /**
@@ -314,13 +511,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindeDevicesByServices(Object[] devices, Integer services) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.services = " + services
-                 + " return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "services", services);
     }
 
     /**
@@ -333,13 +524,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindDevicesByName(Object[] devices, String name) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.name = \"" + name
-                 + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "name", name);
     }
 
     /**
@@ -352,13 +537,19 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindeDevicesByLocation(Object[] devices, String location) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.location = \"" + location
-                 + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "location", location);
+    }
+
+    /**
+     * Searches the DB for devices by location. Returns the devices matching the
+     * criteria.
+     *
+     * @param location the location of the devices.
+     *
+     * @return an array of handles to the search results.
+     */
+    public Object[] FindDevicesByLocation(String location) {
+        return findIndexed(getIndex(DEVICEPROPERTIES), "location", location);
     }
 
     /**
@@ -371,13 +562,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindDevicesByContact(Object[] devices, String contact) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.contact = \"" + contact
-                 + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "contact", contact);
     }
 
     /**
@@ -390,13 +575,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindDevicesByNumOfIf(Object[] devices, Integer numOfIf) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.numOfIf = " + numOfIf
-                 + " return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findDevices(devices, "numberOfIf", numOfIf);
     }
 
     /**
@@ -408,13 +587,7 @@ public class DbHandler {
      * @return an array of handles to the search results.
      */
     public Object[] FindDevicesBySnmp(String snmpAddress) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = "start n = node(*) where n.type = \"device\" and n.snmpAddress = \""
-                       + snmpAddress + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        System.out.println(result);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        return findIndexed(devices, "snmpAddress", snmpAddress);
     }
 
     /**
@@ -429,12 +602,28 @@ public class DbHandler {
      */
     public Object[] FindDevicesByModel(Object[] devices, String brand,
                                        String model) {
-        ExecutionEngine engine = new ExecutionEngine(db);
-        String query = nodeQuery(devices);
-        query += "where n.type = \"device\" and n.brand = \"" + brand
-                 + "\" and n.model = \"" + model + "\" return n";
-        ExecutionResult result = engine.execute(query);
-        Iterator<Node> nColumn = result.columnAs("n");
-        return copyIterator(nColumn);
+        if (brand == null) {
+            return findDevices(devices, "model", model);
+        }
+        return findDevices(findDevices(devices, "model", model), "brand",
+                           brand);
+    }
+
+    /**
+     * Searches the DB for devices by model. Returns the devices matching the
+     * criteria. Brand may be null.
+     *
+     * @param brand the brand of the devices.
+     * @param model the model of the devices.
+     *
+     * @return an array of handles to the search results.
+     */
+    public Object[] FindDevicesByModel(String brand, String model) {
+        Object[] found = findIndexed(getIndex(DEVICEPROPERTIES), "model",
+                                     model);
+        if (brand == null) {
+            return found;
+        }
+        return findDevices(found, "brand", brand);
     }
 }
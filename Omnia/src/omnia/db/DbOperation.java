@@ -1,11 +1,18 @@
 package omnia.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import omnia.Omnia;
 import omnia.db.DbHandler.RelTypes;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.kernel.DeadlockDetectedException;
+import omnia.util.LongLongMap;
 
 /**
  * This class provides a complete operation on the database. It locks down all
@@ -13,22 +20,73 @@ import org.neo4j.graphdb.index.Index;
  * on them. Therefore it is important to call close(), when the operation is
  * finished. Otherwise there might be a deadlock in the database.
  *
+ * Nodes, which are changed together, like the interfaces of a sweep, are
+ * collected first and locked in the order of their ids. If a deadlock is
+ * detected anyway, the transaction is marked as failed and the
+ * DeadlockDetectedException is thrown, so the caller can retry.
+ *
  * @author Marcus Hoff <marcus.hoff@ring2.dk>
  * @version 1.0
  */
 public class DbOperation {
 
     private final DbHandler dbHandler = Omnia.dbHandler;
+    private final IdentityCache identities = dbHandler.getIdentities();
+    /**
+     * The device and interface keys found or created by the operation. They
+     * are added to the identity cache, when the transaction is committed.
+     */
+    private final LongLongMap pendingDevices = new LongLongMap();
+    private final LongLongMap pendingInterfaces = new LongLongMap();
+    /**
+     * The neighbours claimed by the operation. They are added to the table of
+     * the neighbours, when the transaction is committed.
+     */
+    private final NeighbourTable pendingClaims = new NeighbourTable();
+    /**
+     * The local interface and row key of the LLDP rows removed by the
+     * operation. Their claims are withdrawn from the table of the neighbours,
+     * when the transaction is committed.
+     */
+    private final ArrayList<long[]> pendingWithdrawals =
+            new ArrayList<long[]>();
+    /**
+     * The property of a cable, which holds the key of the LLDP row of the
+     * start interface, that claimed it, and the one of the end interface.
+     */
+    private static final String ROW = "row";
+    private static final String REVERSE_ROW = "reverseRow";
     private Transaction tx;
     private Index<Node> devices;
+    /**
+     * The index of the interfaces of all devices. An interface is indexed by
+     * each of its keys, like index, and a value of the node id of its device
+     * and the value of the key. See interfaceEntry().
+     */
+    private Index<Node> interfaces;
     private ArrayList<Relationship> lockedRelationships;
-    private ArrayList<Node> deletedNodes;
+    private LinkedHashSet<Node> deletedNodes;
     private ArrayList<Node> lockedNodes;
+    /**
+     * The handles of the locked nodes and relationships by id. A handle is the
+     * position in lockedNodes or lockedRelationships.
+     */
+    private final LongLongMap nodeHandles = new LongLongMap();
+    private final LongLongMap relationshipHandles = new LongLongMap();
+    private boolean failed;
+    private boolean closed;
+    /**
+     * The property writes done and elided by update(), as the value was
+     * unchanged, by all operations.
+     */
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    private static final AtomicLong ELIDED = new AtomicLong();
 
     public DbOperation() {
         tx = dbHandler.beginTx();
         devices = dbHandler.getIndex("devices");
-        deletedNodes = new ArrayList<Node>();
+        interfaces = dbHandler.getIndex("interfaces");
+        deletedNodes = new LinkedHashSet<Node>();
         lockedNodes = new ArrayList<Node>();
         lockedRelationships = new ArrayList<Relationship>();
     }
@@ -40,9 +98,33 @@ public class DbOperation {
     }
 
     public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
         System.out.println("Closing operation " + tx.toString());
         deepDelete();
         tx.finish();
+        if (!failed) {
+            identities.putAll(pendingDevices, pendingInterfaces);
+            NeighbourTable neighbours = dbHandler.getNeighbours();
+            for (int i = 0; i < pendingWithdrawals.size(); i++) {
+                long[] withdrawal = pendingWithdrawals.get(i);
+                neighbours.withdraw(withdrawal[0], withdrawal[1]);
+            }
+            neighbours.putAll(pendingClaims);
+        }
+    }
+
+    /**
+     * Rolls back the transaction of the operation and closes it. Nothing
+     * found or created by the operation is added to the identity cache.
+     */
+    public void abort() {
+        if (!closed) {
+            failure();
+        }
+        close();
     }
 
     /**
@@ -53,16 +135,254 @@ public class DbOperation {
      * @param to   reference to the <it>to</it> node.
      */
     public void setHas(int from, int to) {
+        getHas(from, to);
+    }
+
+    /**
+     * Sets a <it>setHas</it> relationship between two nodes and stamps it
+     * with the cycle time. If the relationship already exists, only the cycle
+     * time is updated.
+     *
+     * @param from      reference to the <it>from</it> node.
+     * @param to        reference to the <it>to</it> node.
+     * @param cycleTime the time id of the cycle.
+     */
+    public void setHas(int from, int to, long cycleTime) {
+        stamp(getHas(from, to), cycleTime);
+    }
+
+    private int getHas(int from, int to) {
         Iterator<Relationship> hasIterator =
                 getRelationships(from, RelTypes.HAS, Direction.OUTGOING);
 
         while (hasNext(hasIterator)) {
-            if (getId(getEndNode(next(hasIterator))) == getId(to)) {
+            int has = next(hasIterator);
+            if (getId(getEndNode(has)) == getId(to)) {
                 //TODO: catch NotFoundEx
-                return;
+                return has;
+            }
+        }
+        return createRelationshipBetween(from, to, RelTypes.HAS);
+    }
+
+    /**
+     * Sets the cycle time of a relationship, if it is older.
+     *
+     * @param relationship the relationship handle or -1.
+     * @param cycleTime    the time id of the cycle.
+     */
+    private void stamp(int relationship, long cycleTime) {
+        if (relationship < 0) {
+            return;
+        }
+        Relationship stamped = lockedRelationships.get(relationship);
+        Object stored = stamped.getProperty("cycleTime", null);
+        if (stored instanceof Long && (Long) stored >= cycleTime) {
+            return;
+        }
+        try {
+            stamped.setProperty("cycleTime", cycleTime);
+            success();
+        } catch (IllegalArgumentException ex) {
+            failure();
+        }
+    }
+
+    /**
+     * Removes the stale interfaces and relationships of a device. A node or
+     * relationship is stale, if its cycle time is older than the floor. Stale
+     * interfaces are deleted with their relationships, when the operation is
+     * closed. Nodes and relationships without a cycle time are kept.
+     *
+     * @param device the device handle.
+     * @param floor  the time id of the oldest cycle, which is still valid.
+     *
+     * @return the number of interfaces and relationships removed.
+     */
+    public int sweep(int device, long floor) {
+        return sweep(device, floor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most a number of the stale interfaces and relationships of a
+     * device. See sweep(). Call it again, until it returns 0, to remove all.
+     *
+     * @param device the device handle.
+     * @param floor  the time id of the oldest cycle, which is still valid.
+     * @param limit  the maximum number of interfaces and relationships to
+     *               remove.
+     *
+     * @return the number of interfaces and relationships removed.
+     */
+    public int sweep(int device, long floor, int limit) {
+        /*
+         * Collect the stale interfaces and relationships first, so all nodes
+         * they touch can be locked in order before anything is deleted.
+         */
+        ArrayList<Node> staleInterfaces = new ArrayList<Node>();
+        ArrayList<Relationship> staleRelationships =
+                new ArrayList<Relationship>();
+        ArrayList<Node> touched = new ArrayList<Node>();
+        Iterator<Relationship> hasIterator =
+                getRelationships(device, RelTypes.HAS, Direction.OUTGOING);
+        while (hasIterator.hasNext()
+               && staleInterfaces.size() + staleRelationships.size() < limit) {
+            Relationship has = hasIterator.next();
+            Node iface = has.getEndNode();
+            if (isStale(iface, floor)) {
+                staleInterfaces.add(iface);
+                touched.add(iface);
+                Iterator<Relationship> all =
+                        iface.getRelationships().iterator();
+                while (all.hasNext()) {
+                    touched.add(all.next().getOtherNode(iface));
+                }
+                continue;
+            }
+            if (isStale(has, floor)) {
+                staleRelationships.add(has);
+                touched.add(iface);
+            }
+            /*
+             * A cable is stamped by the device, which claimed it, and it starts
+             * at the interface of that device, so only outgoing cables are
+             * swept.
+             */
+            Iterator<Relationship> cables =
+                    iface.getRelationships(RelTypes.CABLE,
+                                           Direction.OUTGOING).iterator();
+            while (cables.hasNext()) {
+                Relationship cable = cables.next();
+                if (isStale(cable, floor)) {
+                    staleRelationships.add(cable);
+                    touched.add(iface);
+                    touched.add(cable.getOtherNode(iface));
+                }
+            }
+        }
+        lockInOrder(touched);
+        /*
+         * A writer may have stamped an interface or relationship, after it was
+         * collected and before it was locked, so each is checked again under
+         * the lock, and only the ones still stale are removed.
+         */
+        int removed = 0;
+        for (int i = 0; i < staleInterfaces.size(); i++) {
+            if (!isStillStale(staleInterfaces.get(i), floor)) {
+                continue;
+            }
+            deleteInterface(device, handle(staleInterfaces.get(i)));
+            removed++;
+        }
+        for (int i = 0; i < staleRelationships.size(); i++) {
+            Relationship relationship = staleRelationships.get(i);
+            if (!isStillStale(relationship, floor)) {
+                continue;
+            }
+            lock(relationship);
+            if (!isStillStale(relationship, floor)) {
+                continue;
+            }
+            try {
+                relationship.delete();
+                success();
+                removed++;
+            } catch (Exception ex) {
+                failure();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes a device with its interfaces and removes it from the indexes and
+     * the identity cache. The nodes are deleted, when the operation is closed.
+     *
+     * @param device the device handle.
+     *
+     * @return the number of nodes deleted.
+     */
+    public int deleteDevice(int device) {
+        Node deviceNode = lockedNodes.get(device);
+        ArrayList<Node> ifaces = new ArrayList<Node>();
+        ArrayList<Node> touched = new ArrayList<Node>();
+        Iterator<Relationship> hasIterator =
+                getRelationships(device, RelTypes.HAS, Direction.OUTGOING);
+        while (hasIterator.hasNext()) {
+            Node iface = hasIterator.next().getEndNode();
+            ifaces.add(iface);
+            Iterator<Relationship> all = iface.getRelationships().iterator();
+            while (all.hasNext()) {
+                touched.add(all.next().getOtherNode(iface));
+            }
+        }
+        touched.addAll(ifaces);
+        lockInOrder(touched);
+        for (int i = 0; i < ifaces.size(); i++) {
+            deleteInterface(device, handle(ifaces.get(i)));
+        }
+        for (int i = 0; i < IdentityCache.DEVICE_KEYS.length; i++) {
+            Object value = getProperty(device, IdentityCache.DEVICE_KEYS[i]);
+            if (value != null) {
+                identities.evictDevice(IdentityCache.DEVICE_KEYS[i], value);
             }
         }
-        createRelationshipBetween(from, to, RelTypes.HAS);
+        try {
+            devices.remove(deviceNode);
+            dbHandler.getIndex(DbHandler.DEVICEPROPERTIES).remove(deviceNode);
+            success();
+        } catch (Exception ex) {
+            failure();
+        }
+        delete(device);
+        return ifaces.size() + 1;
+    }
+
+    /**
+     * Returns a device by node id. The device is locked.
+     *
+     * @param id the node id.
+     *
+     * @return a handle to the device or -1 if it does not exist.
+     */
+    public int getDevice(long id) {
+        Node node = dbHandler.getNode(id);
+        if (node == null) {
+            return -1;
+        }
+        lock(node);
+        return handle(node);
+    }
+
+    /**
+     * Returns the node id of a handle, which stays valid after the operation
+     * is closed.
+     *
+     * @param node the handle.
+     *
+     * @return a
+     * <code>long</code> containing the node id.
+     */
+    public long getNodeId(int node) {
+        return getId(node);
+    }
+
+    private static boolean isStale(PropertyContainer container, long floor) {
+        Object cycleTime = container.getProperty("cycleTime", null);
+        return cycleTime instanceof Long && (Long) cycleTime < floor;
+    }
+
+    /**
+     * Tests if a node or relationship is stale, treating one, which has been
+     * deleted in the meantime, as not stale, since there is nothing to remove.
+     */
+    private static boolean isStillStale(PropertyContainer container,
+                                        long floor) {
+        try {
+            return isStale(container, floor);
+        } catch (NotFoundException ex) {
+            return false;
+        }
     }
 
     private boolean isSameNode(int node, int otherNode) {
@@ -75,12 +395,18 @@ public class DbOperation {
      * @param node the node to lock
      */
     private void lock(Node node) {
-        if (lockedNodes.contains(node)) {
+        if (nodeHandles.containsKey(node.getId())) {
             return;
         }
-        tx.acquireWriteLock(node);
+        try {
+            tx.acquireWriteLock(node);
+        } catch (DeadlockDetectedException ex) {
+            failure();
+            throw ex;
+        }
         System.out.println("Locked node " + node.getId() + " "
                            + tx.toString());
+        nodeHandles.put(node.getId(), lockedNodes.size());
         lockedNodes.add(node);
     }
 
@@ -90,15 +416,72 @@ public class DbOperation {
      * @param node the node to lock
      */
     private void lock(Relationship relationship) {
-        if (lockedRelationships.contains(relationship)) {
+        if (relationshipHandles.containsKey(relationship.getId())) {
             return;
         }
-        tx.acquireWriteLock(relationship);
+        try {
+            tx.acquireWriteLock(relationship);
+        } catch (DeadlockDetectedException ex) {
+            failure();
+            throw ex;
+        }
         System.out.println("Locked relationship " + relationship.getId() + " "
                            + tx.toString());
+        relationshipHandles.put(relationship.getId(),
+                                lockedRelationships.size());
         lockedRelationships.add(relationship);
     }
 
+    /**
+     * Locks a number of nodes in the order of their ids. Nodes, which are
+     * locked together, must be locked through this, so two operations always
+     * acquire their locks in the same order and cannot deadlock on them.
+     *
+     * @param nodes the nodes to lock. Null entries and duplicates are
+     *              ignored.
+     */
+    private void lockInOrder(List<Node> nodes) {
+        long[] ids = new long[nodes.size()];
+        int count = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) != null) {
+                ids[count++] = nodes.get(i).getId();
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            Node node = dbHandler.getNode(ids[i]);
+            if (node != null) {
+                lock(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the handle of a locked node.
+     *
+     * @param node the node.
+     *
+     * @return the handle or -1 if the node is not locked.
+     */
+    private int handle(Node node) {
+        return (int) nodeHandles.get(node.getId(), -1);
+    }
+
+    /**
+     * Returns the handle of a locked relationship.
+     *
+     * @param relationship the relationship.
+     *
+     * @return the handle or -1 if the relationship is not locked.
+     */
+    private int handle(Relationship relationship) {
+        return (int) relationshipHandles.get(relationship.getId(), -1);
+    }
+
     private void success() {
         tx.success();
     }
@@ -106,9 +489,42 @@ public class DbOperation {
     private void failure() {
         //TODO: rewrite success and failure, to communicate state to invocing analyze classes
         System.out.println("Transaction failed: " + tx.toString());
+        failed = true;
         tx.failure();
     }
 
+    /**
+     * Returns the number of property updates written by all operations.
+     *
+     * @return a
+     * <code>long</code> containing the number of writes.
+     */
+    public static long getWrittenUpdates() {
+        return WRITTEN.get();
+    }
+
+    /**
+     * Returns the number of property updates not written by all operations,
+     * as the value was unchanged.
+     *
+     * @return a
+     * <code>long</code> containing the number of elided writes.
+     */
+    public static long getElidedUpdates() {
+        return ELIDED.get();
+    }
+
+    /**
+     * Returns true if the transaction of the operation has failed, so it is
+     * rolled back when the operation is closed.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the transaction has failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
     /**
      * Sets a <it>setCable</it> relationship between two nodes. If the
      * relationship already exists, nothing is done.
@@ -117,19 +533,218 @@ public class DbOperation {
      * @param ifTwo reference to the second interface node.
      */
     public void setCable(int ifOne, int ifTwo) {
+        getCable(ifOne, ifTwo);
+    }
+
+    /**
+     * Sets a <it>setCable</it> relationship between two nodes and stamps it
+     * with the cycle time. If the relationship already exists, only the cycle
+     * time is updated.
+     *
+     * @param ifOne     reference to the first interface node.
+     * @param ifTwo     reference to the second interface node.
+     * @param cycleTime the time id of the cycle.
+     */
+    public void setCable(int ifOne, int ifTwo, long cycleTime) {
+        stamp(getCable(ifOne, ifTwo), cycleTime);
+    }
+
+    /**
+     * Sets a <it>setCable</it> relationship from one interface to another by
+     * node id and stamps it with the cycle time. Both interfaces are locked in
+     * the order of their ids. If the relationship already exists in either
+     * direction, only the cycle time is updated. The cable is tagged with the
+     * key of the LLDP row, which claimed it, so it can be removed with the
+     * row. See removeCables().
+     *
+     * @param from      the node id of the interface, which claimed the cable.
+     * @param to        the node id of the other interface.
+     * @param row       the key of the LLDP row, which claimed the cable.
+     * @param cycleTime the time id of the cycle.
+     *
+     * @return a handle to the relationship or -1 if an interface does not
+     *         exist.
+     */
+    public int setCableBetween(long from, long to, long row, long cycleTime) {
+        Node fromNode = dbHandler.getNode(from);
+        Node toNode = dbHandler.getNode(to);
+        if (fromNode == null || toNode == null) {
+            return -1;
+        }
+        lockInOrder(Arrays.asList(fromNode, toNode));
+        int cable = getCable(handle(fromNode), handle(toNode));
+        if (cable >= 0) {
+            stamp(cable, cycleTime);
+            Relationship tagged = lockedRelationships.get(cable);
+            try {
+                tagged.setProperty(rowProperty(tagged, fromNode), row);
+                success();
+            } catch (IllegalArgumentException ex) {
+                failure();
+            }
+        }
+        return cable;
+    }
+
+    /**
+     * Removes the cables claimed by an LLDP row of an interface, as the row
+     * has been removed. A cable, which is also claimed by the other
+     * interface, is kept, and only the tag of the row is removed. The claims
+     * of the row, which are not resolved yet, are withdrawn, when the
+     * transaction is committed.
+     *
+     * @param iface the interface handle.
+     * @param row   the key of the LLDP row.
+     *
+     * @return the number of cables removed.
+     */
+    public int removeCables(int iface, long row) {
+        Node node = lockedNodes.get(iface);
+        pendingWithdrawals.add(new long[]{node.getId(), row});
+        ArrayList<Relationship> claimed = new ArrayList<Relationship>();
+        ArrayList<Node> touched = new ArrayList<Node>();
+        touched.add(node);
+        Iterator<Relationship> cables =
+                node.getRelationships(RelTypes.CABLE).iterator();
+        while (cables.hasNext()) {
+            Relationship cable = cables.next();
+            Object tag = cable.getProperty(rowProperty(cable, node), null);
+            if (tag instanceof Long && (Long) tag == row) {
+                claimed.add(cable);
+                touched.add(cable.getOtherNode(node));
+            }
+        }
+        lockInOrder(touched);
+        int removed = 0;
+        for (int i = 0; i < claimed.size(); i++) {
+            Relationship cable = claimed.get(i);
+            lock(cable);
+            String property = rowProperty(cable, node);
+            try {
+                if (cable.hasProperty(ROW.equals(property) ? REVERSE_ROW
+                                      : ROW)) {
+                    cable.removeProperty(property);
+                } else {
+                    cable.delete();
+                    removed++;
+                }
+                success();
+            } catch (Exception ex) {
+                failure();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the property of a cable, which holds the row key of an
+     * interface of the cable.
+     */
+    private static String rowProperty(Relationship cable, Node iface) {
+        return cable.getStartNode().getId() == iface.getId() ? ROW
+               : REVERSE_ROW;
+    }
+
+    /**
+     * Claims, that an interface is cabled to a port of a remote device. The
+     * remote device is not looked up or locked. If the row has already cabled
+     * the interface to the port, the cable is stamped in this transaction, so
+     * it is never swept while the claim waits to be resolved. Otherwise the
+     * claim is added to the table of the neighbours, when the transaction is
+     * committed, and the cable is created later, when the remote port is
+     * known.
+     *
+     * @param iface     the interface handle.
+     * @param row       the key of the LLDP row, which made the claim.
+     * @param chassisId the chassis id of the remote device.
+     * @param key       the key of the remote interface, like alias.
+     * @param value     the value of the key.
+     * @param cycleTime the time id of the cycle.
+     */
+    public void claimCable(int iface, long row, String chassisId, String key,
+                           Object value, long cycleTime) {
+        Relationship cable = findClaimedCable(lockedNodes.get(iface), row,
+                                              chassisId, key,
+                                              value.toString());
+        if (cable != null) {
+            lock(cable);
+            stamp(handle(cable), cycleTime);
+            return;
+        }
+        pendingClaims.claim(getId(iface), row, chassisId, key,
+                            value.toString(), cycleTime,
+                            System.currentTimeMillis());
+    }
+
+    /**
+     * Finds the cable of an interface, which is tagged with an LLDP row and
+     * ends at a port of a remote device. The remote nodes are only read.
+     *
+     * @return the cable or null if it is not found.
+     */
+    private Relationship findClaimedCable(Node iface, long row,
+                                          String chassisId, String key,
+                                          String value) {
+        Iterator<Relationship> cables =
+                iface.getRelationships(RelTypes.CABLE).iterator();
+        while (cables.hasNext()) {
+            Relationship cable = cables.next();
+            Object tag = cable.getProperty(rowProperty(cable, iface), null);
+            if (!(tag instanceof Long) || (Long) tag != row) {
+                continue;
+            }
+            Node remote = cable.getOtherNode(iface);
+            if (!value.equals(String.valueOf(remote.getProperty(key, null)))) {
+                continue;
+            }
+            Relationship has = remote.getSingleRelationship(RelTypes.HAS,
+                                                            Direction.INCOMING);
+            if (has != null && chassisId.equals(
+                    has.getStartNode().getProperty("chassisId", null))) {
+                return cable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds an interface of a device by the chassis id of the device. Nothing
+     * is locked.
+     *
+     * @param chassisId the chassis id of the device.
+     * @param key       the key of the interface, like index.
+     * @param value     the value of the key.
+     *
+     * @return the node id or IdentityCache.MISSING if it is not found.
+     */
+    public long findInterfaceId(String chassisId, String key, Object value) {
+        Node device = findDevice("chassisId", chassisId);
+        if (device == null) {
+            return IdentityCache.MISSING;
+        }
+        Node iface = findInterface(device.getId(), key, value);
+        if (iface == null) {
+            return IdentityCache.MISSING;
+        }
+        return iface.getId();
+    }
+
+    private int getCable(int ifOne, int ifTwo) {
         Iterator<Relationship> cableIterator =
                 getRelationships(ifOne, DbHandler.RelTypes.CABLE, Direction.BOTH);
         while (hasNext(cableIterator)) {
-            int[] cableNodesIs = getNodes(next(cableIterator));
+            int cable = next(cableIterator);
+            int[] cableNodesIs = getNodes(cable);
             //TODO: catch NotFoundEx x2
             if ((getId(cableNodesIs[0]) == getId(ifOne) && getId(cableNodesIs[1])
                                                            == getId(ifTwo))
                 || (getId(cableNodesIs[0]) == getId(ifTwo)
                     && getId(cableNodesIs[1]) == getId(ifOne))) {
-                return;
+                return cable;
             }
         }
-        createRelationshipBetween(ifOne, ifTwo, DbHandler.RelTypes.CABLE);
+        return createRelationshipBetween(ifOne, ifTwo,
+                                         DbHandler.RelTypes.CABLE);
     }
 
     /**
@@ -151,8 +766,9 @@ public class DbOperation {
     }
 
     private void deepDelete() {
-        for (int i = 0; i < deletedNodes.size(); i++) {
-            Node deletedNode = deletedNodes.get(i);
+        Iterator<Node> deleted = deletedNodes.iterator();
+        while (deleted.hasNext()) {
+            Node deletedNode = deleted.next();
             System.out.println("Deleting node " + deletedNode.getId() + " "
                                + tx.toString());
             try {
@@ -167,20 +783,54 @@ public class DbOperation {
     /**
      * Updates the property of a node. Sets the property/value pair for a node
      * with a given id. See setProperty() for valid types of the value
-     * parameter.
+     * parameter. A value equal to the current value is not written, so no
+     * change is logged for it.
      *
      * @param node     the node handle.
      * @param property the property.
      * @param value    the value of the property.
      */
     public void update(int node, String property, Object value) {
-        if (property != null && value != null) {
-            setProperty(node, property, value);
+        if (property == null) {
             return;
         }
-        if (property != null) {
+        Object current = lockedNodes.get(node).getProperty(property, null);
+        if (value == null ? current == null : value.equals(current)) {
+            ELIDED.incrementAndGet();
+            return;
+        }
+        WRITTEN.incrementAndGet();
+        if (value != null) {
+            setProperty(node, property, value);
+        } else {
             removeProperty(node, property);
         }
+        if (DbHandler.INDEXEDPROPERTIES.contains(property)
+            && "device".equals(getProperty(node, "type"))) {
+            reindex(node, property, value);
+        }
+    }
+
+    /**
+     * Updates the entry of a device property in the index of the device
+     * properties.
+     *
+     * @param device   the device handle.
+     * @param property the property.
+     * @param value    the new value or null.
+     */
+    private void reindex(int device, String property, Object value) {
+        Index<Node> index = dbHandler.getIndex(DbHandler.DEVICEPROPERTIES);
+        Node node = lockedNodes.get(device);
+        try {
+            index.remove(node, property);
+            if (value != null) {
+                index.add(node, property, value);
+            }
+            success();
+        } catch (Exception ex) {
+            failure();
+        }
     }
 
     private boolean hasProperty(int device, String property) {
@@ -208,13 +858,13 @@ public class DbOperation {
                 lockedRelationships.get(relationship).getOtherNode(lockedNodes.get(
                 node));
         lock(otherNode);
-        return lockedNodes.indexOf(otherNode);
+        return handle(otherNode);
     }
 
     private int getEndNode(int relationship) {
         Node endNode = lockedRelationships.get(relationship).getEndNode();
         lock(endNode);
-        return lockedNodes.indexOf(endNode);
+        return handle(endNode);
     }
 
     private int[] getNodes(int relationship) {
@@ -222,7 +872,7 @@ public class DbOperation {
         Node[] relNodes = lockedRelationships.get(relationship).getNodes();
         for (int i = 0; i < relNodes.length; i++) {
             lock(relNodes[i]);
-            returnIds[i] = lockedNodes.indexOf(relNodes[i]);
+            returnIds[i] = handle(relNodes[i]);
         }
         return returnIds;
     }
@@ -234,7 +884,7 @@ public class DbOperation {
         int relId = -1;
         Relationship relationship = relationships.next();
         lock(relationship);
-        return lockedRelationships.indexOf(relationship);
+        return handle(relationship);
     }
 
     private boolean hasNext(Iterator<Relationship> relationships) {
@@ -287,43 +937,159 @@ public class DbOperation {
         return lockedNodes.get(node).getId();
     }
 
-    private int getOrCreate(String indexName, String key, Object value) {
+    /**
+     * Returns a node from an index or creates it. A created node is added to
+     * the index and gets the key as a property, so the identity cache can be
+     * rebuilt from the graph.
+     *
+     * @param index  the index.
+     * @param key    the key.
+     * @param entry  the value of the key in the index.
+     * @param value  the value of the key.
+     * @param cached the node, if it is already known, or null to look it up
+     *               in the index.
+     *
+     * @return a handle to the node.
+     */
+    private int getOrCreate(Index<Node> index, String key, Object entry,
+                            Object value, Node cached) {
         //TODO: Need to test if pessimistic locking works
-        Index<Node> index = dbHandler.getIndex(indexName);
-        Node node = index.get(key, value).getSingle();
+        Node node = cached;
+        if (node == null) {
+            node = index.get(key, entry).getSingle();
+        }
         if (node != null) {
             lock(node);
             //TODO: catch NotFoundEx
             if (deletedNodes.contains(node)) {
                 undelete(node);
             }
-            return lockedNodes.indexOf(node);
+            return handle(node);
         }
         Node created = dbHandler.createNode();
         lock(created);
         //TODO: catch NotFoundEx
-        node = index.putIfAbsent(created, key, value);
+        node = index.putIfAbsent(created, key, entry);
         if (node == null) {
             System.out.println("Created node " + created.getId() + " "
                                + tx.toString());
-            return lockedNodes.indexOf(created);
+            setProperty(handle(created), key, value);
+            return handle(created);
         }
         lock(node);
         //TODO: catch NotFoundEx
-        delete(lockedNodes.indexOf(created));
-        return lockedNodes.indexOf(node);
+        delete(handle(created));
+        return handle(node);
     }
 
-    private void createRelationshipBetween(int nodeOne, int nodeTwo,
-                                           RelTypes type) {
+    /**
+     * Returns a cached node.
+     *
+     * @param id the node id from the identity cache.
+     *
+     * @return the Node or null if it is not cached or no longer exists.
+     */
+    private Node getCached(long id) {
+        if (id == IdentityCache.MISSING) {
+            return null;
+        }
+        return dbHandler.getNode(id);
+    }
+
+    /**
+     * Finds a device in the identity cache or else in the index of the
+     * devices. The device is not locked.
+     *
+     * @return the Node or null if it is not found.
+     */
+    private Node findDevice(String key, Object value) {
+        long id = identities.getDevice(key, value);
+        Node cached = getCached(id);
+        if (cached != null) {
+            return cached;
+        }
+        if (id != IdentityCache.MISSING) {
+            identities.evictDevice(key, value);
+        }
+        return devices.get(key, value).getSingle();
+    }
+
+    private int getOrCreateDevice(String key, Object value) {
+        return getOrCreateDevice(key, value, findDevice(key, value));
+    }
+
+    private int getOrCreateDevice(String key, Object value, Node found) {
+        int device = getOrCreate(devices, key, value, value, found);
+        if (device >= 0) {
+            pendingDevices.put(IdentityCache.deviceKey(key, value),
+                               getId(device));
+        }
+        return device;
+    }
+
+    /**
+     * Finds an interface of a device in the identity cache or else in the
+     * index of the interfaces.
+     *
+     * @return the Node or null if it is not found.
+     */
+    private Node findInterface(int device, String key, Object value) {
+        return findInterface(getId(device), key, value);
+    }
+
+    private Node findInterface(long deviceId, String key, Object value) {
+        long id = identities.getInterface(deviceId, key, value);
+        Node cached = getCached(id);
+        if (cached != null) {
+            return cached;
+        }
+        if (id != IdentityCache.MISSING) {
+            identities.evictInterface(deviceId, key, value);
+        }
+        IndexHits<Node> hits = interfaces.get(key, interfaceEntry(deviceId,
+                                                                  value));
+        try {
+            if (hits.hasNext()) {
+                return hits.next();
+            }
+            return null;
+        } finally {
+            hits.close();
+        }
+    }
+
+    /**
+     * Returns the value of an interface key in the index of the interfaces.
+     * It is the node id of the device and the value of the key, so the keys
+     * of all devices can share one index.
+     *
+     * @param device the device handle.
+     * @param value  the value of the key.
+     *
+     * @return a String containing the entry.
+     */
+    private String interfaceEntry(int device, Object value) {
+        return interfaceEntry(getId(device), value);
+    }
+
+    private static String interfaceEntry(long deviceId, Object value) {
+        return deviceId + ":" + value;
+    }
+
+    private int createRelationshipBetween(int nodeOne, int nodeTwo,
+                                          RelTypes type) {
         try {
-            lockedNodes.get(nodeOne).createRelationshipTo(lockedNodes.get(nodeTwo), type);
+            Relationship created =
+                    lockedNodes.get(nodeOne).createRelationshipTo(lockedNodes.get(nodeTwo), type);
+            lock(created);
             System.out.println("Created relationship " + type.name()
                                + " between nodes " + getId(nodeOne) + ", "
                                + getId(nodeTwo) + " " + tx.toString());
             success();
+            return handle(created);
         } catch (Exception ex) {
             failure();
+            return -1;
         }
     }
 
@@ -338,9 +1104,13 @@ public class DbOperation {
     public int getOrCreateDevice(String chassisId, String snmpAddress) {
         int device = -1;
         if (chassisId != null && snmpAddress != null) {
-            device = getOrCreate("devices", "chassisId", chassisId);
+            Node byChassisId = findDevice("chassisId", chassisId);
+            Node bySnmpAddress = findDevice("snmpAddress", snmpAddress);
+            lockInOrder(Arrays.asList(byChassisId, bySnmpAddress));
+            device = getOrCreateDevice("chassisId", chassisId, byChassisId);
             //TODO: tjek return -1
-            int otherDevice = getOrCreate("devices", "snmpAddress", snmpAddress);
+            int otherDevice = getOrCreateDevice("snmpAddress", snmpAddress,
+                                                bySnmpAddress);
             //TODO: tjek return -1
             if (isSameNode(otherDevice, device)) {
                 Iterator<String> properties = getPropertyKeys(otherDevice);
@@ -359,6 +1129,7 @@ public class DbOperation {
                     int otherInterface = getRelationshipNode(relationship,
                                                              otherDevice);
                     //TODO: catch NotFoundEx
+                    interfaces.remove(lockedNodes.get(otherInterface));
                     Object index = null;
                     Object alias = null;
                     Object nameX = null;
@@ -397,83 +1168,155 @@ public class DbOperation {
                         setCable(thisInterface, relNode);
                     }
                 }
-                if (hasProperty(otherDevice, "indexName")) {
-                    String indexName = (String) getProperty(otherDevice,
-                                                            "indexName");
-                    dbHandler.getIndex(indexName).delete();
+                Object otherChassisId = getProperty(otherDevice, "chassisId");
+                if (otherChassisId != null) {
+                    identities.evictDevice("chassisId", otherChassisId);
                 }
                 devices.remove(lockedNodes.get(otherDevice));
                 clear(otherDevice);
                 devices.add(lockedNodes.get(device), "snmpAddress", snmpAddress);
+                pendingDevices.put(IdentityCache.deviceKey("snmpAddress",
+                                                           snmpAddress),
+                                   getId(device));
             }
+            markDevice(device, chassisId);
         } else if (chassisId != null) {
-            device = getOrCreate("devices", "chassisId", chassisId);
+            device = getOrCreateDevice("chassisId", chassisId);
             //TODO: tjek return -1
 //            update(device, "snmpAddress", snmpAddress);
-            if (!hasProperty(device, "indexName")) {
-                update(device, "indexName", chassisId);
-            }
+            markDevice(device, chassisId);
         } else if (snmpAddress != null) {
-            device = getOrCreate("devices", "snmpAddress", snmpAddress);
+            device = getOrCreateDevice("snmpAddress", snmpAddress);
             //TODO: tjek return -1
 //            update(device, "chassisId", chassisId);
-            if (!hasProperty(device, "indexName")) {
-                update(device, "indexName", snmpAddress);
-            }
+            markDevice(device, snmpAddress);
         }
         return device;
     }
 
+    /**
+     * Marks a node as a device, if it is not already marked. A device has an
+     * indexName and a type of "device", which the finders of DbHandler search
+     * by.
+     *
+     * @param device    the device handle.
+     * @param indexName the name of the device.
+     */
+    private void markDevice(int device, String indexName) {
+        if (!hasProperty(device, "indexName")) {
+            update(device, "indexName", indexName);
+        }
+        if (!hasProperty(device, "type")) {
+            update(device, "type", "device");
+        }
+    }
+
+    /**
+     * Returns an interface of a device or creates it. The interface is found
+     * by the first key, which is known for the device, in the order index,
+     * alias, nameX and portnumber. If no key is known, it is created by the
+     * first key, which is not null. The other keys, which are not null, are
+     * updated on the interface and in the index of the interfaces. Keys passed as null are left as they are, so
+     * an analyzer, which only knows one key, does not clear the others. Keys
+     * are looked up in the identity cache first, so the index
+     * of the interfaces is only used on a miss.
+     *
+     * @param device     the device handle.
+     * @param index      the ifIndex or null.
+     * @param alias      the ifAlias or null.
+     * @param nameX      the ifName or null.
+     * @param portnumber the LLDP port number or null.
+     *
+     * @return a handle to the interface or -1 if all keys are null.
+     */
     public int getOrCreateInterface(int device, Object index, Object alias,
                                     Object nameX, Object portnumber) {
-        Index deviceIndex = dbHandler.getIndex(
-                getProperty(device, "indexName").toString());
-        int indexes = 0;
-        int aliases = 0;
-        int names = 0;
-        int portnumbers = 0;
-        if (index != null) {
-            indexes = deviceIndex.get("index", index).size();
+        String[] keys = IdentityCache.INTERFACE_KEYS;
+        Object[] values = {index, alias, nameX, portnumber};
+        int chosen = -1;
+        Node found = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (chosen < 0) {
+                chosen = i;
+            }
+            found = findInterface(device, keys[i], values[i]);
+            if (found != null) {
+                chosen = i;
+                break;
+            }
         }
-        if (alias != null) {
-            aliases = deviceIndex.get("alias", alias).size();
+        if (chosen < 0) {
+            return -1;
         }
-        if (nameX != null) {
-            names = deviceIndex.get("nameX", nameX).size();
+        int returnIf = getOrCreate(interfaces, keys[chosen],
+                                   interfaceEntry(device, values[chosen]),
+                                   values[chosen], found);
+        //TODO: tjek return -1
+        long deviceId = getId(device);
+        Node node = lockedNodes.get(returnIf);
+        for (int i = 0; i < keys.length; i++) {
+            if (i != chosen && values[i] != null) {
+                Object old = getProperty(returnIf, keys[i]);
+                if (old != null && !old.equals(values[i])) {
+                    identities.evictInterface(deviceId, keys[i], old);
+                    interfaces.remove(node, keys[i],
+                                      interfaceEntry(deviceId, old));
+                }
+                if (!values[i].equals(old)) {
+                    interfaces.add(node, keys[i],
+                                   interfaceEntry(deviceId, values[i]));
+                }
+                update(returnIf, keys[i], values[i]);
+            }
+            if (values[i] != null) {
+                pendingInterfaces.put(IdentityCache.interfaceKey(
+                        deviceId, keys[i], values[i]), getId(returnIf));
+            }
         }
-        if (portnumber != null) {
-            portnumbers = deviceIndex.get("portnumber", portnumber).size();
+        return returnIf;
+    }
+
+    /**
+     * Returns an existing interface of a device. Nothing is created.
+     *
+     * @param device the device handle.
+     * @param key    the key of the interface, like index.
+     * @param value  the value of the key.
+     *
+     * @return a handle to the interface or -1 if it does not exist.
+     */
+    public int getInterface(int device, String key, Object value) {
+        Node node = findInterface(device, key, value);
+        if (node == null) {
+            return -1;
         }
-        int all = indexes + aliases + names + portnumbers;
+        lock(node);
+        //TODO: catch NotFoundEx
+        return handle(node);
+    }
 
-        int returnIf = -1;
-        if (index != null && (indexes > 0 || all == 0)) {
-            returnIf = getOrCreate(deviceIndex.getName(), "index", index);
-            //TODO: tjek return -1
-            update(returnIf, "alias", alias);
-            update(returnIf, "nameX", nameX);
-            update(returnIf, "portnumber", portnumber);
-        } else if (alias != null && (aliases > 0 || all == 0)) {
-            returnIf = getOrCreate(deviceIndex.getName(), "alias", alias);
-            //TODO: tjek return -1
-            update(returnIf, "index", index);
-            update(returnIf, "nameX", nameX);
-            update(returnIf, "portnumber", portnumber);
-        } else if (nameX != null && (names > 0 || all == 0)) {
-            returnIf = getOrCreate(deviceIndex.getName(), "nameX", nameX);
-            //TODO: tjek return -1
-            update(returnIf, "alias", alias);
-            update(returnIf, "index", index);
-            update(returnIf, "portnumber", portnumber);
-        } else if (portnumber != null) {
-            returnIf = getOrCreate(deviceIndex.getName(), "portnumber",
-                                   portnumber);
-            //TODO: tjek return -1
-            update(returnIf, "alias", alias);
-            update(returnIf, "nameX", nameX);
-            update(returnIf, "index", index);
+    /**
+     * Deletes an interface of a device and removes the entries of all its
+     * keys from the index of the interfaces and the identity cache. The interface is deleted, when the
+     * operation is closed.
+     *
+     * @param device the device handle.
+     * @param iface  the interface handle.
+     */
+    public void deleteInterface(int device, int iface) {
+        for (int i = 0; i < IdentityCache.INTERFACE_KEYS.length; i++) {
+            Object value = getProperty(iface, IdentityCache.INTERFACE_KEYS[i]);
+            if (value != null) {
+                identities.evictInterface(getId(device),
+                                          IdentityCache.INTERFACE_KEYS[i],
+                                          value);
+            }
         }
-        return returnIf;
+        interfaces.remove(lockedNodes.get(iface));
+        delete(iface);
     }
 
     private void undelete(Node node) {
@@ -0,0 +1,150 @@
+package omnia.db;
+
+/**
+ * A write session for the rows of one device in one cycle, or of a group of
+ * devices written one after the other, see nextDevice(). All rows of the
+ * templates of the device are written through the same DbOperation, and so in
+ * the same transaction, instead of one transaction per row. When a number of
+ * rows have been written, the transaction is committed and a new one is
+ * started, so transactions stay bounded in size.
+ *
+ * The device node is resolved once per transaction and kept by the session,
+ * so the analyzers do not look it up and lock it for every row.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class DeviceSession {
+
+    private final int batchSize;
+    private DbOperation operation;
+    private int device;
+    private long deviceId = -1;
+    private int rows;
+    private int commits;
+    private boolean failed;
+
+    /**
+     * Default constructor. Starts the first transaction.
+     *
+     * @param batchSize the number of rows written per transaction.
+     */
+    public DeviceSession(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        begin();
+    }
+
+    private void begin() {
+        operation = new DbOperation();
+        device = -1;
+        rows = 0;
+    }
+
+    /**
+     * Returns the operation of the current transaction. Handles from the
+     * operation are only valid until the next call of rowDone().
+     *
+     * @return the DbOperation.
+     */
+    public DbOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Tests if the device has been resolved in the current transaction.
+     *
+     * @return true if the device handle is set.
+     */
+    public boolean hasDevice() {
+        return device >= 0;
+    }
+
+    /**
+     * Returns the handle of the device in the current transaction.
+     *
+     * @return the device handle or -1 if it has not been resolved.
+     */
+    public int getDevice() {
+        return device;
+    }
+
+    /**
+     * Stores the handle of the device in the current transaction.
+     *
+     * @param device the device handle.
+     */
+    public void setDevice(int device) {
+        this.device = device;
+        this.deviceId = device < 0 ? -1 : operation.getNodeId(device);
+    }
+
+    /**
+     * Starts writing the rows of the next device in the same transaction.
+     * The handle of the current device is forgotten.
+     */
+    public void nextDevice() {
+        device = -1;
+        deviceId = -1;
+    }
+
+    /**
+     * Marks a row as written. When batchSize rows have been written, the
+     * transaction is committed and a new one is started.
+     */
+    public void rowDone() {
+        rows++;
+        if (rows >= batchSize) {
+            commit();
+            begin();
+        }
+    }
+
+    /**
+     * Returns the node id of the current device. Unlike the handle, it stays
+     * valid after the transaction, in which the device was resolved, has been
+     * committed.
+     *
+     * @return the node id or -1 if the device has not been resolved.
+     */
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    private void commit() {
+        operation.close();
+        if (operation.isFailed()) {
+            failed = true;
+        }
+        commits++;
+    }
+
+    /**
+     * Commits the current transaction and ends the session.
+     *
+     * @return true if all transactions of the session succeeded.
+     */
+    public boolean close() {
+        commit();
+        return !failed;
+    }
+
+    /**
+     * Rolls back the current transaction and ends the session. Transactions,
+     * which have been committed already, are kept, as the writes are upserts.
+     */
+    public void abort() {
+        operation.abort();
+        failed = true;
+    }
+
+    /**
+     * Returns the number of transactions committed by the session.
+     *
+     * @return an
+     * <code>int</code> containing the number of commits.
+     */
+    public int getCommits() {
+        return commits;
+    }
+}
@@ -0,0 +1,183 @@
+package omnia.db;
+
+import omnia.util.LongLongMap;
+
+/**
+ * An in-memory cache of the identity of the devices and interfaces in the
+ * database. It maps the keys of a device, like chassisId and snmpAddress, and
+ * the keys of an interface of a device, like index and portnumber, to node
+ * ids, so nodes can be found without an index lookup.
+ *
+ * The keys are stored as a 64 bit hash of the device, key and value in
+ * primitive long maps, so no objects are kept per entry. Values are compared
+ * by their string form, so an index of 1 and "1" is the same key.
+ *
+ * The cache is write-through. DbOperation adds the nodes it finds or creates,
+ * when its transaction is committed, and evicts nodes, when they are deleted.
+ * The database and its indexes remain the source of truth, so a miss falls
+ * back to the index, and a hit on a node, which no longer exists, is evicted.
+ * The cache is rebuilt from the graph at startup.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class IdentityCache {
+
+    /**
+     * The node id returned, when a key is not cached.
+     */
+    public static final long MISSING = -1;
+    /**
+     * The keys, which identify a device.
+     */
+    public static final String[] DEVICE_KEYS = {"chassisId", "snmpAddress"};
+    /**
+     * The keys, which identify an interface of a device.
+     */
+    public static final String[] INTERFACE_KEYS = {"index", "alias", "nameX",
+                                                   "portnumber"};
+    private final LongLongMap devices = new LongLongMap();
+    private final LongLongMap interfaces = new LongLongMap();
+
+    /**
+     * Returns the node id of a device.
+     *
+     * @param key   the key, like chassisId.
+     * @param value the value of the key.
+     *
+     * @return the node id or MISSING if it is not cached.
+     */
+    public synchronized long getDevice(String key, Object value) {
+        return devices.get(deviceKey(key, value), MISSING);
+    }
+
+    /**
+     * Returns the node id of an interface of a device.
+     *
+     * @param device the node id of the device.
+     * @param key    the key, like index.
+     * @param value  the value of the key.
+     *
+     * @return the node id or MISSING if it is not cached.
+     */
+    public synchronized long getInterface(long device, String key,
+                                          Object value) {
+        return interfaces.get(interfaceKey(device, key, value), MISSING);
+    }
+
+    /**
+     * Adds a number of devices and interfaces, as prepared with deviceKey()
+     * and interfaceKey().
+     *
+     * @param newDevices    the node ids of the devices by key.
+     * @param newInterfaces the node ids of the interfaces by key.
+     */
+    public synchronized void putAll(LongLongMap newDevices,
+                                    LongLongMap newInterfaces) {
+        long[] keys = newDevices.keys();
+        for (int i = 0; i < keys.length; i++) {
+            devices.put(keys[i], newDevices.get(keys[i], MISSING));
+        }
+        keys = newInterfaces.keys();
+        for (int i = 0; i < keys.length; i++) {
+            interfaces.put(keys[i], newInterfaces.get(keys[i], MISSING));
+        }
+    }
+
+    /**
+     * Removes a device key.
+     *
+     * @param key   the key.
+     * @param value the value of the key.
+     */
+    public synchronized void evictDevice(String key, Object value) {
+        devices.remove(deviceKey(key, value));
+    }
+
+    /**
+     * Removes an interface key.
+     *
+     * @param device the node id of the device.
+     * @param key    the key.
+     * @param value  the value of the key.
+     */
+    public synchronized void evictInterface(long device, String key,
+                                            Object value) {
+        interfaces.remove(interfaceKey(device, key, value));
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        devices.clear();
+        interfaces.clear();
+    }
+
+    /**
+     * Returns the number of device keys.
+     *
+     * @return an
+     * <code>int</code> containing the number of keys.
+     */
+    public synchronized int devices() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the number of interface keys.
+     *
+     * @return an
+     * <code>int</code> containing the number of keys.
+     */
+    public synchronized int interfaces() {
+        return interfaces.size();
+    }
+
+    /**
+     * Returns the hash of a device key.
+     *
+     * @param key   the key.
+     * @param value the value of the key.
+     *
+     * @return a
+     * <code>long</code> containing the hash.
+     */
+    public static long deviceKey(String key, Object value) {
+        return hash(0, key, value);
+    }
+
+    /**
+     * Returns the hash of an interface key.
+     *
+     * @param device the node id of the device.
+     * @param key    the key.
+     * @param value  the value of the key.
+     *
+     * @return a
+     * <code>long</code> containing the hash.
+     */
+    public static long interfaceKey(long device, String key, Object value) {
+        return hash(device + 1, key, value);
+    }
+
+    private static long hash(long device, String key, Object value) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ device) * 0x100000001b3L;
+        hash = mix(hash, key);
+        hash = (hash ^ 0xff) * 0x100000001b3L;
+        hash = mix(hash, value.toString());
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,479 @@
+package omnia.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import omnia.util.LongLongMap;
+import omnia.util.LongMultiMap;
+
+/**
+ * A store of the bridge forwarding tables of the devices. The MAC addresses
+ * are far too many to be nodes in the graph, so they are kept in memory
+ * instead. A MAC address is packed into the lower 48 bits of a long, and each
+ * device has a primitive map from MAC address to its port and VLAN, and a map
+ * from port to the number of MAC addresses learned on it.
+ *
+ * The table of a device is replaced as a whole with the rows of each cycle,
+ * so there are no stale entries to remove. A table is never changed, once it
+ * has been stored, so it is read without locking.
+ *
+ * The devices, which have learned a MAC address, are found by an index from
+ * MAC address to device, so a MAC address is located without looking at the
+ * table of every device. The index is updated, when a table is replaced, and
+ * guarded by a read-write lock.
+ *
+ * The ports of a forwarding table are bridge ports. The ifIndex of each bridge
+ * port is kept in a second table per device, which is replaced on its own, so
+ * a location is given with both.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class MacTable {
+
+    /**
+     * The value returned for a MAC address, which cannot be parsed.
+     */
+    public static final long INVALID = -1;
+    private static final long MAC_MASK = 0xffffffffffffL;
+    private final ConcurrentMap<String, DeviceTable> devices =
+            new ConcurrentHashMap<String, DeviceTable>();
+    private final ConcurrentMap<String, BridgePorts> bridgePorts =
+            new ConcurrentHashMap<String, BridgePorts>();
+    /**
+     * The devices of each MAC address. A device is indexed by its number.
+     */
+    private final LongMultiMap index = new LongMultiMap();
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * The forwarding table of a device.
+     */
+    private static final class DeviceTable {
+
+        /**
+         * The VLAN in the upper 32 bits and the port in the lower 32 bits by
+         * MAC address.
+         */
+        private final LongLongMap entries;
+        /**
+         * The number of MAC addresses by port.
+         */
+        private final LongLongMap ports;
+        private final long time;
+
+        private DeviceTable(LongLongMap entries, LongLongMap ports, long time) {
+            this.entries = entries;
+            this.ports = ports;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The ifIndex by bridge port of a device.
+     */
+    private static final class BridgePorts {
+
+        private final LongLongMap ifIndexes;
+        private final long time;
+
+        private BridgePorts(LongLongMap ifIndexes, long time) {
+            this.ifIndexes = ifIndexes;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A port of a device, where a MAC address has been learned.
+     */
+    public static final class Location {
+
+        private final String device;
+        private final int port;
+        private final int ifIndex;
+        private final int vlan;
+        private final int macs;
+
+        private Location(String device, int port, int ifIndex, int vlan,
+                         int macs) {
+            this.device = device;
+            this.port = port;
+            this.ifIndex = ifIndex;
+            this.vlan = vlan;
+            this.macs = macs;
+        }
+
+        /**
+         * Returns the device.
+         *
+         * @return a String containing the device.
+         */
+        public String getDevice() {
+            return device;
+        }
+
+        /**
+         * Returns the bridge port number.
+         *
+         * @return an
+         * <code>int</code> containing the port.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns the ifIndex of the bridge port.
+         *
+         * @return an
+         * <code>int</code> containing the ifIndex or 0 if not known.
+         */
+        public int getIfIndex() {
+            return ifIndex;
+        }
+
+        /**
+         * Returns the VLAN or rather the filtering database id, which is the
+         * VLAN on most bridges.
+         *
+         * @return an
+         * <code>int</code> containing the VLAN or 0 if not known.
+         */
+        public int getVlan() {
+            return vlan;
+        }
+
+        /**
+         * Returns the number of MAC addresses learned on the port. An access
+         * port has few, while an uplink has many.
+         *
+         * @return an
+         * <code>int</code> containing the number of MAC addresses.
+         */
+        public int getMacs() {
+            return macs;
+        }
+    }
+
+    /**
+     * Orders locations by the number of MAC addresses on the port, so the
+     * access port of a MAC address comes first.
+     */
+    private static final Comparator<Location> BY_MACS =
+            new Comparator<Location>() {
+
+                @Override
+                public int compare(Location one, Location two) {
+                    return one.macs < two.macs ? -1
+                           : (one.macs == two.macs ? 0 : 1);
+                }
+            };
+
+    /**
+     * Replaces the forwarding table of a device.
+     *
+     * @param device the device.
+     * @param macs   the MAC addresses, as packed by pack().
+     * @param ports  the bridge port of each MAC address.
+     * @param vlans  the filtering database id of each MAC address or 0. See
+     *               Location.getVlan().
+     * @param count  the number of entries in the arrays.
+     * @param time   the time id of the cycle.
+     */
+    public void replace(String device, long[] macs, int[] ports, int[] vlans,
+                        int count, long time) {
+        LongLongMap entries = new LongLongMap(count);
+        LongLongMap portCounts = new LongLongMap();
+        for (int i = 0; i < count; i++) {
+            entries.put(macs[i], ((long) vlans[i] << 32)
+                                 | (ports[i] & 0xffffffffL));
+            portCounts.put(ports[i], portCounts.get(ports[i], 0) + 1);
+        }
+        DeviceTable table = new DeviceTable(entries, portCounts, time);
+        indexLock.writeLock().lock();
+        try {
+            int number = getNumber(device);
+            DeviceTable old = devices.put(device, table);
+            if (old != null) {
+                unindex(old, number);
+            }
+            long[] learned = entries.keys();
+            for (int i = 0; i < learned.length; i++) {
+                index.add(learned[i], number, 0);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the ifIndex of the bridge ports of a device.
+     *
+     * @param device    the device.
+     * @param ports     the bridge ports.
+     * @param ifIndexes the ifIndex of each bridge port.
+     * @param count     the number of entries in the arrays.
+     * @param time      the time id of the cycle.
+     */
+    public void replacePorts(String device, int[] ports, int[] ifIndexes,
+                             int count, long time) {
+        LongLongMap map = new LongLongMap(count);
+        for (int i = 0; i < count; i++) {
+            map.put(ports[i], ifIndexes[i]);
+        }
+        bridgePorts.put(device, new BridgePorts(map, time));
+    }
+
+    /**
+     * Returns the ifIndex of a bridge port of a device.
+     *
+     * @param device the device.
+     * @param port   the bridge port.
+     *
+     * @return an
+     * <code>int</code> containing the ifIndex or 0 if not known.
+     */
+    public int getIfIndex(String device, int port) {
+        BridgePorts ports = bridgePorts.get(device);
+        if (ports == null) {
+            return 0;
+        }
+        return (int) ports.ifIndexes.get(port, 0);
+    }
+
+    /**
+     * Returns the number of a device in the index. A device keeps its number,
+     * after its table has expired.
+     */
+    private int getNumber(String device) {
+        Integer number = numbers.get(device);
+        if (number == null) {
+            number = Integer.valueOf(names.size());
+            numbers.put(device, number);
+            names.add(device);
+        }
+        return number.intValue();
+    }
+
+    private void unindex(DeviceTable table, int number) {
+        long[] learned = table.entries.keys();
+        for (int i = 0; i < learned.length; i++) {
+            index.remove(learned[i], number);
+        }
+    }
+
+    /**
+     * Returns the ports, where a MAC address has been learned.
+     *
+     * @param mac the MAC address, as packed by pack().
+     *
+     * @return an array of Location ordered by the number of MAC addresses on
+     *         the port, so the most likely access port is first. It is empty
+     *         if the MAC address is not known.
+     */
+    public Location[] locate(long mac) {
+        List<Location> found = new ArrayList<Location>();
+        indexLock.readLock().lock();
+        try {
+            for (int entry = index.first(mac); entry != LongMultiMap.END;
+                 entry = index.next(entry)) {
+                String device = names.get(index.getOwner(entry));
+                DeviceTable table = devices.get(device);
+                long learned = table.entries.get(mac, INVALID);
+                int port = (int) learned;
+                found.add(new Location(device, port, getIfIndex(device, port),
+                                       (int) (learned >>> 32),
+                                       (int) table.ports.get(port, 0)));
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        Location[] locations = found.toArray(new Location[found.size()]);
+        Arrays.sort(locations, BY_MACS);
+        return locations;
+    }
+
+    /**
+     * Returns the ports, where a MAC address has been learned. See
+     * locate(long).
+     *
+     * @param mac the MAC address, like 00:1a:2b:3c:4d:5e.
+     *
+     * @return an array of Location, which is empty if the MAC address is not
+     *         known or cannot be parsed.
+     */
+    public Location[] locate(String mac) {
+        long packed = pack(mac);
+        if (packed == INVALID) {
+            return new Location[0];
+        }
+        return locate(packed);
+    }
+
+    /**
+     * Removes the forwarding tables and bridge ports, which have not been
+     * replaced since a cycle.
+     *
+     * @param floor the time id of the oldest cycle, which is still valid.
+     *
+     * @return the number of devices removed.
+     */
+    public int expire(long floor) {
+        int removed = 0;
+        indexLock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<String, DeviceTable>> tables =
+                    devices.entrySet().iterator();
+            while (tables.hasNext()) {
+                Map.Entry<String, DeviceTable> table = tables.next();
+                if (table.getValue().time < floor) {
+                    tables.remove();
+                    unindex(table.getValue(), getNumber(table.getKey()));
+                    removed++;
+                }
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        Iterator<BridgePorts> ports = bridgePorts.values().iterator();
+        while (ports.hasNext()) {
+            if (ports.next().time < floor) {
+                ports.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of devices with a forwarding table.
+     *
+     * @return an
+     * <code>int</code> containing the number of devices.
+     */
+    public int devices() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the number of entries of all devices.
+     *
+     * @return an
+     * <code>int</code> containing the number of entries.
+     */
+    public int size() {
+        int size = 0;
+        Iterator<DeviceTable> tables = devices.values().iterator();
+        while (tables.hasNext()) {
+            size += tables.next().entries.size();
+        }
+        return size;
+    }
+
+    /**
+     * Packs a MAC address into a long.
+     *
+     * @param mac the MAC address as six hexadecimal octets separated by colons
+     *            or dashes.
+     *
+     * @return a
+     * <code>long</code> containing the MAC address or INVALID if it cannot be
+     * parsed.
+     */
+    public static long pack(String mac) {
+        if (mac == null) {
+            return INVALID;
+        }
+        String[] octets = mac.trim().split("[:-]");
+        if (octets.length != 6) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = 0; i < octets.length; i++) {
+            int octet;
+            try {
+                octet = Integer.parseInt(octets[i], 16);
+            } catch (NumberFormatException ex) {
+                return INVALID;
+            }
+            if (octet < 0 || octet > 0xff) {
+                return INVALID;
+            }
+            packed = (packed << 8) | octet;
+        }
+        return packed;
+    }
+
+    /**
+     * Packs a MAC address given as six octets, like the instance of a row of
+     * a forwarding table.
+     *
+     * @param octets the octets.
+     * @param offset the position of the first octet.
+     *
+     * @return a
+     * <code>long</code> containing the MAC address.
+     */
+    public static long pack(int[] octets, int offset) {
+        long packed = 0;
+        for (int i = 0; i < 6; i++) {
+            packed = (packed << 8) | (octets[offset + i] & 0xff);
+        }
+        return packed;
+    }
+
+    /**
+     * Packs a MAC address given as six raw octets, like the value of an
+     * OctetString.
+     *
+     * @param octets the octets.
+     * @param offset the position of the first octet.
+     *
+     * @return a
+     * <code>long</code> containing the MAC address or INVALID if there are
+     * not six octets from the offset.
+     */
+    public static long pack(byte[] octets, int offset) {
+        if (octets == null || offset < 0 || octets.length - offset != 6) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = 0; i < 6; i++) {
+            packed = (packed << 8) | (octets[offset + i] & 0xff);
+        }
+        return packed;
+    }
+
+    /**
+     * Returns a packed MAC address as text.
+     *
+     * @param mac the MAC address, as packed by pack().
+     *
+     * @return a String containing the MAC address, like 00:1a:2b:3c:4d:5e.
+     */
+    public static String unpack(long mac) {
+        mac &= MAC_MASK;
+        StringBuilder text = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (mac >>> shift) & 0xff;
+            if (shift < 40) {
+                text.append(':');
+            }
+            if (octet < 0x10) {
+                text.append('0');
+            }
+            text.append(Integer.toHexString(octet));
+        }
+        return text.toString();
+    }
+}
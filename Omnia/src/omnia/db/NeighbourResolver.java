@@ -0,0 +1,155 @@
+package omnia.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.Omnia;
+
+/**
+ * A background resolver of the neighbours claimed by LLDP. The writers only
+ * record the claims of the local device, so they never look up or lock a
+ * remote device. The resolver takes the claims on the remote devices, which
+ * are known, finds the remote interfaces and creates the cables in
+ * transactions of a batch size.
+ *
+ * A claim, whose remote interface is not known yet, is put back and tried
+ * again in the next pass. Claims, which cannot be resolved before the expiry
+ * time, are dropped. A claim is made again, when the LLDP row of the local
+ * device changes, so a dropped claim returns, if the neighbour does.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class NeighbourResolver implements Runnable {
+
+    /**
+     * The time in ms between the passes of the resolver.
+     */
+    private static final long INTERVAL = 1000;
+    private final int batchSize;
+    private final long expiry;
+    private final AtomicLong cabled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * Default constructor.
+     *
+     * @param batchSize the number of cables per transaction.
+     * @param expiry    the time in ms a claim is kept, before it is dropped.
+     */
+    public NeighbourResolver(int batchSize, long expiry) {
+        this.batchSize = Math.max(1, batchSize);
+        this.expiry = expiry;
+    }
+
+    /**
+     * Returns the number of cables created or stamped since startup.
+     *
+     * @return a
+     * <code>long</code> containing the number of cables.
+     */
+    public long getCabled() {
+        return cabled.get();
+    }
+
+    /**
+     * Returns the number of claims dropped since startup, as they were not
+     * resolved in time.
+     *
+     * @return a
+     * <code>long</code> containing the number of claims.
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Returns the number of claims waiting to be resolved.
+     *
+     * @return an
+     * <code>int</code> containing the number of claims.
+     */
+    public int getPending() {
+        return Omnia.dbHandler.getNeighbours().size();
+    }
+
+    /**
+     * Start the resolver thread. Resolves the claims, until the thread is
+     * interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Thread.sleep(INTERVAL);
+                resolve(System.currentTimeMillis());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the expired claims and resolves the claims on the known devices.
+     *
+     * @param now the current time in ms.
+     */
+    private void resolve(long now) {
+        NeighbourTable neighbours = Omnia.dbHandler.getNeighbours();
+        IdentityCache identities = Omnia.dbHandler.getIdentities();
+        expired.addAndGet(neighbours.expire(now - expiry));
+        String[] chassisIds = neighbours.getChassisIds();
+        List<NeighbourTable.Claim> ready = new ArrayList<NeighbourTable.Claim>();
+        for (int i = 0; i < chassisIds.length; i++) {
+            if (identities.getDevice("chassisId", chassisIds[i])
+                != IdentityCache.MISSING) {
+                ready.addAll(neighbours.take(chassisIds[i]));
+            }
+        }
+        for (int from = 0; from < ready.size(); from += batchSize) {
+            resolveBatch(neighbours, ready.subList(
+                    from, Math.min(ready.size(), from + batchSize)));
+        }
+    }
+
+    private void resolveBatch(NeighbourTable neighbours,
+                              List<NeighbourTable.Claim> batch) {
+        List<NeighbourTable.Claim> unresolved =
+                new ArrayList<NeighbourTable.Claim>();
+        DbOperation operation = new DbOperation();
+        int created = 0;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                NeighbourTable.Claim claim = batch.get(i);
+                long remote = operation.findInterfaceId(claim.getChassisId(),
+                                                        claim.getKey(),
+                                                        claim.getValue());
+                if (remote == IdentityCache.MISSING) {
+                    unresolved.add(claim);
+                } else if (operation.setCableBetween(
+                        claim.getLocalInterface(), remote, claim.getRow(),
+                        claim.getCycleTime()) >= 0) {
+                    created++;
+                }
+            }
+        } catch (RuntimeException ex) {
+            operation.abort();
+            Logger.getLogger(NeighbourResolver.class.getName()).log(
+                    Level.WARNING, "Resolving neighbours failed", ex);
+        }
+        operation.close();
+        if (operation.isFailed()) {
+            // Every cable of the batch was rolled back, so all of its claims
+            // are tried again.
+            unresolved = batch;
+            created = 0;
+        }
+        for (int i = 0; i < unresolved.size(); i++) {
+            neighbours.putBack(unresolved.get(i));
+        }
+        cabled.addAndGet(created);
+    }
+}
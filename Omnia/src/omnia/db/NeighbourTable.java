@@ -0,0 +1,311 @@
+package omnia.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of the neighbours claimed by LLDP, which are not yet cabled. A claim
+ * is, that a local interface is connected to a port of a remote device. The
+ * claims are keyed by the chassis id of the remote device, so all claims on a
+ * device can be taken, when the device is known.
+ *
+ * The claims of a remote device are kept as a linked chain of small entries,
+ * so the table holds no objects besides the claims and their keys. A claim
+ * made again by the same local interface replaces the old one.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class NeighbourTable {
+
+    private final Map<String, Claim> claims = new HashMap<String, Claim>();
+    private int size;
+
+    /**
+     * A claim of a local interface on a port of a remote device.
+     */
+    public static final class Claim {
+
+        private final long localInterface;
+        private final long row;
+        private final String chassisId;
+        private final String key;
+        private final String value;
+        private long cycleTime;
+        private long claimed;
+        private Claim next;
+
+        private Claim(long localInterface, long row, String chassisId,
+                      String key, String value, long cycleTime, long claimed) {
+            this.localInterface = localInterface;
+            this.row = row;
+            this.chassisId = chassisId;
+            this.key = key;
+            this.value = value;
+            this.cycleTime = cycleTime;
+            this.claimed = claimed;
+        }
+
+        /**
+         * Returns the node id of the local interface.
+         *
+         * @return a
+         * <code>long</code> containing the node id.
+         */
+        public long getLocalInterface() {
+            return localInterface;
+        }
+
+        /**
+         * Returns the key of the LLDP row, which made the claim.
+         *
+         * @return a
+         * <code>long</code> containing the row key.
+         */
+        public long getRow() {
+            return row;
+        }
+
+        /**
+         * Returns the chassis id of the remote device.
+         *
+         * @return a String containing the chassis id.
+         */
+        public String getChassisId() {
+            return chassisId;
+        }
+
+        /**
+         * Returns the key of the remote interface, like alias.
+         *
+         * @return a String containing the key.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the value of the key of the remote interface.
+         *
+         * @return a String containing the value.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the time id of the cycle, which made the claim.
+         *
+         * @return a
+         * <code>long</code> containing the time id.
+         */
+        public long getCycleTime() {
+            return cycleTime;
+        }
+
+        /**
+         * Returns the time the claim was made.
+         *
+         * @return a
+         * <code>long</code> containing the time in ms.
+         */
+        public long getClaimed() {
+            return claimed;
+        }
+
+        private boolean isSame(Claim other) {
+            return localInterface == other.localInterface
+                   && row == other.row && key.equals(other.key) && value.equals(other.value);
+        }
+    }
+
+    /**
+     * Adds a claim. A claim with the same local interface and remote port is
+     * replaced.
+     *
+     * @param localInterface the node id of the local interface.
+     * @param row            the key of the LLDP row, which made the claim.
+     * @param chassisId      the chassis id of the remote device.
+     * @param key            the key of the remote interface, like alias.
+     * @param value          the value of the key.
+     * @param cycleTime      the time id of the cycle, which made the claim.
+     * @param now            the current time in ms.
+     */
+    public synchronized void claim(long localInterface, long row,
+                                   String chassisId, String key, String value,
+                                   long cycleTime, long now) {
+        add(new Claim(localInterface, row, chassisId, key, value, cycleTime,
+                      now));
+    }
+
+    /**
+     * Removes the claims made by an LLDP row, which has been removed.
+     *
+     * @param localInterface the node id of the local interface.
+     * @param row            the key of the LLDP row.
+     *
+     * @return the number of claims removed.
+     */
+    public synchronized int withdraw(long localInterface, long row) {
+        int removed = 0;
+        Iterator<Map.Entry<String, Claim>> entries =
+                claims.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Claim> entry = entries.next();
+            Claim previous = null;
+            Claim current = entry.getValue();
+            while (current != null) {
+                Claim next = current.next;
+                if (current.localInterface == localInterface
+                    && current.row == row) {
+                    current.next = null;
+                    if (previous == null) {
+                        entry.setValue(next);
+                    } else {
+                        previous.next = next;
+                    }
+                    removed++;
+                } else {
+                    previous = current;
+                }
+                current = next;
+            }
+            if (entry.getValue() == null) {
+                entries.remove();
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Moves all claims of another table to this table.
+     *
+     * @param other the table, which is emptied.
+     */
+    public void putAll(NeighbourTable other) {
+        List<Claim> moved = other.takeAll();
+        synchronized (this) {
+            for (int i = 0; i < moved.size(); i++) {
+                add(moved.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds a claim, which has been taken, but could not be resolved.
+     *
+     * @param claim the claim.
+     */
+    public synchronized void putBack(Claim claim) {
+        add(claim);
+    }
+
+    private void add(Claim claim) {
+        claim.next = null;
+        Claim head = claims.get(claim.chassisId);
+        for (Claim current = head; current != null; current = current.next) {
+            if (current.isSame(claim)) {
+                current.cycleTime = Math.max(current.cycleTime,
+                                             claim.cycleTime);
+                current.claimed = Math.max(current.claimed, claim.claimed);
+                return;
+            }
+        }
+        claim.next = head;
+        claims.put(claim.chassisId, claim);
+        size++;
+    }
+
+    /**
+     * Removes and returns the claims on a remote device.
+     *
+     * @param chassisId the chassis id of the remote device.
+     *
+     * @return a List of the claims, which is empty if there are none.
+     */
+    public synchronized List<Claim> take(String chassisId) {
+        List<Claim> taken = new ArrayList<Claim>();
+        Claim current = claims.remove(chassisId);
+        while (current != null) {
+            Claim next = current.next;
+            current.next = null;
+            taken.add(current);
+            size--;
+            current = next;
+        }
+        return taken;
+    }
+
+    private synchronized List<Claim> takeAll() {
+        List<Claim> taken = new ArrayList<Claim>(size);
+        String[] chassisIds = getChassisIds();
+        for (int i = 0; i < chassisIds.length; i++) {
+            taken.addAll(take(chassisIds[i]));
+        }
+        return taken;
+    }
+
+    /**
+     * Removes the claims made before a time.
+     *
+     * @param before the time in ms.
+     *
+     * @return the number of claims removed.
+     */
+    public synchronized int expire(long before) {
+        int removed = 0;
+        Iterator<Map.Entry<String, Claim>> entries =
+                claims.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Claim> entry = entries.next();
+            Claim head = null;
+            Claim tail = null;
+            Claim current = entry.getValue();
+            while (current != null) {
+                Claim next = current.next;
+                current.next = null;
+                if (current.claimed < before) {
+                    removed++;
+                } else if (head == null) {
+                    head = current;
+                    tail = current;
+                } else {
+                    tail.next = current;
+                    tail = current;
+                }
+                current = next;
+            }
+            if (head == null) {
+                entries.remove();
+            } else {
+                entry.setValue(head);
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Returns the chassis ids of the remote devices, which have claims.
+     *
+     * @return an array of the chassis ids.
+     */
+    public synchronized String[] getChassisIds() {
+        return claims.keySet().toArray(new String[claims.size()]);
+    }
+
+    /**
+     * Returns the number of claims.
+     *
+     * @return an
+     * <code>int</code> containing the number of claims.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,199 @@
+package omnia.db;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import omnia.Omnia;
+
+/**
+ * A background sweeper of stale topology. When the cycle of a device has
+ * been written, the writer submits the device with the baseline of the
+ * cycle, and the sweeper deletes the interfaces and relationships of the
+ * device, which have not been stamped since. Devices, which have not been
+ * stamped at all for a while, like devices removed from the configuration,
+ * are deleted with their interfaces by expire().
+ *
+ * The baseline is the oldest cycle of any table of the device, so a table,
+ * whose rows do not change, holds it back. Rows removed from a table are
+ * therefore removed at once by the analyzer of the table, like the cables of
+ * a removed LLDP row, and the sweep only catches what is left behind.
+ *
+ * Deletions are done in transactions of a batch size and throttled to a
+ * budget of deletions per second, so the sweeper does not compete with the
+ * writers.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class Sweeper implements Runnable {
+
+    /**
+     * The request to expire stale devices, as the device id.
+     */
+    private static final long EXPIRE = -1;
+    private final int batchSize;
+    private final int budget;
+    /**
+     * The devices waiting to be swept.
+     */
+    private final BlockingQueue<Long> queue = new LinkedBlockingQueue<Long>();
+    /**
+     * The floor of each device waiting to be swept. A device submitted again
+     * before it is swept is only swept once, with the newest floor.
+     */
+    private final ConcurrentMap<Long, Long> floors =
+            new ConcurrentHashMap<Long, Long>();
+    private final AtomicLong deleted = new AtomicLong();
+
+    /**
+     * Default constructor.
+     *
+     * @param batchSize the number of deletions per transaction.
+     * @param budget    the maximum number of deletions per second.
+     */
+    public Sweeper(int batchSize, int budget) {
+        this.batchSize = Math.max(1, batchSize);
+        this.budget = Math.max(1, budget);
+    }
+
+    /**
+     * Submits a device to be swept.
+     *
+     * @param device the node id of the device.
+     * @param floor  the time id of the oldest cycle, which is still valid for
+     *               the device.
+     */
+    public void submit(long device, long floor) {
+        if (device < 0) {
+            return;
+        }
+        submitFloor(device, floor);
+    }
+
+    /**
+     * Submits the deletion of the devices, which have not been stamped since
+     * a cycle.
+     *
+     * @param floor the time id of the oldest cycle, which is still valid.
+     */
+    public void expire(long floor) {
+        submitFloor(EXPIRE, floor);
+    }
+
+    private void submitFloor(long device, long floor) {
+        Long key = Long.valueOf(device);
+        Long previous = floors.put(key, Long.valueOf(floor));
+        if (previous == null) {
+            queue.add(key);
+        }
+    }
+
+    /**
+     * Returns the number of nodes and relationships deleted since startup.
+     *
+     * @return a
+     * <code>long</code> containing the number of deletions.
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Returns the number of sweeps waiting.
+     *
+     * @return an
+     * <code>int</code> containing the number of sweeps.
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * Start the sweeper thread. Sweeps the submitted devices, until the thread
+     * is interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Long device = queue.take();
+                Long floor = floors.remove(device);
+                if (floor == null) {
+                    continue;
+                }
+                if (device.longValue() == EXPIRE) {
+                    expireDevices(floor.longValue());
+                } else {
+                    sweepDevice(device.longValue(), floor.longValue());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sweepDevice(long device, long floor) throws
+            InterruptedException {
+        while (true) {
+            DbOperation operation = new DbOperation();
+            int removed = 0;
+            try {
+                int handle = operation.getDevice(device);
+                if (handle >= 0) {
+                    removed = operation.sweep(handle, floor, batchSize);
+                }
+            } catch (RuntimeException ex) {
+                operation.abort();
+                Logger.getLogger(Sweeper.class.getName()).log(
+                        Level.WARNING, "Sweep of device " + device + " failed",
+                        ex);
+                return;
+            }
+            operation.close();
+            if (operation.isFailed() || removed == 0) {
+                return;
+            }
+            throttle(removed);
+        }
+    }
+
+    private void expireDevices(long floor) throws InterruptedException {
+        long[] stale = Omnia.dbHandler.findStaleDevices(floor, batchSize);
+        for (int i = 0; i < stale.length; i++) {
+            DbOperation operation = new DbOperation();
+            int removed = 0;
+            try {
+                int handle = operation.getDevice(stale[i]);
+                if (handle >= 0) {
+                    removed = operation.deleteDevice(handle);
+                }
+            } catch (RuntimeException ex) {
+                operation.abort();
+                Logger.getLogger(Sweeper.class.getName()).log(
+                        Level.WARNING, "Expiry of device " + stale[i]
+                                       + " failed", ex);
+                continue;
+            }
+            operation.close();
+            throttle(removed);
+        }
+        if (stale.length == batchSize) {
+            expire(floor);
+        }
+    }
+
+    /**
+     * Counts the deletions and waits, so the budget is not exceeded.
+     */
+    private void throttle(int removed) throws InterruptedException {
+        deleted.addAndGet(removed);
+        if (removed > 0) {
+            Thread.sleep(removed * 1000L / budget);
+        }
+    }
+}
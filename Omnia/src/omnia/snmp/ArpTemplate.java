@@ -0,0 +1,61 @@
+package omnia.snmp;
+
+import omnia.analyzer.ArpAnalyzer;
+import omnia.db.DeviceSession;
+
+/**
+ * The template for the arp element, which is a row of the IP to MAC address
+ * table of a device. The IP address of a row is not a column, but the
+ * instance of the row, so it is read from the OIDs by the analyzer.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class ArpTemplate extends ElementTemplate {
+
+    /**
+     * The physAddress element.
+     */
+    public static final int PHYSADDRESS = 0;
+    /**
+     * The type element.
+     */
+    public static final int TYPE = 1;
+    /**
+     * The schema of the arp template.
+     */
+    public static final TemplateSchema SCHEMA = new TemplateSchema("arp", 2);
+
+    static {
+        SCHEMA.define(PHYSADDRESS, "physAddress", ElementType.MAC);
+        SCHEMA.define(TYPE, "type", ElementType.ENUM);
+    }
+
+    /**
+     * Default constructor. Sets the template name and adds the elements.
+     *
+     * @param time the unique time id of this template.
+     */
+    public ArpTemplate(long time) {
+        super(time, SCHEMA);
+        operation = SnmpOperation.GETALL;
+    }
+
+    @Override
+    public ArpTemplate clone() {
+        return (ArpTemplate) deepCopy(new ArpTemplate(this.time));
+    }
+
+    /**
+     * Replaces the IP to MAC address table of the device with all rows of the
+     * batch. See FdbTemplate.
+     */
+    @Override
+    public void analyze(RowBatch batch, FingerprintStore.Changes changes,
+                        DeviceSession session) {
+        this.device = batch.getDevice();
+        ArpAnalyzer analyzer = new ArpAnalyzer(session);
+        analyzer.analyze(batch, this);
+    }
+}
@@ -0,0 +1,57 @@
+package omnia.snmp;
+
+import omnia.analyzer.BridgePortAnalyzer;
+import omnia.db.DeviceSession;
+
+/**
+ * The template for the bridgePort element, which is a row of the port table
+ * of a bridge. The bridge port of a row is not a column, but the instance of
+ * the row, so it is read from the OIDs by the analyzer.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class BridgePortTemplate extends ElementTemplate {
+
+    /**
+     * The ifIndex element.
+     */
+    public static final int IFINDEX = 0;
+    /**
+     * The schema of the bridgePort template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("bridgePort", 1);
+
+    static {
+        SCHEMA.define(IFINDEX, "ifIndex", ElementType.INTEGER);
+    }
+
+    /**
+     * Default constructor. Sets the template name and adds the elements.
+     *
+     * @param time the unique time id of this template.
+     */
+    public BridgePortTemplate(long time) {
+        super(time, SCHEMA);
+        operation = SnmpOperation.GETALL;
+    }
+
+    @Override
+    public BridgePortTemplate clone() {
+        return (BridgePortTemplate) deepCopy(new BridgePortTemplate(this.time));
+    }
+
+    /**
+     * Replaces the bridge ports of the device with all rows of the batch. See
+     * FdbTemplate.
+     */
+    @Override
+    public void analyze(RowBatch batch, FingerprintStore.Changes changes,
+                        DeviceSession session) {
+        this.device = batch.getDevice();
+        BridgePortAnalyzer analyzer = new BridgePortAnalyzer(session);
+        analyzer.analyze(batch, this);
+    }
+}
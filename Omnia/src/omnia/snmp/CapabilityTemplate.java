@@ -15,6 +15,15 @@ public class CapabilityTemplate extends ElementTemplate {
      * The objectid element.
      */
     public static final int OBJECTID = 0;
+    /**
+     * The schema of the capability template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("capability", 1);
+
+    static {
+        SCHEMA.define(OBJECTID, "objectId", ElementType.OID);
+    }
     private Document document;
 
     /**
@@ -23,11 +32,7 @@ public class CapabilityTemplate extends ElementTemplate {
      * @param time
      */
     public CapabilityTemplate(long time) {
-        super(time);
-        size = 1;
-        initialize();
-        elements[OBJECTID] = "objectId";
-        template = "capability";
+        super(time, SCHEMA);
         document = null;
     }
 
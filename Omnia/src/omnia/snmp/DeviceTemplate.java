@@ -1,7 +1,7 @@
 package omnia.snmp;
 
-import java.util.Calendar;
 import omnia.analyzer.DeviceAnalyzer;
+import omnia.db.DeviceSession;
 
 /**
  * The template for the device element.
@@ -60,6 +60,26 @@ public class DeviceTemplate extends ElementTemplate {
      * The chassisId element.
      */
     public static final int CHASSISID = 11;
+    /**
+     * The schema of the device template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("device", 12);
+
+    static {
+        SCHEMA.define(DESCRIPTION, "description", ElementType.LABEL);
+        SCHEMA.define(UPTIME, "uptime", ElementType.LONG);
+        SCHEMA.define(CONTACT, "contact", ElementType.STRING);
+        SCHEMA.define(NAME, "name", ElementType.STRING);
+        SCHEMA.define(LOCATION, "location", ElementType.STRING);
+        SCHEMA.define(SERVICES, "services", ElementType.INTEGER);
+        SCHEMA.define(SERIAL, "serial", ElementType.STRING);
+        SCHEMA.define(BRAND, "brand", ElementType.LABEL);
+        SCHEMA.define(MODEL, "model", ElementType.LABEL);
+        SCHEMA.define(NUMBEROFIF, "numberOfIf", ElementType.INTEGER);
+        SCHEMA.define(CHASSISSUBTYPE, "chassisSubtype", ElementType.ENUM);
+        SCHEMA.define(CHASSISID, "chassisId", ElementType.STRING);
+    }
 
     /**
      * Default constructor. Sets the template name and adds the elements.
@@ -67,51 +87,26 @@ public class DeviceTemplate extends ElementTemplate {
      * @param time the unique time id of this template.
      */
     public DeviceTemplate(long time) {
-        super(time);
-        size = 12;
-        template = "device";
-        initialize();
-        elements[DESCRIPTION] = "description";
-        elements[UPTIME] = "uptime";
-        elements[CONTACT] = "contact";
-        elements[NAME] = "name";
-        elements[LOCATION] = "location";
-        elements[SERVICES] = "services";
-        elements[SERIAL] = "serial";
-        elements[BRAND] = "brand";
-        elements[MODEL] = "model";
-        elements[NUMBEROFIF] = "numberOfIf";
-        elements[CHASSISSUBTYPE] = "chassisSubtype";
-        elements[CHASSISID] = "chassisId";
+        super(time, SCHEMA);
     }
 
     /**
-     * Stores a value for an element. Converts the uptime value (from hundredths
-     * of a second) to milliseconds and stores it as an absolute time.
+     * Stores a numeric value for an element. Converts the uptime value (from
+     * hundredths of a second) to milliseconds and stores it as an absolute
+     * time.
      *
      * @param element the element for which to store the value.
      * @param value   the value to store.
      */
     @Override
-    public void setValue(int element, String value) {
-        if (element == UPTIME && value != null) {
-            long rightNow = Calendar.getInstance().getTimeInMillis();
-            long milSecAgo = Long.parseLong(value) * 10;
-            this.values[element] = "" + (rightNow - milSecAgo);
+    public void setLong(int element, long value) {
+        if (element == UPTIME) {
+            long rightNow = System.currentTimeMillis();
+            long milSecAgo = value * 10;
+            super.setLong(element, rightNow - milSecAgo);
         } else {
-            super.setValue(element, value);
-        }
-    }
-
-    @Override
-    public Object getValue(int value) {
-        if (value == UPTIME) {
-            return asLong(values[value]);
-        }
-        if (value == SERVICES || value == NUMBEROFIF) {
-            return asInteger(values[value]);
+            super.setLong(element, value);
         }
-        return super.getValue(value);
     }
 
     @Override
@@ -120,8 +115,8 @@ public class DeviceTemplate extends ElementTemplate {
     }
 
     @Override
-    public void analyze() {
-        DeviceAnalyzer analyzer = new DeviceAnalyzer();
+    public void analyze(DeviceSession session) {
+        DeviceAnalyzer analyzer = new DeviceAnalyzer(session);
         analyzer.analyze(this);
     }
 }
@@ -1,14 +1,21 @@
 package omnia.snmp;
 
 import omnia.analyzer.Analyzer;
+import omnia.db.DeviceSession;
+import omnia.db.MacTable;
 import org.snmp4j.smi.Address;
 import org.snmp4j.smi.IpAddress;
 
 /**
  * This class is an abstract for all the templates. Subclasses must implement
  * the clone method by calling deepCopy() with a new instance of the subclass
- * and casting the result to subclass. Any subclasses must only store values of
- * primitive types. (Integer, Long, Double, Float, String).
+ * and casting the result to subclass. Each subclass has a TemplateSchema with
+ * the name and type of its elements, shared by all its instances.
+ *
+ * Values are stored by the type of their element. Numbers are stored in a
+ * long array and are only boxed when returned by getValue(), so they are
+ * never converted to and from String. Text, OIDs and enumeration labels are
+ * stored as String.
  *
  * @versionElement 1.0
  *
@@ -17,13 +24,29 @@ import org.snmp4j.smi.IpAddress;
 public class ElementTemplate implements Cloneable {
 
     /**
-     * An array of the element names.
+     * The row key of a row without a key.
+     */
+    public static final long NO_KEY = Long.MIN_VALUE;
+    /**
+     * The schema of the template.
+     */
+    protected TemplateSchema schema;
+    /**
+     * An array of the element names, shared with the schema.
      */
     protected String[] elements;
     /**
-     * An array of the element values.
+     * An array of the text values of the elements.
      */
     protected String[] values;
+    /**
+     * An array of the numeric values of the elements.
+     */
+    protected long[] numbers;
+    /**
+     * An array indicating which elements have a value.
+     */
+    protected boolean[] assigned;
     /**
      * An array of OID values.
      */
@@ -48,19 +71,36 @@ public class ElementTemplate implements Cloneable {
      * The unique time id.
      */
     protected final long time;
+    /**
+     * The time id of the oldest cycle, whose values are still valid for the
+     * device. Nodes updated before it are stale.
+     */
+    protected long baseline;
 
     /**
-     * Default constructor. Sets the size, template name and initializes the
-     * arrays.
+     * Default constructor. Creates a template without elements.
      *
      * @param time the unique time id of this template.
      */
     public ElementTemplate(long time) {
-        size = 0;
+        this(time, TemplateSchema.EMPTY);
+    }
+
+    /**
+     * Schema constructor. Sets the schema, size and template name and
+     * initializes the arrays.
+     *
+     * @param time   the unique time id of this template.
+     * @param schema the schema of the template.
+     */
+    protected ElementTemplate(long time, TemplateSchema schema) {
+        this.schema = schema;
+        size = schema.size();
         operation = SnmpOperation.GET;
+        template = schema.template();
         initialize();
-        template = null;
         this.time = time;
+        this.baseline = time;
     }
 
     /**
@@ -68,8 +108,10 @@ public class ElementTemplate implements Cloneable {
      *
      */
     protected final void initialize() {
-        this.elements = new String[size];
+        this.elements = schema.getElements();
         this.values = new String[size];
+        this.numbers = new long[size];
+        this.assigned = new boolean[size];
         this.oids = new String[size];
     }
 
@@ -82,6 +124,15 @@ public class ElementTemplate implements Cloneable {
         return template;
     }
 
+    /**
+     * Returns the schema of the template.
+     *
+     * @return the TemplateSchema.
+     */
+    public TemplateSchema getSchema() {
+        return schema;
+    }
+
     /**
      * Returns the number of elements in the template.
      *
@@ -103,38 +154,171 @@ public class ElementTemplate implements Cloneable {
         return elements[element];
     }
 
+    /**
+     * Returns the type of an element.
+     *
+     * @param element the element.
+     *
+     * @return the ElementType of the element.
+     */
+    public ElementType getType(int element) {
+        return schema.getType(element);
+    }
+
     /**
      * Returns the value of an element. If the element isn't set, null is
-     * returned. Use instanceof to determine the type returned.
+     * returned. LONG and MAC elements are returned as Long, INTEGER elements
+     * as Integer and all other elements as String.
      *
      * @param value the element.
      *
      * @return an Object containing the value of the element or null.
      */
     public Object getValue(int value) {
-        return this.values[value];
+        if (!assigned[value]) {
+            return null;
+        }
+        switch (getType(value)) {
+            case LONG:
+            case MAC:
+                return Long.valueOf(numbers[value]);
+            case INTEGER:
+                return Integer.valueOf((int) numbers[value]);
+            default:
+                return this.values[value];
+        }
     }
 
     /**
-     * Returns the value of an element. If the element isn't set null is
-     * returned.
+     * Returns the value of an element as a String. If the element isn't set
+     * null is returned. MAC elements are returned like 00:1a:2b:3c:4d:5e.
      *
      * @param value the element.
      *
      * @return a String containing the value of the element or null.
      */
     public String getValueAsString(int value) {
+        if (!assigned[value]) {
+            return null;
+        }
+        if (getType(value) == ElementType.MAC) {
+            return MacTable.unpack(numbers[value]);
+        }
+        if (getType(value).isNumeric()) {
+            return String.valueOf(numbers[value]);
+        }
         return this.values[value];
     }
 
     /**
-     * Stores a value for an element.
+     * Returns the numeric value of an element. For ENUM elements this is the
+     * number of the label. The element must have a value.
+     *
+     * @param element the element.
+     *
+     * @return a
+     * <code>long</code> containing the value.
+     */
+    public long getLong(int element) {
+        return numbers[element];
+    }
+
+    /**
+     * Returns the numeric value of an element as an int. The element must
+     * have a value.
+     *
+     * @param element the element.
+     *
+     * @return an
+     * <code>int</code> containing the value.
+     */
+    public int getInteger(int element) {
+        return (int) numbers[element];
+    }
+
+    /**
+     * Stores a value for an element. Values of numeric elements are parsed
+     * once here. If they are not a number, or not a MAC address for MAC
+     * elements, the element is not set.
      *
      * @param element the element for which to store the value.
      * @param value   the value to store.
      */
     public void setValue(int element, String value) {
+        if (value == null) {
+            clearValue(element);
+            return;
+        }
+        if (getType(element) == ElementType.MAC) {
+            long mac = MacTable.pack(value);
+            if (mac == MacTable.INVALID) {
+                clearValue(element);
+            } else {
+                setLong(element, mac);
+            }
+            return;
+        }
+        if (getType(element).isNumeric()) {
+            try {
+                setLong(element, Long.parseLong(value.trim()));
+            } catch (NumberFormatException ex) {
+                clearValue(element);
+            }
+            return;
+        }
+        this.values[element] = value;
+        this.assigned[element] = true;
+    }
+
+    /**
+     * Stores a numeric value for an element.
+     *
+     * @param element the element for which to store the value.
+     * @param value   the value to store.
+     */
+    public void setLong(int element, long value) {
+        this.numbers[element] = value;
+        this.values[element] = null;
+        this.assigned[element] = true;
+    }
+
+    /**
+     * Stores the value of an ENUM element as both number and label.
+     *
+     * @param element the element for which to store the value.
+     * @param number  the number of the value.
+     * @param label   the label of the value.
+     */
+    public void setEnum(int element, long number, String label) {
+        this.numbers[element] = number;
+        this.values[element] = label;
+        this.assigned[element] = true;
+    }
+
+    /**
+     * Stores a value for an element as it is, without the conversions done by
+     * the setters. This is used to read values, which have already been set,
+     * back into a template.
+     *
+     * @param element the element for which to store the value.
+     * @param number  the numeric value.
+     * @param value   the text value.
+     */
+    final void load(int element, long number, String value) {
+        this.numbers[element] = number;
         this.values[element] = value;
+        this.assigned[element] = true;
+    }
+
+    /**
+     * Removes the value of an element.
+     *
+     * @param element the element.
+     */
+    public void clearValue(int element) {
+        this.numbers[element] = 0;
+        this.values[element] = null;
+        this.assigned[element] = false;
     }
 
     /**
@@ -187,11 +371,76 @@ public class ElementTemplate implements Cloneable {
 
     /**
      * Calls the analyzer with this template.
+     *
+     * @param session the session of the device to write to.
      */
-    public void analyze() {
+    public void analyze(DeviceSession session) {
         Analyzer.analyze(this);
     }
 
+    /**
+     * Calls the analyzer with the rows of a batch, which have changed since
+     * the last cycle, and for the rows, which have been removed. Unchanged
+     * rows are not analyzed. The rows are read into this template one at a
+     * time, so it must be of the schema of the batch.
+     *
+     * @param batch   the rows.
+     * @param changes the changes of the rows.
+     * @param session the session of the device to write to.
+     */
+    public void analyze(RowBatch batch, FingerprintStore.Changes changes,
+                        DeviceSession session) {
+        this.device = batch.getDevice();
+        this.baseline = changes.getBaseline();
+        int[] changed = changes.getRows();
+        for (int i = 0; i < changed.length; i++) {
+            batch.read(changed[i], this);
+            analyze(session);
+            session.rowDone();
+        }
+        long[] removed = changes.getRemoved();
+        for (int i = 0; i < removed.length; i++) {
+            analyzeRemoved(removed[i], session);
+            session.rowDone();
+        }
+    }
+
+    /**
+     * Calls the analyzer for a row, which has been removed since the last
+     * cycle. Templates, whose rows do not own any nodes, do nothing.
+     *
+     * @param key     the row key of the removed row.
+     * @param session the session of the device to write to.
+     */
+    public void analyzeRemoved(long key, DeviceSession session) {
+    }
+
+    /**
+     * Returns the key identifying the row of this template in a table, like
+     * the ifIndex of an interface. Rows are compared with the row of the
+     * same key in the last cycle to find out if they have changed.
+     *
+     * @return a
+     * <code>long</code> containing the key or NO_KEY if the row has no key, in
+     * which case it is always analyzed.
+     */
+    public long getRowKey() {
+        return NO_KEY;
+    }
+
+    /**
+     * Returns the time id of the oldest cycle, whose values are still valid
+     * for the device. Unchanged rows are not analyzed, so nodes updated since
+     * the baseline are up to date, even if they were not updated in this
+     * cycle.
+     *
+     * @return a
+     * <code>long</code> representing the time id.
+     */
+    public long getBaseline() {
+        return baseline;
+    }
+
     /**
      * Returns the SNMP operation.
      *
@@ -203,25 +452,30 @@ public class ElementTemplate implements Cloneable {
     }
 
     protected ElementTemplate deepCopy(ElementTemplate copy) {
+        copy.schema = this.schema;
         copy.size = this.size;
         copy.operation = this.getOperation();
         copy.template = this.template;
         copy.device = this.device;
+        copy.baseline = this.baseline;
         copy.initialize();
-        for (int i = 0; i < size; i++) {
-            if (this.getElement(i) != null) {
-                copy.elements[i] = this.getElement(i);
-            }
-            if (this.getValue(i) != null) {
-                copy.values[i] = this.getValueAsString(i);
-            }
-            if (this.getOid(i) != null) {
-                copy.oids[i] = this.oids[i];
-            }
-        }
+        copy.copyValues(this);
         return copy;
     }
 
+    /**
+     * Copies the values and OIDs of another template of the same schema into
+     * this template.
+     *
+     * @param source the template to copy from.
+     */
+    final void copyValues(ElementTemplate source) {
+        System.arraycopy(source.values, 0, this.values, 0, size);
+        System.arraycopy(source.numbers, 0, this.numbers, 0, size);
+        System.arraycopy(source.assigned, 0, this.assigned, 0, size);
+        System.arraycopy(source.oids, 0, this.oids, 0, size);
+    }
+
     /**
      * Creates a deep copy of this template.
      *
@@ -233,12 +487,16 @@ public class ElementTemplate implements Cloneable {
     }
 
     /**
-     * Returns the values as an array.
+     * Returns the values as an array of String.
      *
      * @return a String array of all values.
      */
     public String[] getValues() {
-        return this.values;
+        String[] returnValues = new String[size];
+        for (int i = 0; i < size; i++) {
+            returnValues[i] = getValueAsString(i);
+        }
+        return returnValues;
     }
 
     /**
@@ -249,10 +507,7 @@ public class ElementTemplate implements Cloneable {
      * @return false if the value is null, otherwise true.
      */
     public boolean hasValue(int value) {
-        if (values[value] == null) {
-            return false;
-        }
-        return true;
+        return assigned[value];
     }
 
     /**
@@ -264,20 +519,4 @@ public class ElementTemplate implements Cloneable {
     public long getTime() {
         return this.time;
     }
-
-    protected Long asLong(String s) {
-        try {
-            return new Long(s);
-        } catch (NumberFormatException ex) {
-            return null;
-        }
-    }
-
-    protected Integer asInteger(String s) {
-        try {
-            return new Integer(s);
-        } catch (NumberFormatException ex) {
-            return null;
-        }
-    }
 }
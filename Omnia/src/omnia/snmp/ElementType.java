@@ -0,0 +1,56 @@
+package omnia.snmp;
+
+/**
+ * The types of the elements of a template. The type decides how a value is
+ * stored in the template and what type it is returned as.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public enum ElementType {
+
+    /**
+     * A text value, stored as a String.
+     */
+    STRING,
+    /**
+     * A text value repeated on many rows and devices, like a type or model
+     * name. It is stored as a String shared by equal values.
+     */
+    LABEL,
+    /**
+     * A 64 bit number like a counter or a time, stored as a long and returned
+     * as a Long.
+     */
+    LONG,
+    /**
+     * A 32 bit number like an index, stored as a long and returned as an
+     * Integer.
+     */
+    INTEGER,
+    /**
+     * An enumerated value. The number is stored as a long and the textual
+     * label from the MIB is returned. The label is shared like a LABEL.
+     */
+    ENUM,
+    /**
+     * An object identifier, stored as a String.
+     */
+    OID,
+    /**
+     * A MAC address. The raw octets are packed into a long like
+     * MacTable.pack() does, and the packed address is returned as a Long.
+     */
+    MAC;
+
+    /**
+     * Returns true if values of this type are numbers stored as long.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the type is numeric.
+     */
+    public boolean isNumeric() {
+        return this == LONG || this == INTEGER || this == MAC;
+    }
+}
@@ -0,0 +1,64 @@
+package omnia.snmp;
+
+import omnia.analyzer.FdbAnalyzer;
+import omnia.db.DeviceSession;
+
+/**
+ * The template for the fdb element, which is a row of the forwarding table of
+ * a bridge. The MAC address and the filtering database id of a row are not
+ * columns, but the instance of the row, so they are read from the OIDs by the
+ * analyzer. The port is a bridge port, whose ifIndex is found by the
+ * bridgePort template.
+ *
+ * @versionElement 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class FdbTemplate extends ElementTemplate {
+
+    /**
+     * The port element.
+     */
+    public static final int PORT = 0;
+    /**
+     * The status element.
+     */
+    public static final int STATUS = 1;
+    /**
+     * The schema of the fdb template.
+     */
+    public static final TemplateSchema SCHEMA = new TemplateSchema("fdb", 2);
+
+    static {
+        SCHEMA.define(PORT, "port", ElementType.INTEGER);
+        SCHEMA.define(STATUS, "status", ElementType.ENUM);
+    }
+
+    /**
+     * Default constructor. Sets the template name and adds the elements.
+     *
+     * @param time the unique time id of this template.
+     */
+    public FdbTemplate(long time) {
+        super(time, SCHEMA);
+        operation = SnmpOperation.GETALL;
+    }
+
+    @Override
+    public FdbTemplate clone() {
+        return (FdbTemplate) deepCopy(new FdbTemplate(this.time));
+    }
+
+    /**
+     * Replaces the forwarding table of the device with all rows of the batch.
+     * The rows are not compared with the last cycle, as the table is replaced
+     * as a whole, and nothing is written to the graph.
+     */
+    @Override
+    public void analyze(RowBatch batch, FingerprintStore.Changes changes,
+                        DeviceSession session) {
+        this.device = batch.getDevice();
+        FdbAnalyzer analyzer = new FdbAnalyzer(session);
+        analyzer.analyze(batch, this);
+    }
+}
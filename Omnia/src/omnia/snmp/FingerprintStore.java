@@ -0,0 +1,235 @@
+package omnia.snmp;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import omnia.util.LongLongMap;
+
+/**
+ * A store of the fingerprints of the rows of each template of each device. A
+ * fingerprint is a hash of the values of a row, stored by the row key, like
+ * the ifIndex of an interface. The rows of a new batch are compared with the
+ * fingerprints of the last cycle, so only rows, which are new or have
+ * changed, and rows, which have been removed, are passed to the analyzers.
+ *
+ * For each row the time id of the cycle, in which it was last analyzed, is
+ * kept. The oldest of these for a device is the baseline of the device. Nodes
+ * updated since the baseline are still valid, as their rows have not changed.
+ *
+ * The changes of a batch are only stored, when commit() is called after the
+ * rows have been analyzed, so rows are analyzed again, if the analysis fails.
+ *
+ * A batch of a walk, which did not finish, never removes rows. The rows
+ * missing from it keep their fingerprints and the time they were analyzed,
+ * so they hold the baseline back instead of being deleted.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class FingerprintStore {
+
+    /**
+     * The fingerprints by device and template.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Fingerprints>> devices =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Fingerprints>>();
+
+    /**
+     * Compares the rows of a batch with the fingerprints of the last cycle.
+     *
+     * @param batch    the rows.
+     * @param template a template of the schema of the batch, which is used to
+     *                 read the row keys.
+     *
+     * @return the Changes of the batch.
+     */
+    public Changes compare(RowBatch batch, ElementTemplate template) {
+        ConcurrentMap<String, Fingerprints> templates =
+                getTemplates(batch.getDevice());
+        String name = batch.getSchema().template();
+        Fingerprints previous = templates.get(name);
+        int rows = batch.rows();
+        long time = batch.getTime();
+        LongLongMap hashes = new LongLongMap(rows);
+        LongLongMap analyzed = new LongLongMap(rows);
+        int[] changed = new int[rows];
+        int count = 0;
+        long oldest = time;
+        for (int row = 0; row < rows; row++) {
+            batch.read(row, template);
+            long key = template.getRowKey();
+            if (key == ElementTemplate.NO_KEY || hashes.containsKey(key)) {
+                changed[count++] = row;
+                continue;
+            }
+            long hash = batch.fingerprint(row);
+            hashes.put(key, hash);
+            if (previous != null && previous.hashes.containsKey(key)
+                && previous.hashes.get(key, 0) == hash) {
+                long since = previous.analyzed.get(key, time);
+                analyzed.put(key, since);
+                oldest = Math.min(oldest, since);
+            } else {
+                analyzed.put(key, time);
+                changed[count++] = row;
+            }
+        }
+        long[] removed = new long[0];
+        if (previous != null && !batch.isComplete()) {
+            /*
+             * The walk did not finish, so the rows missing from the batch are
+             * not removed. Their fingerprints are kept as they were.
+             */
+            long[] keys = previous.hashes.keys();
+            for (int i = 0; i < keys.length; i++) {
+                if (!hashes.containsKey(keys[i])) {
+                    long since = previous.analyzed.get(keys[i], time);
+                    hashes.put(keys[i], previous.hashes.get(keys[i], 0));
+                    analyzed.put(keys[i], since);
+                    oldest = Math.min(oldest, since);
+                }
+            }
+        } else if (previous != null) {
+            long[] keys = previous.hashes.keys();
+            removed = new long[keys.length];
+            int removedCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (!hashes.containsKey(keys[i])) {
+                    removed[removedCount++] = keys[i];
+                }
+            }
+            removed = copyOf(removed, removedCount);
+        }
+        int[] changedRows = new int[count];
+        System.arraycopy(changed, 0, changedRows, 0, count);
+        Fingerprints next = new Fingerprints(hashes, analyzed, oldest);
+        long baseline = oldest;
+        Iterator<Fingerprints> others = templates.values().iterator();
+        while (others.hasNext()) {
+            Fingerprints other = others.next();
+            if (other != previous) {
+                baseline = Math.min(baseline, other.oldest);
+            }
+        }
+        return new Changes(templates, name, next, changedRows, removed,
+                           baseline);
+    }
+
+    /**
+     * Removes the fingerprints of a device, so all its rows are analyzed in
+     * the next cycle.
+     *
+     * @param device the device.
+     */
+    public void forget(String device) {
+        devices.remove(device);
+    }
+
+    private ConcurrentMap<String, Fingerprints> getTemplates(String device) {
+        ConcurrentMap<String, Fingerprints> templates = devices.get(device);
+        if (templates == null) {
+            templates = new ConcurrentHashMap<String, Fingerprints>();
+            ConcurrentMap<String, Fingerprints> existing =
+                    devices.putIfAbsent(device, templates);
+            if (existing != null) {
+                templates = existing;
+            }
+        }
+        return templates;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * The fingerprints of the rows of a template of a device.
+     */
+    private static class Fingerprints {
+
+        /**
+         * The hash of each row by row key.
+         */
+        private final LongLongMap hashes;
+        /**
+         * The time id of the cycle, in which each row was last analyzed, by
+         * row key.
+         */
+        private final LongLongMap analyzed;
+        /**
+         * The oldest time id in analyzed.
+         */
+        private final long oldest;
+
+        Fingerprints(LongLongMap hashes, LongLongMap analyzed, long oldest) {
+            this.hashes = hashes;
+            this.analyzed = analyzed;
+            this.oldest = oldest;
+        }
+    }
+
+    /**
+     * The changes of a batch compared to the last cycle.
+     */
+    public static class Changes {
+
+        private final ConcurrentMap<String, Fingerprints> templates;
+        private final String template;
+        private final Fingerprints fingerprints;
+        private final int[] rows;
+        private final long[] removed;
+        private final long baseline;
+
+        Changes(ConcurrentMap<String, Fingerprints> templates, String template,
+                Fingerprints fingerprints, int[] rows, long[] removed,
+                long baseline) {
+            this.templates = templates;
+            this.template = template;
+            this.fingerprints = fingerprints;
+            this.rows = rows;
+            this.removed = removed;
+            this.baseline = baseline;
+        }
+
+        /**
+         * Returns the rows, which are new or have changed, or have no row
+         * key.
+         *
+         * @return an int[] of the rows in the batch.
+         */
+        public int[] getRows() {
+            return rows;
+        }
+
+        /**
+         * Returns the row keys of the rows, which have been removed.
+         *
+         * @return a long[] of the row keys.
+         */
+        public long[] getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Returns the time id of the oldest cycle, whose values are still
+         * valid for the device.
+         *
+         * @return a
+         * <code>long</code> representing the time id.
+         */
+        public long getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Stores the fingerprints of the batch. This must be called, when the
+         * changed rows have been analyzed.
+         */
+        public void commit() {
+            templates.put(template, fingerprints);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package omnia.snmp;
 
 import omnia.analyzer.InterfaceAnalyzer;
+import omnia.db.DeviceSession;
 
 /**
  * The template for the interface element.
@@ -55,6 +56,25 @@ public class InterfaceTemplate extends ElementTemplate {
      * The if X name element.
      */
     public static final int NAMEX = 10;
+    /**
+     * The schema of the interface template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("interface", 11);
+
+    static {
+        SCHEMA.define(INDEX, "index", ElementType.INTEGER);
+        SCHEMA.define(ADMINSTATUS, "adminStatus", ElementType.ENUM);
+        SCHEMA.define(OPERSTATUS, "operStatus", ElementType.ENUM);
+        SCHEMA.define(NAME, "name", ElementType.STRING);
+        SCHEMA.define(DESCRIPTION, "description", ElementType.STRING);
+        SCHEMA.define(MEDIA, "media", ElementType.ENUM);
+        SCHEMA.define(LASTCHANGE, "lastChange", ElementType.LONG);
+        SCHEMA.define(MTU, "mtu", ElementType.INTEGER);
+        SCHEMA.define(TYPE, "type", ElementType.LABEL);
+        SCHEMA.define(ALIAS, "alias", ElementType.STRING);
+        SCHEMA.define(NAMEX, "nameX", ElementType.STRING);
+    }
 
     /**
      * Default constructor. Sets the template name and adds the elements.
@@ -62,50 +82,38 @@ public class InterfaceTemplate extends ElementTemplate {
      * @param time the unique time id of this template.
      */
     public InterfaceTemplate(long time) {
-        super(time);
-        size = 11;
+        super(time, SCHEMA);
         operation = SnmpOperation.GETALL;
-        template = "interface";
-        initialize();
-        elements[INDEX] = "index";
-        elements[ADMINSTATUS] = "adminStatus";
-        elements[OPERSTATUS] = "operStatus";
-        elements[NAME] = "name";
-        elements[DESCRIPTION] = "description";
-        elements[MEDIA] = "media";
-        elements[LASTCHANGE] = "lastChange";
-        elements[MTU] = "mtu";
-        elements[TYPE] = "type";
-        elements[ALIAS] = "alias";
-        elements[NAMEX] = "nameX";
     }
 
     /**
-     * Stores a value for an element. Converts the lastChange value (from
-     * hundredths of a second) to milliseconds.
+     * Stores a numeric value for an element. Converts the lastChange value
+     * (from hundredths of a second) to milliseconds.
      *
      * @param element the element for which to store the value.
      * @param value   the value to store.
      */
     @Override
-    public void setValue(int element, String value) {
-        if (element == LASTCHANGE && value != null) {
-            long milSecAgo = Long.parseLong(value) * 10;
-            this.values[element] = "" + milSecAgo;
+    public void setLong(int element, long value) {
+        if (element == LASTCHANGE) {
+            super.setLong(element, value * 10);
         } else {
-            super.setValue(element, value);
+            super.setLong(element, value);
         }
     }
 
+    /**
+     * Returns the ifIndex of the interface as row key.
+     *
+     * @return a
+     * <code>long</code> containing the key or NO_KEY if the index is not set.
+     */
     @Override
-    public Object getValue(int value) {
-        if (value == LASTCHANGE) {
-            return asLong(values[value]);
-        }
-        if (value == INDEX || value == MTU) {
-            return asInteger(values[value]);
+    public long getRowKey() {
+        if (!hasValue(INDEX)) {
+            return NO_KEY;
         }
-        return super.getValue(value);
+        return getLong(INDEX);
     }
 
     @Override
@@ -114,8 +122,14 @@ public class InterfaceTemplate extends ElementTemplate {
     }
 
     @Override
-    public void analyze() {
-        InterfaceAnalyzer analyzer = new InterfaceAnalyzer();
+    public void analyze(DeviceSession session) {
+        InterfaceAnalyzer analyzer = new InterfaceAnalyzer(session);
         analyzer.analyze(this);
     }
+
+    @Override
+    public void analyzeRemoved(long key, DeviceSession session) {
+        InterfaceAnalyzer analyzer = new InterfaceAnalyzer(session);
+        analyzer.remove(this, (int) key);
+    }
 }
@@ -1,6 +1,7 @@
 package omnia.snmp;
 
 import omnia.analyzer.LldpLocalPortAnalyzer;
+import omnia.db.DeviceSession;
 
 /**
  * The template for the lldpLocalPort element.
@@ -23,6 +24,17 @@ public class LldpLocalPortTemplate extends ElementTemplate {
      * The port number element.
      */
     public static final int PORTNUMBER = 2;
+    /**
+     * The schema of the lldpLocalPort template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("lldpLocalPort", 3);
+
+    static {
+        SCHEMA.define(SUBTYPE, "subtype", ElementType.ENUM);
+        SCHEMA.define(ID, "id", ElementType.STRING);
+        SCHEMA.define(PORTNUMBER, "portnumber", ElementType.INTEGER);
+    }
 
     /**
      * Default constructor. Sets the template name and adds the elements.
@@ -30,22 +42,23 @@ public class LldpLocalPortTemplate extends ElementTemplate {
      * @param time the unique time id of this template.
      */
     public LldpLocalPortTemplate(long time) {
-        super(time);
-        size = 3;
+        super(time, SCHEMA);
         operation = SnmpOperation.GETALL;
-        template = "lldpLocalPort";
-        initialize();
-        elements[SUBTYPE] = "subtype";
-        elements[ID] = "id";
-        elements[PORTNUMBER] = "portnumber";
     }
 
+    /**
+     * Returns the local port number as row key.
+     *
+     * @return a
+     * <code>long</code> containing the key or NO_KEY if the port number is not
+     * set.
+     */
     @Override
-    public Object getValue(int value) {
-        if (value == PORTNUMBER) {
-            return asInteger(values[value]);
+    public long getRowKey() {
+        if (!hasValue(PORTNUMBER)) {
+            return NO_KEY;
         }
-        return super.getValue(value);
+        return getLong(PORTNUMBER);
     }
 
     @Override
@@ -55,8 +68,8 @@ public class LldpLocalPortTemplate extends ElementTemplate {
     }
 
     @Override
-    public void analyze() {
-        LldpLocalPortAnalyzer analyzer = new LldpLocalPortAnalyzer();
+    public void analyze(DeviceSession session) {
+        LldpLocalPortAnalyzer analyzer = new LldpLocalPortAnalyzer(session);
         analyzer.analyze(this);
     }
 }
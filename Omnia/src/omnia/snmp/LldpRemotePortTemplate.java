@@ -1,6 +1,7 @@
 package omnia.snmp;
 
 import omnia.analyzer.LldpRemotePortAnalyzer;
+import omnia.db.DeviceSession;
 
 /**
  * The template for the lldpRemotePort element.
@@ -47,6 +48,24 @@ public class LldpRemotePortTemplate extends ElementTemplate {
      * The systemDescription element.
      */
     public static final int SYSTEMDESCRIPTION = 8;
+    /**
+     * The schema of the lldpRemotePort template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("lldpRemotePort", 9);
+
+    static {
+        SCHEMA.define(LOCALPORT, "localPort", ElementType.INTEGER);
+        SCHEMA.define(INDEX, "index", ElementType.INTEGER);
+        SCHEMA.define(CHASSISSUBTYPE, "chassisSubtype", ElementType.ENUM);
+        SCHEMA.define(CHASSISID, "chassisId", ElementType.STRING);
+        SCHEMA.define(SUBTYPE, "subtype", ElementType.ENUM);
+        SCHEMA.define(ID, "id", ElementType.STRING);
+        SCHEMA.define(DESCRIPTION, "description", ElementType.STRING);
+        SCHEMA.define(SYSTEMNAME, "systemName", ElementType.STRING);
+        SCHEMA.define(SYSTEMDESCRIPTION, "systemDescription",
+                      ElementType.LABEL);
+    }
 
     /**
      * Default constructor. Sets the template name and adds the elements.
@@ -54,28 +73,23 @@ public class LldpRemotePortTemplate extends ElementTemplate {
      * @param time the unique time id of this template.
      */
     public LldpRemotePortTemplate(long time) {
-        super(time);
-        size = 9;
+        super(time, SCHEMA);
         operation = SnmpOperation.GETALL;
-        template = "lldpRemotePort";
-        initialize();
-        elements[LOCALPORT] = "localPort";
-        elements[INDEX] = "index";
-        elements[CHASSISSUBTYPE] = "chassisSubtype";
-        elements[CHASSISID] = "chassisId";
-        elements[SUBTYPE] = "subtype";
-        elements[ID] = "id";
-        elements[DESCRIPTION] = "description";
-        elements[SYSTEMNAME] = "systemName";
-        elements[SYSTEMDESCRIPTION] = "systemDescription";
     }
 
+    /**
+     * Returns the local port and the remote index as row key.
+     *
+     * @return a
+     * <code>long</code> containing the key or NO_KEY if the local port or
+     * index is not set.
+     */
     @Override
-    public Object getValue(int value) {
-        if (value == LOCALPORT || value == INDEX) {
-            return asInteger(values[value]);
+    public long getRowKey() {
+        if (!hasValue(LOCALPORT) || !hasValue(INDEX)) {
+            return NO_KEY;
         }
-        return super.getValue(value);
+        return (getLong(LOCALPORT) << 32) | (getLong(INDEX) & 0xffffffffL);
     }
 
     @Override
@@ -84,7 +98,14 @@ public class LldpRemotePortTemplate extends ElementTemplate {
     }
 
     @Override
-    public void analyze() {
-        LldpRemotePortAnalyzer.analyze(this);
+    public void analyze(DeviceSession session) {
+        LldpRemotePortAnalyzer analyzer = new LldpRemotePortAnalyzer(session);
+        analyzer.analyze(this);
+    }
+
+    @Override
+    public void analyzeRemoved(long key, DeviceSession session) {
+        LldpRemotePortAnalyzer analyzer = new LldpRemotePortAnalyzer(session);
+        analyzer.remove(this, key);
     }
 }
@@ -1,6 +1,8 @@
 package omnia.snmp;
 
 import omnia.analyzer.LldpRemoteSystemAnalyzer;
+import omnia.db.DeviceSession;
+import org.snmp4j.smi.OID;
 
 /**
  * The template for the lldpRemoteSystem element.
@@ -19,28 +21,97 @@ public class LldpRemoteSystemTemplate extends ElementTemplate {
      * The ifId element.
      */
     public static final int IFID = 1;
+    /**
+     * The management address subtype of IPv4 and its length.
+     */
+    private static final int IPV4 = 1;
+    private static final int IPV4_LENGTH = 4;
+    /**
+     * The schema of the lldpRemoteSystem template.
+     */
+    public static final TemplateSchema SCHEMA =
+            new TemplateSchema("lldpRemoteSystem", 2);
+
+    static {
+        SCHEMA.define(IFSUBTYPE, "ifSubtype", ElementType.ENUM);
+        SCHEMA.define(IFID, "ifId", ElementType.INTEGER);
+    }
 
     /**
-     * Default constructor. Sets the template name and adds the elements.
+     * Default constructor. Sets the template name and adds the elements. The
+     * template has no row key, since the interface id is not unique per row
+     * and a row is only told apart by its instance. So every row is analyzed.
      *
      * @param time the unique time id of this template.
      */
     public LldpRemoteSystemTemplate(long time) {
-        super(time);
-        size = 2;
+        super(time, SCHEMA);
         operation = SnmpOperation.GETALL;
-        template = "lldpRemoteSystem";
-        initialize();
-        elements[IFSUBTYPE] = "ifSubtype";
-        elements[IFID] = "ifId";
     }
 
-    @Override
-    public Object getValue(int value) {
-        if (value == IFID) {
-            return asInteger(values[value]);
+    /**
+     * Returns the IPv4 management address of a row. The address is not a
+     * column, but part of the instance of the row, which is the time mark, the
+     * local port, the remote index, the address subtype and the address.
+     *
+     * @param oid the OID of an element of the row.
+     *
+     * @return a String containing the address or null if the OID has no IPv4
+     *         address.
+     */
+    public static String getManagementAddress(String oid) {
+        int[] instance = parseInstance(oid);
+        if (instance == null) {
+            return null;
+        }
+        int length = instance.length;
+        return (instance[length - 4] & 0xff) + "."
+               + (instance[length - 3] & 0xff) + "."
+               + (instance[length - 2] & 0xff) + "."
+               + (instance[length - 1] & 0xff);
+    }
+
+    /**
+     * Returns the local port and the remote index of a row, which is the row
+     * key of the remote port in LldpRemotePortTemplate. See
+     * getManagementAddress().
+     *
+     * @param oid the OID of an element of the row.
+     *
+     * @return a
+     * <code>long</code> containing the key or NO_KEY if the OID has no IPv4
+     * address.
+     */
+    public static long getRemoteKey(String oid) {
+        int[] instance = parseInstance(oid);
+        if (instance == null) {
+            return NO_KEY;
+        }
+        int length = instance.length;
+        return ((long) instance[length - 8] << 32)
+               | (instance[length - 7] & 0xffffffffL);
+    }
+
+    /**
+     * Returns the sub-identifiers of an OID, which ends with an IPv4
+     * management address, or null.
+     */
+    private static int[] parseInstance(String oid) {
+        if (oid == null) {
+            return null;
+        }
+        int[] instance;
+        try {
+            instance = new OID(oid).getValue();
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        int length = instance.length;
+        if (length < 9 || instance[length - 6] != IPV4
+            || instance[length - 5] != IPV4_LENGTH) {
+            return null;
         }
-        return super.getValue(value);
+        return instance;
     }
 
     @Override
@@ -49,7 +120,7 @@ public class LldpRemoteSystemTemplate extends ElementTemplate {
     }
 
     @Override
-    public void analyze() {
+    public void analyze(DeviceSession session) {
         LldpRemoteSystemAnalyzer.analyze(this);
     }
 }
@@ -0,0 +1,278 @@
+package omnia.snmp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the MIB modules in the mibs directory. The index maps each MIB
+ * module name to the file defining it, together with the modules it imports.
+ * It is built once by scanning only the header of each file (the module
+ * definition and the IMPORTS clause), so the MIBs themselves are not parsed
+ * until they are needed.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class MibIndex {
+
+    /**
+     * Matches the start of a module definition, e.g. "IF-MIB DEFINITIONS".
+     */
+    private static final Pattern DEFINITION =
+            Pattern.compile("^\\s*([A-Za-z][A-Za-z0-9-]*)\\s+DEFINITIONS\\b");
+    /**
+     * The MIB module files mapped by module name.
+     */
+    private final Map<String, File> files;
+    /**
+     * The imported module names mapped by module name.
+     */
+    private final Map<String, List<String>> imports;
+
+    /**
+     * Default constructor. Scans all files below the directory in parallel
+     * and indexes the modules found.
+     *
+     * @param directory the MIB directory.
+     */
+    public MibIndex(File directory) {
+        files = new HashMap<String, File>();
+        imports = new HashMap<String, List<String>>();
+        List<File> candidates = new ArrayList<File>();
+        listFiles(directory, candidates);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Header>> headers = new ArrayList<Future<Header>>();
+            for (int i = 0; i < candidates.size(); i++) {
+                final File file = candidates.get(i);
+                headers.add(executor.submit(new Callable<Header>() {
+
+                    @Override
+                    public Header call() throws IOException {
+                        return scan(file);
+                    }
+                }));
+            }
+            for (int i = 0; i < headers.size(); i++) {
+                try {
+                    Header header = headers.get(i).get();
+                    if (header != null && !files.containsKey(header.module)) {
+                        files.put(header.module, candidates.get(i));
+                        imports.put(header.module, header.imports);
+                    }
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(MibIndex.class.getName()).log(
+                            Level.WARNING, null, ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the file defining a MIB module.
+     *
+     * @param module the module name.
+     *
+     * @return the File or null if the module is not indexed.
+     */
+    public File getFile(String module) {
+        return files.get(module);
+    }
+
+    /**
+     * Returns the modules imported by a MIB module.
+     *
+     * @param module the module name.
+     *
+     * @return a List of module names, empty if the module is not indexed.
+     */
+    public List<String> getImports(String module) {
+        List<String> moduleImports = imports.get(module);
+        if (moduleImports == null) {
+            return Collections.emptyList();
+        }
+        return moduleImports;
+    }
+
+    /**
+     * Returns the number of indexed modules.
+     *
+     * @return an
+     * <code>int</code> containing the number of modules.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Returns the modules and all their transitive imports in load order. Each
+     * module appears after all the modules it imports.
+     *
+     * @param modules the modules to resolve.
+     *
+     * @return a List of module names in dependency order.
+     */
+    public List<String> resolve(Collection<String> modules) {
+        Set<String> resolved = new LinkedHashSet<String>();
+        Set<String> visiting = new HashSet<String>();
+        for (String module : modules) {
+            resolve(module, resolved, visiting);
+        }
+        return new ArrayList<String>(resolved);
+    }
+
+    private void resolve(String module, Set<String> resolved,
+                         Set<String> visiting) {
+        if (resolved.contains(module) || !visiting.add(module)) {
+            return;
+        }
+        List<String> moduleImports = getImports(module);
+        for (int i = 0; i < moduleImports.size(); i++) {
+            resolve(moduleImports.get(i), resolved, visiting);
+        }
+        visiting.remove(module);
+        resolved.add(module);
+    }
+
+    private static void listFiles(File directory, List<File> found) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (int i = 0; i < children.length; i++) {
+            String name = children[i].getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (children[i].isDirectory()) {
+                listFiles(children[i], found);
+            } else if (!name.toLowerCase().endsWith(".zip")) {
+                found.add(children[i]);
+            }
+        }
+    }
+
+    /**
+     * Scans the header of a MIB file. Reading stops at the end of the IMPORTS
+     * clause or at the first definition after BEGIN if there is none.
+     *
+     * @param file the file to scan.
+     *
+     * @return the Header of the first module or null if none was found.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    private static Header scan(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            Header header = null;
+            boolean inImports = false;
+            boolean afterFrom = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = stripComments(line);
+                if (header == null) {
+                    Matcher matcher = DEFINITION.matcher(line);
+                    if (!matcher.find()) {
+                        continue;
+                    }
+                    header = new Header(matcher.group(1));
+                    line = line.substring(matcher.end());
+                }
+                String[] tokens = line.split("[\\s,]+");
+                for (int i = 0; i < tokens.length; i++) {
+                    String token = tokens[i];
+                    if (token.isEmpty()) {
+                        continue;
+                    }
+                    if (!inImports) {
+                        if (token.equals("IMPORTS")) {
+                            inImports = true;
+                        } else if (!token.equals("::=")
+                                   && !token.equals("BEGIN")) {
+                            return header;
+                        }
+                        continue;
+                    }
+                    boolean end = token.endsWith(";");
+                    if (end) {
+                        token = token.substring(0, token.length() - 1);
+                    }
+                    if (afterFrom && !token.isEmpty()) {
+                        header.imports.add(token);
+                        afterFrom = false;
+                    } else if (token.equals("FROM")) {
+                        afterFrom = true;
+                    }
+                    if (end) {
+                        return header;
+                    }
+                }
+            }
+            return header;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Removes ASN.1 comments from a line. A comment starts with "--" and ends
+     * at the next "--" or at the end of the line.
+     *
+     * @param line the line.
+     *
+     * @return the line without comments.
+     */
+    private static String stripComments(String line) {
+        int start = line.indexOf("--");
+        while (start >= 0) {
+            int end = line.indexOf("--", start + 2);
+            if (end < 0) {
+                return line.substring(0, start);
+            }
+            line = line.substring(0, start) + " " + line.substring(end + 2);
+            start = line.indexOf("--");
+        }
+        return line;
+    }
+
+    /**
+     * The header of a MIB module.
+     */
+    private static class Header {
+
+        private final String module;
+        private final List<String> imports;
+
+        Header(String module) {
+            this.module = module;
+            this.imports = new ArrayList<String>();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package omnia.snmp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable trie of OID prefixes. Each prefix is stored as a path of OID
+ * arcs, so a longest-prefix match only walks the arcs of the OID once and
+ * never matches in the middle of an arc. The trie is built in the constructor
+ * and can be shared between threads without locking.
+ *
+ * @param <T> the type of the values stored for each prefix.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class OidTrie<T> {
+
+    /**
+     * Matches a regular expression which is only an anchored OID prefix, e.g.
+     * "^1.3.6.1.4.1.2636" or "^1\.3\.6\.1".
+     */
+    private static final Pattern LITERAL_PREFIX =
+            Pattern.compile("\\^\\.?[0-9]+((\\\\?\\.)[0-9]+)*(\\\\?\\.)?");
+    private final Node<T> root;
+    private final int size;
+
+    /**
+     * Default constructor. Builds the trie from prefix/value pairs. Prefixes
+     * are dotted OIDs like "1.3.6.1.4.1.2636".
+     *
+     * @param prefixes the OID prefixes mapped to their values.
+     */
+    public OidTrie(Map<String, T> prefixes) {
+        Builder<T> builder = new Builder<T>();
+        Iterator<Map.Entry<String, T>> entries =
+                prefixes.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, T> entry = entries.next();
+            Builder<T> current = builder;
+            long[] arcs = parse(entry.getKey());
+            for (int i = 0; i < arcs.length; i++) {
+                current = current.child(arcs[i]);
+            }
+            current.value = entry.getValue();
+        }
+        root = builder.build(0);
+        size = prefixes.size();
+    }
+
+    /**
+     * Returns the value of the longest prefix of an OID.
+     *
+     * @param oid the dotted OID.
+     *
+     * @return the value of the longest matching prefix or null if no prefix
+     *         matches.
+     */
+    public T get(String oid) {
+        Node<T> match = find(oid);
+        if (match == null) {
+            return null;
+        }
+        return match.value;
+    }
+
+    /**
+     * Returns the length of the longest prefix of an OID. The length is
+     * measured in characters of the dotted prefix, so it can be compared to
+     * the length of a regular expression match.
+     *
+     * @param oid the dotted OID.
+     *
+     * @return an
+     * <code>int</code> containing the length or 0 if no prefix matches.
+     */
+    public int matchLength(String oid) {
+        Node<T> match = find(oid);
+        if (match == null) {
+            return 0;
+        }
+        return match.length;
+    }
+
+    /**
+     * Returns the number of prefixes in the trie.
+     *
+     * @return an
+     * <code>int</code> containing the number of prefixes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the OID prefix of a regular expression, if the regular
+     * expression is only an anchored OID prefix. Such expressions can be
+     * stored in the trie instead of being matched.
+     *
+     * @param regex the regular expression.
+     *
+     * @return a String containing the dotted prefix or null if the regular
+     *         expression is not a literal prefix.
+     */
+    public static String toPrefix(String regex) {
+        if (regex == null || !LITERAL_PREFIX.matcher(regex).matches()) {
+            return null;
+        }
+        String prefix = regex.substring(1).replace("\\", "");
+        if (prefix.startsWith(".")) {
+            prefix = prefix.substring(1);
+        }
+        if (prefix.endsWith(".")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix;
+    }
+
+    private Node<T> find(String oid) {
+        if (oid == null) {
+            return null;
+        }
+        Node<T> current = root;
+        Node<T> match = null;
+        int length = oid.length();
+        int position = 0;
+        if (length > 0 && oid.charAt(0) == '.') {
+            position++;
+        }
+        while (position < length) {
+            long arc = 0;
+            int start = position;
+            while (position < length && oid.charAt(position) != '.') {
+                char digit = oid.charAt(position);
+                if (digit < '0' || digit > '9') {
+                    return match;
+                }
+                arc = arc * 10 + (digit - '0');
+                position++;
+            }
+            if (position == start) {
+                return match;
+            }
+            current = current.child(arc);
+            if (current == null) {
+                return match;
+            }
+            if (current.value != null) {
+                match = current;
+            }
+            position++;
+        }
+        return match;
+    }
+
+    private static long[] parse(String oid) {
+        String trimmed = oid.trim();
+        if (trimmed.startsWith(".")) {
+            trimmed = trimmed.substring(1);
+        }
+        if (trimmed.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = trimmed.split("\\.");
+        long[] arcs = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            arcs[i] = Long.parseLong(parts[i]);
+        }
+        return arcs;
+    }
+
+    /**
+     * An immutable trie node. The children are stored sorted by arc, so a
+     * child is found by binary search without allocation.
+     */
+    private static class Node<T> {
+
+        private final long[] arcs;
+        private final Node<T>[] children;
+        private final T value;
+        private final int length;
+
+        Node(long[] arcs, Node<T>[] children, T value, int length) {
+            this.arcs = arcs;
+            this.children = children;
+            this.value = value;
+            this.length = length;
+        }
+
+        Node<T> child(long arc) {
+            int found = Arrays.binarySearch(arcs, arc);
+            if (found < 0) {
+                return null;
+            }
+            return children[found];
+        }
+    }
+
+    /**
+     * A mutable trie node, used only while building the trie.
+     */
+    private static class Builder<T> {
+
+        private final TreeMap<Long, Builder<T>> children =
+                new TreeMap<Long, Builder<T>>();
+        private T value;
+
+        Builder<T> child(long arc) {
+            Builder<T> child = children.get(arc);
+            if (child == null) {
+                child = new Builder<T>();
+                children.put(arc, child);
+            }
+            return child;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<T> build(int length) {
+            long[] arcs = new long[children.size()];
+            Node<T>[] nodes = new Node[children.size()];
+            int i = 0;
+            Iterator<Map.Entry<Long, Builder<T>>> entries =
+                    children.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Long, Builder<T>> entry = entries.next();
+                arcs[i] = entry.getKey();
+                int childLength = length + String.valueOf(entry.getKey()).
+                        length();
+                if (length > 0) {
+                    childLength++;
+                }
+                nodes[i] = entry.getValue().build(childLength);
+                i++;
+            }
+            return new Node<T>(arcs, nodes, value, length);
+        }
+    }
+}
@@ -10,7 +10,8 @@ package omnia.snmp;
 public interface OperationListener {
 
     /**
-     * Called when the operation is finished.
+     * Called when the operation is finished. It is called whether or not the
+     * operation has responses.
      *
      * @param operation the operation, which has finished.
      */
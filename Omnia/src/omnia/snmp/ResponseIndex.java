@@ -0,0 +1,89 @@
+package omnia.snmp;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.snmp4j.PDU;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * An index of the variable bindings of a response PDU by requested column.
+ * The index is built once per response from the columns of the request, which
+ * are in the same order as the bindings of the response. A binding is then
+ * found by its column in constant time, instead of scanning the PDU for each
+ * element.
+ *
+ * If a binding is not at the position of its column, the PDU is scanned for
+ * it once and the result is kept.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+class ResponseIndex {
+
+    /**
+     * Marks a column without a binding in the response.
+     */
+    private static final VariableBinding MISSING = new VariableBinding();
+    private final PDU response;
+    private final Map<OID, VariableBinding> bindings;
+
+    /**
+     * Default constructor. Indexes the response by the requested columns.
+     *
+     * @param response the response.
+     * @param columns  the columns of the request in request order or null if
+     *                 not known.
+     */
+    ResponseIndex(PDU response, OID[] columns) {
+        this.response = response;
+        int size = response.size();
+        this.bindings = new HashMap<OID, VariableBinding>(size * 2);
+        if (columns == null) {
+            return;
+        }
+        int length = Math.min(size, columns.length);
+        for (int i = 0; i < length; i++) {
+            OID column = columns[i];
+            if (column == null || column.size() == 0
+                || bindings.containsKey(column)) {
+                continue;
+            }
+            VariableBinding binding = response.get(i);
+            if (binding.getOid().startsWith(column)) {
+                bindings.put(column, binding);
+            }
+        }
+    }
+
+    /**
+     * Returns the binding of a column.
+     *
+     * @param column the requested column.
+     *
+     * @return the VariableBinding or null if the response has no binding for
+     *         the column.
+     */
+    VariableBinding get(OID column) {
+        VariableBinding binding = bindings.get(column);
+        if (binding == null) {
+            binding = scan(column);
+            bindings.put(column, binding);
+        }
+        if (binding == MISSING) {
+            return null;
+        }
+        return binding;
+    }
+
+    private VariableBinding scan(OID column) {
+        for (int i = 0; i < response.size(); i++) {
+            VariableBinding binding = response.get(i);
+            if (binding.getOid().startsWith(column)) {
+                return binding;
+            }
+        }
+        return MISSING;
+    }
+}
@@ -0,0 +1,544 @@
+package omnia.snmp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows of a template for a whole walk of a device, stored by column. The
+ * schema, device and time are held once for the batch instead of once per
+ * row. Numeric columns are stored in long arrays and text columns as codes
+ * into a dictionary per column, so a value repeated on many rows is only
+ * stored once.
+ *
+ * The OID of a row element is stored as the instance of the row, which is
+ * appended to the OID of the column. Only OIDs not following this pattern are
+ * stored in full.
+ *
+ * A batch is filled with set() while parsing, which may be done by several
+ * threads, and read with read() into a single template, which is reused for
+ * all rows, so the rows can be iterated without allocation.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class RowBatch {
+
+    private final TemplateSchema schema;
+    private final String device;
+    private final long time;
+    private final int rows;
+    private final int size;
+    /**
+     * The numeric values by column. Null for columns without numbers.
+     */
+    private final long[][] numbers;
+    /**
+     * The dictionary codes of the text values by column. Null for numeric
+     * columns.
+     */
+    private final int[][] codes;
+    /**
+     * The dictionaries of the text columns.
+     */
+    private final Dictionary[] dictionaries;
+    /**
+     * The rows with a value by column.
+     */
+    private final BitSet[] assigned;
+    /**
+     * The rows, which have been set.
+     */
+    private final BitSet parsed;
+    /**
+     * The OIDs of the columns, as requested.
+     */
+    private final String[] columnOids;
+    /**
+     * The instance of each row.
+     */
+    private final String[] instances;
+    /**
+     * The rows with an OID of column and instance by column.
+     */
+    private final BitSet[] instanceOids;
+    /**
+     * The OIDs, which are not of column and instance, by row and column.
+     * Elements without an OID of a column with an OID are stored as null.
+     */
+    private final Map<Integer, String> otherOids;
+    /**
+     * False if the rows are only the first part of the table, as the walk
+     * did not finish.
+     */
+    private volatile boolean complete = true;
+
+    /**
+     * Default constructor. Creates an empty batch for the rows of a prepared
+     * template.
+     *
+     * @param template the template, as prepared for the operation.
+     * @param device   the address of the device.
+     * @param rows     the number of rows.
+     */
+    public RowBatch(ElementTemplate template, String device, int rows) {
+        this.schema = template.getSchema();
+        this.device = device;
+        this.time = template.getTime();
+        this.rows = rows;
+        this.size = template.size();
+        this.numbers = new long[size][];
+        this.codes = new int[size][];
+        this.dictionaries = new Dictionary[size];
+        this.assigned = new BitSet[size];
+        this.parsed = new BitSet(rows);
+        this.columnOids = new String[size];
+        this.instances = new String[rows];
+        this.instanceOids = new BitSet[size];
+        this.otherOids = new HashMap<Integer, String>();
+        for (int i = 0; i < size; i++) {
+            ElementType type = schema.getType(i);
+            if (type.isNumeric() || type == ElementType.ENUM) {
+                numbers[i] = new long[rows];
+            }
+            if (!type.isNumeric()) {
+                codes[i] = new int[rows];
+                dictionaries[i] = new Dictionary();
+            }
+            assigned[i] = new BitSet(rows);
+            instanceOids[i] = new BitSet(rows);
+            columnOids[i] = template.getOid(i);
+        }
+    }
+
+    /**
+     * Returns the schema of the rows.
+     *
+     * @return the TemplateSchema.
+     */
+    public TemplateSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the device.
+     *
+     * @return a String representing the device.
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the unique time id of the rows.
+     *
+     * @return a
+     * <code>long</code> representing the time id.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return an
+     * <code>int</code> containing the number of rows.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns true if the batch holds all rows of the table. The rows of an
+     * incomplete batch are valid, but rows missing from it may still exist.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the batch is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Sets if the batch holds all rows of the table.
+     *
+     * @param complete false if the walk of the table did not finish.
+     */
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Stores a parsed row. The template is not kept and can be reused for the
+     * next row.
+     *
+     * @param row      the row.
+     * @param template the parsed template of the row.
+     */
+    public synchronized void set(int row, ElementTemplate template) {
+        for (int i = 0; i < size; i++) {
+            if (template.hasValue(i)) {
+                assigned[i].set(row);
+                if (numbers[i] != null) {
+                    numbers[i][row] = template.getLong(i);
+                }
+                if (codes[i] != null) {
+                    codes[i][row] = dictionaries[i].encode(template.values[i]);
+                }
+            } else {
+                assigned[i].clear(row);
+            }
+            setOid(row, i, template.getOid(i));
+        }
+        parsed.set(row);
+    }
+
+    private void setOid(int row, int column, String oid) {
+        otherOids.remove(key(row, column));
+        instanceOids[column].clear(row);
+        String columnOid = columnOids[column];
+        if (oid == null) {
+            if (columnOid != null) {
+                otherOids.put(key(row, column), null);
+            }
+            return;
+        }
+        if (columnOid != null && oid.length() > columnOid.length() + 1
+            && oid.startsWith(columnOid)
+            && oid.charAt(columnOid.length()) == '.') {
+            String instance = oid.substring(columnOid.length() + 1);
+            if (instances[row] == null) {
+                instances[row] = instance;
+            }
+            if (instances[row].equals(instance)) {
+                instanceOids[column].set(row);
+                return;
+            }
+        }
+        if (!oid.equals(columnOid)) {
+            otherOids.put(key(row, column), oid);
+        }
+    }
+
+    private int key(int row, int column) {
+        return row * size + column;
+    }
+
+    /**
+     * Tests if a row has been stored.
+     *
+     * @param row the row.
+     *
+     * @return true if the row has been stored with set().
+     */
+    public synchronized boolean isSet(int row) {
+        return parsed.get(row);
+    }
+
+    /**
+     * Tests if an element of a row has a value.
+     *
+     * @param row     the row.
+     * @param element the element.
+     *
+     * @return true if the element has a value.
+     */
+    public boolean hasValue(int row, int element) {
+        return assigned[element].get(row);
+    }
+
+    /**
+     * Returns the OID of an element of a row.
+     *
+     * @param row     the row.
+     * @param element the element.
+     *
+     * @return a String containing the OID or null if it does not exist.
+     */
+    public String getOid(int row, int element) {
+        if (instanceOids[element].get(row)) {
+            return columnOids[element] + "." + instances[row];
+        }
+        Integer key = Integer.valueOf(key(row, element));
+        if (otherOids.containsKey(key)) {
+            return otherOids.get(key);
+        }
+        return columnOids[element];
+    }
+
+    /**
+     * Returns a hash of the values of a row. Rows with the same values have
+     * the same hash, so the hash can be compared with the hash of the row in
+     * an earlier batch to find out if it has changed. Every character of a
+     * text value is mixed into the hash, so it keeps all 64 bits.
+     *
+     * @param row the row.
+     *
+     * @return a
+     * <code>long</code> containing the hash.
+     */
+    public long fingerprint(int row) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < size; i++) {
+            if (!assigned[i].get(row)) {
+                hash = mix(hash, -1);
+                continue;
+            }
+            hash = mix(hash, i);
+            if (numbers[i] != null) {
+                hash = mix(hash, numbers[i][row]);
+            }
+            if (codes[i] != null) {
+                String value = dictionaries[i].decode(codes[i][row]);
+                hash = mix(hash, value.length());
+                for (int c = 0; c < value.length(); c++) {
+                    hash = mix(hash, value.charAt(c));
+                }
+            }
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Reads a row into a template of the schema. The template is cleared
+     * before the row is read, and the device of the batch is set. The OIDs are
+     * not read, as they are not needed after parsing. They can be read with
+     * getOid().
+     *
+     * @param row      the row.
+     * @param template the template to read the row into.
+     */
+    public void read(int row, ElementTemplate template) {
+        template.device = device;
+        for (int i = 0; i < size; i++) {
+            template.oids[i] = null;
+            if (!assigned[i].get(row)) {
+                template.clearValue(i);
+                continue;
+            }
+            long number = 0;
+            String value = null;
+            if (numbers[i] != null) {
+                number = numbers[i][row];
+            }
+            if (codes[i] != null) {
+                value = dictionaries[i].decode(codes[i][row]);
+            }
+            template.load(i, number, value);
+        }
+    }
+
+    /**
+     * Writes the batch in a compact binary form. Flags are written as bits,
+     * numbers as variable length integers and text columns as their
+     * dictionary and codes.
+     *
+     * @param out the output.
+     *
+     * @throws IOException if the output fails.
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeUTF(device);
+        out.writeLong(time);
+        writeVarLong(out, rows);
+        writeVarLong(out, size);
+        writeBits(out, parsed);
+        for (int i = 0; i < size; i++) {
+            writeBits(out, assigned[i]);
+            if (numbers[i] != null) {
+                for (int row = assigned[i].nextSetBit(0); row >= 0;
+                     row = assigned[i].nextSetBit(row + 1)) {
+                    writeVarLong(out, numbers[i][row]);
+                }
+            }
+            if (codes[i] != null) {
+                List<String> values = dictionaries[i].values;
+                writeVarLong(out, values.size());
+                for (int j = 0; j < values.size(); j++) {
+                    out.writeUTF(values.get(j));
+                }
+                for (int row = assigned[i].nextSetBit(0); row >= 0;
+                     row = assigned[i].nextSetBit(row + 1)) {
+                    writeVarLong(out, codes[i][row]);
+                }
+            }
+            writeString(out, columnOids[i]);
+            writeBits(out, instanceOids[i]);
+        }
+        for (int row = 0; row < rows; row++) {
+            writeString(out, instances[row]);
+        }
+        writeVarLong(out, otherOids.size());
+        Iterator<Map.Entry<Integer, String>> others =
+                otherOids.entrySet().iterator();
+        while (others.hasNext()) {
+            Map.Entry<Integer, String> other = others.next();
+            writeVarLong(out, other.getKey());
+            writeString(out, other.getValue());
+        }
+        out.writeBoolean(complete);
+    }
+
+    /**
+     * Reads a batch written with write().
+     *
+     * @param in       the input.
+     * @param template a template of the schema of the batch.
+     *
+     * @return the RowBatch.
+     *
+     * @throws IOException if the input fails or is not a batch of the schema.
+     */
+    public static RowBatch read(DataInput in, ElementTemplate template) throws
+            IOException {
+        String device = in.readUTF();
+        long time = in.readLong();
+        int rows = (int) readVarLong(in);
+        int size = (int) readVarLong(in);
+        if (time != template.getTime() || size != template.size()) {
+            throw new IOException("Batch does not match template "
+                                  + template.getSchema().template());
+        }
+        RowBatch batch = new RowBatch(template, device, rows);
+        readBits(in, batch.parsed, rows);
+        for (int i = 0; i < size; i++) {
+            BitSet assigned = batch.assigned[i];
+            readBits(in, assigned, rows);
+            if (batch.numbers[i] != null) {
+                for (int row = assigned.nextSetBit(0); row >= 0;
+                     row = assigned.nextSetBit(row + 1)) {
+                    batch.numbers[i][row] = readVarLong(in);
+                }
+            }
+            if (batch.codes[i] != null) {
+                int values = (int) readVarLong(in);
+                for (int j = 0; j < values; j++) {
+                    batch.dictionaries[i].encode(in.readUTF());
+                }
+                for (int row = assigned.nextSetBit(0); row >= 0;
+                     row = assigned.nextSetBit(row + 1)) {
+                    batch.codes[i][row] = (int) readVarLong(in);
+                }
+            }
+            batch.columnOids[i] = readString(in);
+            readBits(in, batch.instanceOids[i], rows);
+        }
+        for (int row = 0; row < rows; row++) {
+            batch.instances[row] = readString(in);
+        }
+        int others = (int) readVarLong(in);
+        for (int j = 0; j < others; j++) {
+            batch.otherOids.put(Integer.valueOf((int) readVarLong(in)),
+                                readString(in));
+        }
+        batch.complete = in.readBoolean();
+        return batch;
+    }
+
+    private void writeBits(DataOutput out, BitSet bits) throws IOException {
+        for (int row = 0; row < rows; row += 8) {
+            int packed = 0;
+            for (int bit = 0; bit < 8 && row + bit < rows; bit++) {
+                if (bits.get(row + bit)) {
+                    packed |= 1 << bit;
+                }
+            }
+            out.writeByte(packed);
+        }
+    }
+
+    private static void readBits(DataInput in, BitSet bits, int rows) throws
+            IOException {
+        for (int row = 0; row < rows; row += 8) {
+            int packed = in.readUnsignedByte();
+            for (int bit = 0; bit < 8 && row + bit < rows; bit++) {
+                if ((packed & (1 << bit)) != 0) {
+                    bits.set(row + bit);
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws
+            IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+
+    /**
+     * Writes a long as a zigzag encoded variable length integer, so small
+     * values, positive or negative, take few bytes.
+     */
+    private static void writeVarLong(DataOutput out, long value) throws
+            IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new IOException("Malformed variable length integer");
+            }
+            b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * A dictionary of the distinct text values of a column.
+     */
+    private static class Dictionary {
+
+        private final Map<String, Integer> codes =
+                new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = Integer.valueOf(values.size());
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code.intValue();
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+    }
+}
@@ -24,7 +24,8 @@ import org.snmp4j.transport.DefaultUdpTransportMapping;
  * This class does the actual SNMP operation. The operation is loaded with the
  * PDU, targets, transport mapping and the operation type. When these are loaded
  * run() is called to run the actual SNMP operation. When the operation finishes
- * it calls the onStop() of the OperationListener.
+ * it calls the onStop() of the OperationListener, also if there are no
+ * responses.
  *
  * Targets is an array of IP and SNMP authorizations. This class will iterate
  * through them until it finds a match.
@@ -35,11 +36,15 @@ import org.snmp4j.transport.DefaultUdpTransportMapping;
  */
 public class SnmpOperation implements Runnable {
 
+    /**
+     * The plugins and configuration this operation is run with. They are
+     * kept for the whole operation, even if they are reloaded meanwhile.
+     */
+    private final SnmpPluginHandler pluginHandler;
     /**
      * Shorthand for the configurationHandler.
      */
-    private final ConfigurationHandler configurationHandler =
-            Omnia.configurationHandler;
+    private final ConfigurationHandler configurationHandler;
     /**
      * The operation. See operation types.
      */
@@ -52,10 +57,19 @@ public class SnmpOperation implements Runnable {
      * The request PDU.
      */
     private PDU request;
+    /**
+     * The requested columns in request order. The OID of a scalar column is
+     * without the instance.
+     */
+    private ArrayList<OID> columns;
     /**
      * The PDU responses.
      */
     private PDU[] responses;
+    /**
+     * True if the operation received all its responses.
+     */
+    private volatile boolean complete;
     /**
      * The transport mapping.
      */
@@ -95,6 +109,23 @@ public class SnmpOperation implements Runnable {
      */
     public SnmpOperation(CommunityTarget[] targets, ElementTemplate template,
                          OperationListener listener) {
+        this(targets, template, listener, Omnia.snmpPluginHandler);
+    }
+
+    /**
+     * Snapshot constructor. Sets the targets, template, listener and the
+     * plugins to run the operation with and initializes the operation.
+     *
+     * @param targets       the targets.
+     * @param template      the template.
+     * @param listener      the listener.
+     * @param pluginHandler the plugins and configuration to use.
+     */
+    public SnmpOperation(CommunityTarget[] targets, ElementTemplate template,
+                         OperationListener listener,
+                         SnmpPluginHandler pluginHandler) {
+        this.pluginHandler = pluginHandler;
+        this.configurationHandler = pluginHandler.getConfiguration();
         this.targets = targets;
         this.template = template;
         this.listener = listener;
@@ -113,6 +144,8 @@ public class SnmpOperation implements Runnable {
      */
     public SnmpOperation(int operation, ElementTemplate template,
                          CommunityTarget[] targets, OperationListener listener) {
+        this.pluginHandler = Omnia.snmpPluginHandler;
+        this.configurationHandler = pluginHandler.getConfiguration();
         this.operation = operation;
         this.listener = listener;
         this.template = template;
@@ -127,6 +160,7 @@ public class SnmpOperation implements Runnable {
      */
     private void initialize() {
         request = new PDU();
+        columns = new ArrayList<OID>();
         responses = null;
         try {
             transport = new DefaultUdpTransportMapping();
@@ -174,6 +208,15 @@ public class SnmpOperation implements Runnable {
         this.targets = targets;
     }
 
+    /**
+     * Returns the plugins this operation is run with.
+     *
+     * @return the SnmpPluginHandler.
+     */
+    public SnmpPluginHandler getPluginHandler() {
+        return pluginHandler;
+    }
+
     /**
      * Returns the template.
      *
@@ -243,9 +286,7 @@ public class SnmpOperation implements Runnable {
                                                                     null, ex);
             }
         }
-        if (hasResponses()) {
-            listener.onStop(this);
-        }
+        listener.onStop(this);
         close();
     }
 
@@ -315,10 +356,17 @@ public class SnmpOperation implements Runnable {
                         }
                     }
                     if (allNull) {
+                        /*
+                         * All columns are past the end of the table.
+                         */
+                        complete = true;
                         break;
                     }
                 }
                 allResponses.add(combinedResponse);
+                if (operation != GETALL) {
+                    complete = true;
+                }
                 if (operation == GETALL) {
                     nextPdu = new PDU(nextPdu);
                     nextPdu.clear();
@@ -355,6 +403,7 @@ public class SnmpOperation implements Runnable {
             MibValueSymbol valueSymbol = (MibValueSymbol) mib.getSymbol(symbol);
             returnString = valueSymbol.getValue().toString();
             oid = new OID(returnString);
+            columns.add(new OID(oid));
 
             if (valueSymbol.isScalar()) {
                 oid.append(0);
@@ -363,11 +412,22 @@ public class SnmpOperation implements Runnable {
         } else {
             oid = new OID();
             returnString = null;
+            columns.add(null);
         }
         request.add(new VariableBinding(oid));
         return returnString;
     }
 
+    /**
+     * Returns the requested columns in request order. The responses have
+     * their bindings in the same order.
+     *
+     * @return an OID[] containing the columns. Unknown symbols are null.
+     */
+    public OID[] getColumns() {
+        return columns.toArray(new OID[columns.size()]);
+    }
+
     /**
      * Returns an array of the response. This is equivalent to calling
      * getResponse().toArry() on the response element.
@@ -435,6 +495,18 @@ public class SnmpOperation implements Runnable {
         return returnValue;
     }
 
+    /**
+     * Returns true if the operation received all its responses. A walk,
+     * which timed out or failed partway, is not complete, even though it has
+     * the responses received before.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the operation is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
     /**
      * Returns true if the operation has a response and false otherwise.
      *
@@ -1,7 +1,13 @@
 package omnia.snmp;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.percederberg.mibble.Mib;
@@ -12,6 +18,8 @@ import net.percederberg.mibble.snmp.SnmpObjectType;
 import net.percederberg.mibble.type.IntegerType;
 import net.percederberg.mibble.value.NumberValue;
 import omnia.Omnia;
+import omnia.db.MacTable;
+import omnia.util.StringInterner;
 import org.jdom2.Attribute;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -32,9 +40,60 @@ public class SnmpParser {
     private final int VALUE = 0;
     private final int OID = 1;
     private final String MIB_INPUT = "mib";
-    private final SnmpPluginHandler pluginHandler = Omnia.snmpPluginHandler;
+    /**
+     * The number of rows from which a table is parsed in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+    /**
+     * The number of threads parsing rows in parallel.
+     */
+    private static final int PARALLELISM =
+            Runtime.getRuntime().availableProcessors();
+    /**
+     * The threads parsing rows of large tables, shared by all parsers.
+     */
+    private static final ExecutorService rowParsers =
+            Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SnmpParser rows");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * The maximum number of shared labels.
+     */
+    private static final int LABEL_CAPACITY = 8192;
+    /**
+     * The labels and enumerated values, shared by all parsers.
+     */
+    private static final StringInterner labels =
+            new StringInterner(LABEL_CAPACITY);
+    private final SnmpPluginHandler pluginHandler;
 
     public SnmpParser() {
+        this(Omnia.snmpPluginHandler);
+    }
+
+    /**
+     * Constructor with the plugins to parse with. Operations must be parsed
+     * with the same plugins they were prepared with.
+     *
+     * @param pluginHandler the plugins.
+     */
+    public SnmpParser(SnmpPluginHandler pluginHandler) {
+        this.pluginHandler = pluginHandler;
+    }
+
+    /**
+     * Returns the dictionary of shared labels and enumerated values.
+     *
+     * @return the StringInterner of the labels.
+     */
+    public static StringInterner getLabels() {
+        return labels;
     }
 
     /**
@@ -94,10 +153,11 @@ public class SnmpParser {
      *         fails.
      */
     private String parseElement(ElementTemplate template, int elementName,
-                                Element element, PDU response, int format,
+                                Element element, ResponseIndex response,
+                                int format,
                                 CapabilityTemplate capabilities) {
         //TODO: handle new requested tag and childElement tag
-        if (template.getValue(elementName) != null) {
+        if (template.hasValue(elementName)) {
             /*
              * Element is already set.
              */
@@ -123,14 +183,14 @@ public class SnmpParser {
             /*
              * Parse mib childElement
              */
-            Mib mib =
-                    pluginHandler.load(
-                    getGrandchild(MIB_INPUT, dependencyValue, element.getDocument()).getTextNormalize());
-            MibValueSymbol symbol = (MibValueSymbol) mib.getSymbol(context);
-            OID requested = new OID(symbol.getValue().toString());
-            Variable oidResponse = response.getVariable(requested);
-            List<VariableBinding> vbs = response.getBindingList(requested);
-            String textualOid = vbs.get(0).getOid().toString();
+            MibValueSymbol symbol = getSymbol(element, dependencyValue);
+            VariableBinding binding =
+                    response.get(pluginHandler.getOid(symbol));
+            if (binding == null) {
+                return null;
+            }
+            Variable oidResponse = binding.getVariable();
+            String textualOid = binding.getOid().toString();
             template.setOid(elementName, textualOid);
             if (format == OID) {
                 return textualOid;
@@ -142,51 +202,9 @@ public class SnmpParser {
              * Check if the symbolValue has a textual MIB represenatation and
              * use that instead.
              */
-            MibType symbolType = symbol.getType();
-            if (!(symbolType instanceof SnmpObjectType)) {
-                return noTextualMib(oidResponse);
-            }
-            MibType syntax = ((SnmpObjectType) symbolType).getSyntax();
-            if (!(syntax instanceof IntegerType)) {
-                return noTextualMib(oidResponse);
-            }
-            IntegerType syntaxInteger = (IntegerType) syntax;
-            if (!syntaxInteger.hasSymbols()) {
-                return noTextualMib(oidResponse);
-            }
-            MibValueSymbol[] syntaxSymbols = syntaxInteger.getAllSymbols();
-            /*
-             * Check if the symbolValue is at the expected mibPosition in the
-             * array.
-             */
-            int mibPosition = oidResponse.toInt();
-            MibValue symbolValue;
-            String symbolString;
-            int symbolPosition;
-            if (mibPosition - 1 <= syntaxSymbols.length) {
-                symbolValue = syntaxSymbols[mibPosition - 1].getValue();
-                if (!(symbolValue instanceof NumberValue)) {
-                    return noTextualMib(oidResponse);
-                }
-                symbolString = ((NumberValue) symbolValue).toString();
-                symbolPosition = Integer.parseInt(symbolString);
-                //TODO: chatch parsint exception.
-                if (symbolPosition == mibPosition) {
-                    return syntaxSymbols[mibPosition - 1].getName();
-                }
-            }
-            /*
-             * Else run through the entire array to find the symbolValue
-             */
-            for (int i = 0; i < syntaxSymbols.length; i++) {
-                symbolValue = syntaxSymbols[i].getValue();
-                if (symbolValue instanceof NumberValue) {
-                    symbolString = ((NumberValue) symbolValue).toString();
-                    symbolPosition = Integer.parseInt(symbolString);
-                    if (symbolPosition == mibPosition) {
-                        return syntaxSymbols[i].getName();
-                    }
-                }
+            String label = getLabel(symbol, oidResponse);
+            if (label != null) {
+                return label;
             }
             return noTextualMib(oidResponse);
         }
@@ -211,7 +229,7 @@ public class SnmpParser {
 
     private String parseProcesses(Element element, String dependency,
                                   ElementTemplate template, int elementName,
-                                  PDU response, int format,
+                                  ResponseIndex response, int format,
                                   CapabilityTemplate capabilities)
             throws NumberFormatException {
         Attribute first;
@@ -310,6 +328,150 @@ public class SnmpParser {
         return null;
     }
 
+    /**
+     * Returns the MIB symbol of a mib childElement.
+     *
+     * @param element the mib childElement.
+     * @param mibRef  the reference to the MIB of the childElement.
+     *
+     * @return the MibValueSymbol of the childElement.
+     */
+    private MibValueSymbol getSymbol(Element element, String mibRef) {
+        Mib mib =
+                pluginHandler.load(
+                getGrandchild(MIB_INPUT, mibRef, element.getDocument()).getTextNormalize());
+        return (MibValueSymbol) mib.getSymbol(element.getTextNormalize());
+    }
+
+    /**
+     * Returns the textual MIB representation of an enumerated value.
+     *
+     * @param symbol   the MIB symbol of the value.
+     * @param variable the value.
+     *
+     * @return a String containing the label or null if the symbol has no
+     *         textual representation of the value.
+     */
+    private String getLabel(MibValueSymbol symbol, Variable variable) {
+        MibType symbolType = symbol.getType();
+        if (!(symbolType instanceof SnmpObjectType)) {
+            return null;
+        }
+        MibType syntax = ((SnmpObjectType) symbolType).getSyntax();
+        if (!(syntax instanceof IntegerType)) {
+            return null;
+        }
+        IntegerType syntaxInteger = (IntegerType) syntax;
+        if (!syntaxInteger.hasSymbols()) {
+            return null;
+        }
+        MibValueSymbol[] syntaxSymbols = syntaxInteger.getAllSymbols();
+        /*
+         * Check if the symbolValue is at the expected mibPosition in the
+         * array.
+         */
+        int mibPosition;
+        try {
+            mibPosition = variable.toInt();
+        } catch (UnsupportedOperationException ex) {
+            return null;
+        }
+        MibValue symbolValue;
+        String symbolString;
+        int symbolPosition;
+        if (mibPosition >= 1 && mibPosition <= syntaxSymbols.length) {
+            symbolValue = syntaxSymbols[mibPosition - 1].getValue();
+            if (symbolValue instanceof NumberValue) {
+                symbolString = ((NumberValue) symbolValue).toString();
+                symbolPosition = Integer.parseInt(symbolString);
+                //TODO: chatch parsint exception.
+                if (symbolPosition == mibPosition) {
+                    return syntaxSymbols[mibPosition - 1].getName();
+                }
+            }
+        }
+        /*
+         * Else run through the entire array to find the symbolValue
+         */
+        for (int i = 0; i < syntaxSymbols.length; i++) {
+            symbolValue = syntaxSymbols[i].getValue();
+            if (symbolValue instanceof NumberValue) {
+                symbolString = ((NumberValue) symbolValue).toString();
+                symbolPosition = Integer.parseInt(symbolString);
+                if (symbolPosition == mibPosition) {
+                    return syntaxSymbols[i].getName();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a numeric or enumerated element, which is read directly from a
+     * MIB without processing, into the template without converting it to a
+     * String. MAC elements are packed from the raw octets, since the String
+     * of an OctetString is plain text when all octets are printable. Other
+     * elements are left to parseElement().
+     *
+     * @param template    the template to parse the childElement against.
+     * @param elementName the template Element to parse against.
+     * @param element     the Element to parse.
+     * @param response    the indexed response of the SnmpOperation.
+     *
+     * @return true if the element was parsed, false if it must be parsed with
+     *         parseElement().
+     */
+    private boolean parseTyped(ElementTemplate template, int elementName,
+                               Element element, ResponseIndex response) {
+        ElementType type = template.getType(elementName);
+        if (!(type.isNumeric() || type == ElementType.ENUM)
+            || template.hasValue(elementName)
+            || !element.getChildren().isEmpty()
+            || element.getAttributes().size() != 1) {
+            return false;
+        }
+        Attribute first = element.getAttributes().get(0);
+        if (!first.getName().equals(MIB_INPUT) || first.getValue() == null) {
+            return false;
+        }
+        MibValueSymbol symbol = getSymbol(element, first.getValue());
+        VariableBinding binding = response.get(pluginHandler.getOid(symbol));
+        if (binding == null) {
+            return true;
+        }
+        template.setOid(elementName, binding.getOid().toString());
+        Variable variable = binding.getVariable();
+        if (variable == null || variable instanceof Null) {
+            return true;
+        }
+        if (type == ElementType.MAC) {
+            if (variable instanceof OctetString) {
+                long mac = MacTable.pack(((OctetString) variable).getValue(),
+                                         0);
+                if (mac != MacTable.INVALID) {
+                    template.setLong(elementName, mac);
+                }
+            }
+            return true;
+        }
+        long number;
+        try {
+            number = variable.toLong();
+        } catch (UnsupportedOperationException ex) {
+            return false;
+        }
+        if (type == ElementType.ENUM) {
+            String label = getLabel(symbol, variable);
+            if (label == null) {
+                label = String.valueOf(number);
+            }
+            template.setEnum(elementName, number, labels.intern(label));
+        } else {
+            template.setLong(elementName, number);
+        }
+        return true;
+    }
+
     /**
      * Returns the MIB with no textual representation.
      *
@@ -375,38 +537,166 @@ public class SnmpParser {
      * the operation and parses the remaining contents of the template. This
      * method should be called after running the operation from parseOperation()
      *
-     * @param operation   the operation that has run.
+     * Each response is parsed into its own copy of the template. Tables with
+     * more rows than PARALLEL_THRESHOLD are split into ranges of rows, which
+     * are parsed in parallel, with the calling thread parsing the first range.
+     * The result is the same as when parsing sequentially.
+     *
+     * @param responses   the responses of the operation.
+     * @param columns     the requested columns of the operation in request
+     *                    order, used to index the responses.
+     * @param template    the template to parse.
+     * @param address     the address of the device.
      * @param capbilities the capabilities of the mibPosition.
      *
      * @return en ElementTemplate[] containing the parsed templates.
      */
-    public ElementTemplate[] parseTemplate(PDU[] responses,
-                                           ElementTemplate template,
-                                           Address address,
-                                           CapabilityTemplate capbilities) {
+    public ElementTemplate[] parseTemplate(final PDU[] responses,
+                                           final OID[] columns,
+                                           final ElementTemplate template,
+                                           final Address address,
+                                           final CapabilityTemplate capbilities) {
         //      PDU[] responses = new PDU[]operation.getResponses();
-        int lengthOfResponses = responses.length;
-        ElementTemplate[] returnValue = new ElementTemplate[lengthOfResponses];
-        for (int i = 0; i < lengthOfResponses; i++) {
-            returnValue[i] = parseAttributes(responses[i],
-                                             template,
-                                             capbilities);
-            returnValue[i].setDevice(address);
-        }
+        final ElementTemplate[] returnValue =
+                new ElementTemplate[responses.length];
+        parseRanges(responses.length, new RowRange() {
+
+            @Override
+            public void parse(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    ElementTemplate row = parseAttributes(
+                            new ResponseIndex(responses[i], columns),
+                            template.clone(),
+                            capbilities);
+                    row.setDevice(address);
+                    returnValue[i] = row;
+                }
+            }
+        });
         return returnValue;
     }
 
+    /**
+     * Parse the responses of an operation into a RowBatch. This is done like
+     * parseTemplate(), except that the rows are stored by column in the batch
+     * instead of as a template each. A template is only used while parsing
+     * and reused for all rows of a range.
+     *
+     * @param responses   the responses of the operation.
+     * @param columns     the requested columns of the operation in request
+     *                    order, used to index the responses.
+     * @param template    the template to parse.
+     * @param address     the address of the device.
+     * @param capbilities the capabilities of the mibPosition.
+     *
+     * @return a RowBatch containing the parsed rows.
+     */
+    public RowBatch parseBatch(final PDU[] responses, final OID[] columns,
+                               final ElementTemplate template,
+                               final Address address,
+                               final CapabilityTemplate capbilities) {
+        final RowBatch batch = new RowBatch(
+                template, (new IpAddress(address.toByteArray())).toString(),
+                responses.length);
+        parseRanges(responses.length, new RowRange() {
+
+            @Override
+            public void parse(int from, int to) {
+                ElementTemplate row = template.clone();
+                for (int i = from; i < to; i++) {
+                    if (i > from) {
+                        row.copyValues(template);
+                    }
+                    batch.set(i, parseAttributes(
+                            new ResponseIndex(responses[i], columns),
+                            row, capbilities));
+                }
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * A range of rows to parse.
+     */
+    private interface RowRange {
+
+        /**
+         * Parses the rows from the first row to the row after the last one.
+         *
+         * @param from the first row to parse.
+         * @param to   the row after the last one to parse.
+         */
+        void parse(int from, int to);
+    }
+
+    /**
+     * Parses a number of rows. If there are more rows than PARALLEL_THRESHOLD,
+     * they are split into ranges, which are parsed in parallel, with the
+     * calling thread parsing the first range.
+     *
+     * @param rows  the number of rows.
+     * @param range the parsing of a range of rows.
+     */
+    private void parseRanges(int rows, final RowRange range) {
+        if (rows < PARALLEL_THRESHOLD || PARALLELISM < 2) {
+            range.parse(0, rows);
+            return;
+        }
+        int ranges = Math.min(PARALLELISM, rows / (PARALLEL_THRESHOLD / 2));
+        int rangeSize = (rows + ranges - 1) / ranges;
+        List<Future<?>> parsing = new ArrayList<Future<?>>(ranges);
+        for (int start = rangeSize; start < rows; start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, rows);
+            parsing.add(rowParsers.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    range.parse(from, to);
+                }
+            }));
+        }
+        range.parse(0, Math.min(rangeSize, rows));
+        /*
+         * Wait for every range, even if interrupted, as a range, which is
+         * still running, writes the rows. The interrupt is restored after.
+         */
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < parsing.size(); i++) {
+                while (true) {
+                    try {
+                        parsing.get(i).get();
+                        break;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) ex.getCause();
+                        }
+                        throw new IllegalStateException(ex.getCause());
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Generically parses all attributes of an ElementTemplate. Parses each
      * childElement in the template.
      *
-     * @param response     the response of the SnmpOperation.
+     * @param response     the indexed response of the SnmpOperation.
      * @param template     the template to parse.
      * @param capabilities the value of capabilities
      *
      * @return the parsed template
      */
-    private ElementTemplate parseAttributes(PDU response,
+    private ElementTemplate parseAttributes(ResponseIndex response,
                                             ElementTemplate template,
                                             CapabilityTemplate capabilities) {
         Document capabilityDocument = null;
@@ -417,13 +707,19 @@ public class SnmpParser {
             Element element =
                     getGrandchild(template.template,
                                   template.getElement(i), capabilityDocument);
-            if (element != null) {
+            if (element != null && !parseTyped(template, i, element,
+                                               response)) {
                 String parsedElement = parseElement(template, i, element,
                                                     response, VALUE,
                                                     capabilities);
                 if (parsedElement != null) {
                     parsedElement.trim();
                     if (!parsedElement.isEmpty()) {
+                        ElementType type = template.getType(i);
+                        if (type == ElementType.LABEL
+                            || type == ElementType.ENUM) {
+                            parsedElement = labels.intern(parsedElement);
+                        }
                         template.setValue(i, parsedElement);
                     }
                 }
@@ -17,10 +17,14 @@ package omnia.snmp;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.MatchResult;
@@ -29,36 +33,97 @@ import java.util.regex.Pattern;
 import net.percederberg.mibble.Mib;
 import net.percederberg.mibble.MibLoader;
 import net.percederberg.mibble.MibLoaderException;
+import net.percederberg.mibble.MibValueSymbol;
 import omnia.ConfigurationHandler;
 import omnia.Omnia;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
+import org.snmp4j.smi.OID;
 
 public class SnmpPluginHandler {
 
     /**
-     * The MIB directory, should be loaded from the configuration file.
+     * The fallback loader for MIBs not referenced by any plugin. It is only
+     * created if such a MIB is requested.
      */
     private MibLoader loader;
-    private final ConfigurationHandler configuration =
-            Omnia.configurationHandler;
+    /**
+     * The index of all MIB modules in the MIB directory.
+     */
+    private MibIndex mibIndex;
+    /**
+     * The loaded MIBs mapped by module name.
+     */
+    private Map<String, Mib> mibs;
+    /**
+     * The configuration this plugin handler was built from.
+     */
+    private final ConfigurationHandler configuration;
     private SAXBuilder builder;
     private Document defaultDocument;
-//    private Document[] plugins;
+    /**
+     * All plugin documents, except the default.
+     */
+    private List<Document> plugins;
+    /**
+     * The plugins with a literal objectId prefix.
+     */
+    private OidTrie<Document> objectIdTrie;
+    /**
+     * The plugins with an objectId, which is not a literal prefix. These are
+     * matched as regular expressions.
+     */
     private Map<Pattern, Document> objectIds;
+    /**
+     * The selected plugin mapped by sysObjectID.
+     */
+    private Map<String, Document> selected;
+    /**
+     * The OIDs of the MIB symbols used by the plugins.
+     */
+    private Map<MibValueSymbol, OID> symbolOids;
+    /**
+     * The section of a plugin listing the MIB modules it references.
+     */
+    private static final String MIB_SECTION = "mib";
 
     /**
-     * Default constructor. Adds all MIBs from the mibs directory and loads the
-     * default.xml from the pluginFiles directory.
+     * Default constructor. Indexes the MIBs in the mibs directory, loads the
+     * plugins from the pluginFiles directory and then loads only the MIBs
+     * referenced by the plugins.
      */
     public SnmpPluginHandler() {
-        loader = new MibLoader();
-        //TODO add try catch for mibDir loading
-        loader.addAllDirs(new File(configuration.getMibsDir()));
-        objectIds =
-                Collections.synchronizedMap(new HashMap<Pattern, Document>());
+        this(Omnia.configurationHandler, null);
+    }
+
+    /**
+     * Constructor for reloading the plugins. Builds a new plugin handler from
+     * a configuration. If the previous plugin handler used the same mibs
+     * directory, its MIB index and loaded MIBs are reused, so only MIBs not
+     * referenced before are loaded.
+     *
+     * @param configuration the configuration.
+     * @param previous      the previous plugin handler or null.
+     */
+    public SnmpPluginHandler(final ConfigurationHandler configuration,
+                             SnmpPluginHandler previous) {
+        this.configuration = configuration;
+        loader = null;
+        mibs = new ConcurrentHashMap<String, Mib>();
+        if (previous != null && previous.configuration.getMibsDir().equals(
+                configuration.getMibsDir())) {
+            mibIndex = previous.mibIndex;
+            mibs.putAll(previous.mibs);
+        } else {
+            mibIndex = new MibIndex(new File(configuration.getMibsDir()));
+        }
+        plugins = new ArrayList<Document>();
+        objectIds = new HashMap<Pattern, Document>();
+        selected = new ConcurrentHashMap<String, Document>();
+        symbolOids = new ConcurrentHashMap<MibValueSymbol, OID>();
+        Map<String, Document> prefixes = new HashMap<String, Document>();
         builder = new SAXBuilder();
         FilenameFilter filter = new FilenameFilter() {
 
@@ -75,15 +140,19 @@ public class SnmpPluginHandler {
         };
         File[] pluginFiles = new File(configuration.getPluginsDir()).listFiles(
                 filter);
-//        this.plugins = new Document[pluginFiles.length];
         for (int i = 0; i < pluginFiles.length; i++) {
             try {
                 Document document = builder.build(pluginFiles[i]);
-                Pattern objectId =
-                        Pattern.compile(document.getRootElement().getChild(
+                String objectId = document.getRootElement().getChild(
                         "capabilities").getChild(
-                        "objectId").getTextNormalize());
-                objectIds.put(objectId, document);
+                        "objectId").getTextNormalize();
+                plugins.add(document);
+                String prefix = OidTrie.toPrefix(objectId);
+                if (prefix != null) {
+                    prefixes.put(prefix, document);
+                } else {
+                    objectIds.put(Pattern.compile(objectId), document);
+                }
             } catch (JDOMException ex) {
                 Logger.getLogger(SnmpPluginHandler.class.getName()).log(
                         Level.SEVERE,
@@ -95,6 +164,7 @@ public class SnmpPluginHandler {
             }
 
         }
+        objectIdTrie = new OidTrie<Document>(prefixes);
         try {
             //TODO: load all pluginFiles
             File defaultFile = new File(configuration.getPluginsDir() + "/"
@@ -106,19 +176,123 @@ public class SnmpPluginHandler {
             //TODO Handle errors
             System.out.println("Exception : " + e.getMessage());
         }
+        preload(getReferencedMibs());
+    }
+
+    /**
+     * Returns the MIB modules referenced in the mib section of the default
+     * document and all plugins.
+     *
+     * @return a Set of module names.
+     */
+    private Set<String> getReferencedMibs() {
+        Set<String> referenced = new HashSet<String>();
+        List<Document> documents = new ArrayList<Document>(plugins);
+        if (defaultDocument != null) {
+            documents.add(defaultDocument);
+        }
+        for (int i = 0; i < documents.size(); i++) {
+            Element mibElement =
+                    documents.get(i).getRootElement().getChild(MIB_SECTION);
+            if (mibElement == null) {
+                continue;
+            }
+            Iterator<Element> children = mibElement.getChildren().iterator();
+            while (children.hasNext()) {
+                referenced.add(children.next().getTextNormalize());
+            }
+        }
+        return referenced;
+    }
+
+    /**
+     * Loads the MIB modules and their transitive imports into one loader in
+     * dependency order, with the files from the MIB index, so a module
+     * imported by several modules is parsed once and no directory searching
+     * is needed. Imports missing from the index are left to the loader, which
+     * searches the directories of the indexed files.
+     *
+     * @param modules the modules to load.
+     */
+    private void preload(Set<String> modules) {
+        modules.removeAll(mibs.keySet());
+        if (modules.isEmpty()) {
+            return;
+        }
+        MibLoader shared = new MibLoader();
+        List<String> closure = mibIndex.resolve(modules);
+        for (int i = 0; i < closure.size(); i++) {
+            File file = mibIndex.getFile(closure.get(i));
+            if (file != null) {
+                shared.addDir(file.getParentFile());
+            }
+        }
+        for (int i = 0; i < closure.size(); i++) {
+            File file = mibIndex.getFile(closure.get(i));
+            if (file == null || shared.getMib(closure.get(i)) != null) {
+                continue;
+            }
+            try {
+                shared.load(file);
+            } catch (IOException ex) {
+                Logger.getLogger(SnmpPluginHandler.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            } catch (MibLoaderException ex) {
+                Logger.getLogger(SnmpPluginHandler.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            }
+        }
+        for (String module : modules) {
+            Mib mib = shared.getMib(module);
+            if (mib != null) {
+                mibs.put(module, mib);
+            }
+        }
+    }
+
+    /**
+     * Returns a loaded MIB module. Modules referenced by the plugins are
+     * loaded on construction and returned without locking. Other modules are
+     * loaded on demand by the fallback loader.
+     *
+     * @param mib the MIB to load.
+     *
+     * @return the MIB module or null if the MIB could not be loaded.
+     */
+    protected Mib load(String mib) {
+        Mib loaded = mibs.get(mib);
+        if (loaded != null) {
+            return loaded;
+        }
+        return loadFallback(mib);
     }
 
     /**
-     * Loads a MIB file synchronized. This is equal to calling loader.load(),
-     * but synchronized.
+     * Loads a MIB module synchronized with the fallback loader. The loader
+     * searches all directories of the MIB directory.
      *
      * @param mib the MIB to load.
      *
      * @return the first MIB module or null if the MIB could not be loaded.
      */
-    protected synchronized Mib load(String mib) {
+    private synchronized Mib loadFallback(String mib) {
+        Mib loaded = mibs.get(mib);
+        if (loaded != null) {
+            return loaded;
+        }
+        if (loader == null) {
+            loader = new MibLoader();
+            loader.addAllDirs(new File(configuration.getMibsDir()));
+        }
         try {
-            return loader.load(mib);
+            File file = mibIndex.getFile(mib);
+            if (file != null) {
+                loaded = loader.load(file);
+            } else {
+                loaded = loader.load(mib);
+            }
+            mibs.put(mib, loaded);
+            return loaded;
         } catch (java.io.IOException ioe) {
             //TODO handle exception
             System.out.println(ioe.toString());
@@ -144,10 +318,55 @@ public class SnmpPluginHandler {
         return document.getRootElement();
     }
 
+    /**
+     * Returns the OID of a MIB symbol. The OID is parsed once per symbol and
+     * must not be modified.
+     *
+     * @param symbol the symbol.
+     *
+     * @return the OID of the symbol.
+     */
+    OID getOid(MibValueSymbol symbol) {
+        OID oid = symbolOids.get(symbol);
+        if (oid == null) {
+            oid = new OID(symbol.getValue().toString());
+            symbolOids.put(symbol, oid);
+        }
+        return oid;
+    }
+
     Document getDefault() {
         return this.defaultDocument;
     }
 
+    /**
+     * Returns the configuration this plugin handler was built from.
+     *
+     * @return the ConfigurationHandler.
+     */
+    public ConfigurationHandler getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns true if the default plugin was loaded.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the plugins are loaded.
+     */
+    public boolean isLoaded() {
+        return defaultDocument != null;
+    }
+
+    /**
+     * Selects the plugin for a device and stores it in the capabilities. The
+     * plugin is selected by the longest match of its objectId against the
+     * sysObjectID of the device. Literal OID prefixes are matched in the
+     * trie, other objectIds as regular expressions. The selection is
+     * remembered for each sysObjectID.
+     *
+     * @param capabilities the capabilities of the device.
+     */
     public void setPlugin(CapabilityTemplate capabilities) {
         String objectId = capabilities.getValueAsString(
                 CapabilityTemplate.OBJECTID);
@@ -156,25 +375,44 @@ public class SnmpPluginHandler {
             capabilities.setDocument(defaultDocument);
             return;
         }
-        Iterator<Pattern> iterator = objectIds.keySet().iterator();
-        int longestMatch = 0;
+        Document match = selected.get(objectId);
+        if (match == null) {
+            match = selectPlugin(objectId);
+            selected.put(objectId, match);
+        }
+        capabilities.setDocument(match);
+    }
+
+    /**
+     * Returns the plugin with the longest objectId match for a sysObjectID.
+     *
+     * @param objectId the sysObjectID.
+     *
+     * @return the matching plugin or the default document if none match.
+     */
+    private Document selectPlugin(String objectId) {
+        int longestMatch = objectIdTrie.matchLength(objectId);
         Document match = null;
+        if (longestMatch > 0) {
+            match = objectIdTrie.get(objectId);
+        }
+        Iterator<Map.Entry<Pattern, Document>> iterator =
+                objectIds.entrySet().iterator();
         while (iterator.hasNext()) {
-            Pattern pattern = iterator.next();
-            Matcher matcher = pattern.matcher(objectId);
+            Map.Entry<Pattern, Document> entry = iterator.next();
+            Matcher matcher = entry.getKey().matcher(objectId);
             if (matcher.find()) {
                 MatchResult result = matcher.toMatchResult();
                 int matchLength = result.end() - result.start();
                 if (matchLength > longestMatch) {
                     longestMatch = matchLength;
-                    match = objectIds.get(pattern);
+                    match = entry.getValue();
                 }
             }
         }
         if (match == null) {
-            capabilities.setDocument(defaultDocument);
-            return;
+            return defaultDocument;
         }
-        capabilities.setDocument(match);
+        return match;
     }
 }
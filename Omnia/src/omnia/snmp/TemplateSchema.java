@@ -0,0 +1,107 @@
+package omnia.snmp;
+
+/**
+ * The schema of a template type. It holds the template name, and the name and
+ * type of each element. A schema is created once per template type and shared
+ * by all instances of that template.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class TemplateSchema {
+
+    /**
+     * The schema of a template without elements.
+     */
+    static final TemplateSchema EMPTY = new TemplateSchema(null, 0);
+    /**
+     * Template name, matching XML sections.
+     */
+    private final String template;
+    /**
+     * An array of the element names.
+     */
+    private final String[] elements;
+    /**
+     * An array of the element types.
+     */
+    private final ElementType[] types;
+
+    /**
+     * Default constructor. Creates a schema with a number of elements, which
+     * must then be defined with define().
+     *
+     * @param template the template name.
+     * @param size     the number of elements.
+     */
+    public TemplateSchema(String template, int size) {
+        this.template = template;
+        this.elements = new String[size];
+        this.types = new ElementType[size];
+    }
+
+    /**
+     * Defines an element. This must only be called while the template type is
+     * initialized.
+     *
+     * @param element the element.
+     * @param name    the element name, matching the XML element.
+     * @param type    the element type.
+     */
+    final void define(int element, String name, ElementType type) {
+        elements[element] = name;
+        types[element] = type;
+    }
+
+    /**
+     * Returns the template name.
+     *
+     * @return a String containing the template name.
+     */
+    public String template() {
+        return template;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return an
+     * <code>int</code> containing the number of elements.
+     */
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Returns the name of an element.
+     *
+     * @param element the element.
+     *
+     * @return a String containing the element name.
+     */
+    public String getElement(int element) {
+        return elements[element];
+    }
+
+    /**
+     * Returns the type of an element.
+     *
+     * @param element the element.
+     *
+     * @return the ElementType of the element.
+     */
+    public ElementType getType(int element) {
+        return types[element];
+    }
+
+    /**
+     * Returns the element names. The array is shared and must not be
+     * modified.
+     *
+     * @return a String[] of the element names.
+     */
+    String[] getElements() {
+        return elements;
+    }
+}
@@ -0,0 +1,210 @@
+package omnia.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from long to long. The keys and values are stored in primitive arrays
+ * with open addressing, so no objects are allocated per entry and the keys
+ * and values are never boxed. The map is not synchronized.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class LongLongMap {
+
+    private static final int MINIMUM_CAPACITY = 8;
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    /**
+     * Default constructor. Creates an empty map.
+     */
+    public LongLongMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map, which can hold a number of entries without
+     * growing.
+     *
+     * @param expected the expected number of entries.
+     */
+    public LongLongMap(int expected) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    private int find(long key) {
+        int slot = slot(key);
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return an
+     * <code>int</code> containing the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the map has no entries.
+     *
+     * @return a
+     * <code>boolean</code> indicating if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Tests if the map has an entry for a key.
+     *
+     * @param key the key.
+     *
+     * @return true if the key is in the map.
+     */
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key     the key.
+     * @param missing the value to return if the key is not in the map.
+     *
+     * @return the value of the key or missing.
+     */
+    public long get(long key, long missing) {
+        int slot = find(key);
+        if (slot < 0) {
+            return missing;
+        }
+        return values[slot];
+    }
+
+    /**
+     * Stores the value of a key, replacing any value it had.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public void put(long key, long value) {
+        int slot = slot(key);
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param key the key.
+     *
+     * @return true if the key was in the map.
+     */
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        used[slot] = false;
+        size--;
+        /*
+         * Move the following entries of the run back, so no entry is cut off
+         * from its slot.
+         */
+        int next = (slot + 1) & mask;
+        while (used[next]) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                used[slot] = true;
+                used[next] = false;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Returns the keys of the map in no particular order.
+     *
+     * @return a long[] containing the keys.
+     */
+    public long[] keys() {
+        long[] returnKeys = new long[size];
+        int count = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                returnKeys[count++] = keys[i];
+            }
+        }
+        return returnKeys;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package omnia.util;
+
+/**
+ * A map from long to several entries. An entry is an owner, like a device,
+ * and a row of the owner. The entries of a key are chained in primitive
+ * arrays, and removed entries are reused, so no objects are allocated per
+ * entry. The map is not synchronized.
+ *
+ * The entries of a key are walked like this:
+ *
+ * <pre>
+ * for (int entry = map.first(key); entry != LongMultiMap.END;
+ *      entry = map.next(entry)) {
+ *     map.getOwner(entry) ...
+ * }
+ * </pre>
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class LongMultiMap {
+
+    /**
+     * The end of a chain of entries.
+     */
+    public static final int END = -1;
+    private static final int MINIMUM_CAPACITY = 8;
+    /**
+     * The first entry by key.
+     */
+    private final LongLongMap heads;
+    private int[] owners;
+    private int[] rows;
+    /**
+     * The next entry with the same key, or the next free entry.
+     */
+    private int[] next;
+    private int allocated;
+    private int free = END;
+    private int size;
+
+    /**
+     * Default constructor. Creates an empty map.
+     */
+    public LongMultiMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map, which can hold a number of entries without
+     * growing.
+     *
+     * @param expected the expected number of entries.
+     */
+    public LongMultiMap(int expected) {
+        int capacity = Math.max(MINIMUM_CAPACITY, expected);
+        heads = new LongLongMap(capacity);
+        owners = new int[capacity];
+        rows = new int[capacity];
+        next = new int[capacity];
+    }
+
+    /**
+     * Adds an entry to a key. The entries already added to the key are kept.
+     *
+     * @param key   the key.
+     * @param owner the owner of the entry.
+     * @param row   the row of the entry.
+     */
+    public void add(long key, int owner, int row) {
+        int entry;
+        if (free != END) {
+            entry = free;
+            free = next[entry];
+        } else {
+            if (allocated == owners.length) {
+                grow();
+            }
+            entry = allocated++;
+        }
+        owners[entry] = owner;
+        rows[entry] = row;
+        next[entry] = (int) heads.get(key, END);
+        heads.put(key, entry);
+        size++;
+    }
+
+    /**
+     * Removes the entries of an owner from a key.
+     *
+     * @param key   the key.
+     * @param owner the owner.
+     *
+     * @return the number of entries removed.
+     */
+    public int remove(long key, int owner) {
+        int removed = 0;
+        int previous = END;
+        int entry = (int) heads.get(key, END);
+        while (entry != END) {
+            int following = next[entry];
+            if (owners[entry] == owner) {
+                if (previous == END) {
+                    if (following == END) {
+                        heads.remove(key);
+                    } else {
+                        heads.put(key, following);
+                    }
+                } else {
+                    next[previous] = following;
+                }
+                next[entry] = free;
+                free = entry;
+                removed++;
+            } else {
+                previous = entry;
+            }
+            entry = following;
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Returns the first entry of a key.
+     *
+     * @param key the key.
+     *
+     * @return the entry or END if the key has no entries.
+     */
+    public int first(long key) {
+        return (int) heads.get(key, END);
+    }
+
+    /**
+     * Returns the next entry with the same key.
+     *
+     * @param entry the entry.
+     *
+     * @return the entry or END if it was the last one.
+     */
+    public int next(int entry) {
+        return next[entry];
+    }
+
+    /**
+     * Returns the owner of an entry.
+     *
+     * @param entry the entry.
+     *
+     * @return an
+     * <code>int</code> containing the owner.
+     */
+    public int getOwner(int entry) {
+        return owners[entry];
+    }
+
+    /**
+     * Returns the row of an entry.
+     *
+     * @param entry the entry.
+     *
+     * @return an
+     * <code>int</code> containing the row.
+     */
+    public int getRow(int entry) {
+        return rows[entry];
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return an
+     * <code>int</code> containing the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of keys with entries.
+     *
+     * @return an
+     * <code>int</code> containing the number of keys.
+     */
+    public int keys() {
+        return heads.size();
+    }
+
+    private void grow() {
+        int capacity = owners.length * 2;
+        owners = copyOf(owners, capacity);
+        rows = copyOf(rows, capacity);
+        next = copyOf(next, capacity);
+    }
+
+    private static int[] copyOf(int[] values, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+}
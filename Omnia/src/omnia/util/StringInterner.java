@@ -0,0 +1,142 @@
+package omnia.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded dictionary of strings, which returns one shared instance for equal
+ * strings. It is meant for values repeated on many rows and devices, like
+ * status labels and model names, so they are held once instead of once per
+ * row. It can be used by several threads at once.
+ *
+ * The dictionary holds at most capacity strings. When it is full, new strings
+ * are returned as they are and are not added. The number of hits, misses and
+ * strings not added are counted.
+ *
+ * @version 1.0
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class StringInterner {
+
+    private final int capacity;
+    private final ConcurrentMap<String, String> strings;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Default constructor.
+     *
+     * @param capacity the maximum number of strings in the dictionary.
+     */
+    public StringInterner(int capacity) {
+        this.capacity = capacity;
+        this.strings = new ConcurrentHashMap<String, String>(
+                Math.min(capacity, 1024));
+    }
+
+    /**
+     * Returns the shared instance of a string. If the string is not in the
+     * dictionary, it is added unless the dictionary is full.
+     *
+     * @param value the string.
+     *
+     * @return the shared String equal to value, value itself if it is not in
+     *         the dictionary or null if value is null.
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = strings.get(value);
+        if (interned != null) {
+            hits.incrementAndGet();
+            return interned;
+        }
+        misses.incrementAndGet();
+        /*
+         * Reserve a slot before adding, so threads adding at once cannot
+         * overfill the dictionary. The slot is given back, if the dictionary
+         * is full or another thread added the string first.
+         */
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            rejected.incrementAndGet();
+            return value;
+        }
+        interned = strings.putIfAbsent(value, value);
+        if (interned != null) {
+            size.decrementAndGet();
+            return interned;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of strings in the dictionary.
+     *
+     * @return an
+     * <code>int</code> containing the number of strings.
+     */
+    public int size() {
+        return Math.min(size.get(), capacity);
+    }
+
+    /**
+     * Returns the number of strings found in the dictionary.
+     *
+     * @return a
+     * <code>long</code> containing the number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of strings not found in the dictionary.
+     *
+     * @return a
+     * <code>long</code> containing the number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of strings not added, because the dictionary was
+     * full.
+     *
+     * @return a
+     * <code>long</code> containing the number of strings not added.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the share of strings found in the dictionary.
+     *
+     * @return a
+     * <code>double</code> between 0 and 1 or 0 if no strings have been
+     * interned.
+     */
+    public double getHitRate() {
+        long found = hits.get();
+        long total = found + misses.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) found / total;
+    }
+
+    @Override
+    public String toString() {
+        return "StringInterner[size=" + size() + ", hits=" + getHits()
+               + ", misses=" + getMisses() + ", rejected=" + getRejected()
+               + "]";
+    }
+}
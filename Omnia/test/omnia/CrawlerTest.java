@@ -0,0 +1,88 @@
+package omnia;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+
+/**
+ * The test is in the package of the Crawler, as the Crawler is package
+ * private.
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class CrawlerTest {
+
+    private static final Address FIRST = GenericAddress.parse(
+            "udp:10.0.0.1/161");
+    private static final Address SECOND = GenericAddress.parse(
+            "udp:10.0.0.2/161");
+    private Crawler crawler;
+
+    public CrawlerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        crawler = new Crawler();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of discover method, of class Crawler.
+     */
+    @Test
+    public void testDiscover() {
+        assertTrue(crawler.discover("aa:bb", FIRST, 1000));
+        assertFalse(crawler.discover("aa:bb", FIRST, 1000));
+        // The same chassis at another management address.
+        assertFalse(crawler.discover("aa:bb", SECOND, 1000));
+        // The same address reported without a chassis id.
+        assertFalse(crawler.discover(null, FIRST, 1000));
+        assertTrue(crawler.discover(null, SECOND, 1000));
+        assertEquals(2, crawler.getDiscovered());
+        assertEquals(2, crawler.getDevices(0).length);
+    }
+
+    /**
+     * Test of identify method, of class Crawler.
+     */
+    @Test
+    public void testIdentify() {
+        assertTrue(crawler.discover(null, FIRST, 1000));
+        assertTrue(crawler.discover(null, SECOND, 1000));
+        assertTrue(crawler.identify("aa:bb", FIRST, 2000));
+        // The second address turns out to be the same chassis.
+        assertFalse(crawler.identify("aa:bb", SECOND, 2000));
+        assertArrayEquals(new Address[]{FIRST}, crawler.getDevices(0));
+        // A configured device, which was not crawled, is not added.
+        assertTrue(crawler.identify("cc:dd", SECOND, 2000));
+        assertEquals(1, crawler.getDevices(0).length);
+        assertFalse(crawler.discover("cc:dd", SECOND, 2000));
+    }
+
+    /**
+     * Test of getDevices method, of class Crawler.
+     */
+    @Test
+    public void testGetDevices() {
+        assertTrue(crawler.discover("aa:bb", FIRST, 1000));
+        assertTrue(crawler.discover("cc:dd", SECOND, 1000));
+        assertTrue(crawler.identify("aa:bb", FIRST, 3000));
+        assertArrayEquals(new Address[]{FIRST}, crawler.getDevices(2000));
+        // The forgotten chassis can be discovered again.
+        assertTrue(crawler.discover("cc:dd", SECOND, 4000));
+        assertEquals(2, crawler.getDevices(2000).length);
+    }
+}
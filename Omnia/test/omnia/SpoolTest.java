@@ -0,0 +1,232 @@
+package omnia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import omnia.snmp.ElementTemplate;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ * The test is in the package of the Spool, as the Spool and DeviceCycle are
+ * package private. The cycles are read with next() instead of the reader
+ * thread, so the tests are deterministic.
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class SpoolTest {
+
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    /**
+     * The length of the device of a large cycle, which is close to the
+     * maximum length of a string encoded with writeUTF().
+     */
+    private static final int LARGE = 60000;
+    private File directory;
+
+    public SpoolTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("spool", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private Spool open() throws IOException {
+        return new Spool(directory, new Spool.Consumer() {
+
+            @Override
+            public void consume(DeviceCycle cycle) {
+            }
+        });
+    }
+
+    private static String large(char c) {
+        char[] device = new char[LARGE];
+        Arrays.fill(device, c);
+        return new String(device);
+    }
+
+    private static boolean append(Spool spool, long time, String device) {
+        return spool.append(new DeviceCycle(time, device,
+                                            new ElementTemplate[0]));
+    }
+
+    /**
+     * Reads the next cycle, skipping the end of a segment.
+     */
+    private static DeviceCycle next(Spool spool) throws Exception {
+        while (true) {
+            DeviceCycle cycle = spool.next();
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+    }
+
+    private long getStoredPosition() throws IOException {
+        RandomAccessFile position =
+                new RandomAccessFile(new File(directory, "position"), "r");
+        try {
+            return position.readLong();
+        } finally {
+            position.close();
+        }
+    }
+
+    private boolean hasSegment(int segment) {
+        return new File(directory, "segment-" + segment).exists();
+    }
+
+    /**
+     * Test of replaying from the stored position, of class Spool.
+     */
+    @Test
+    public void testReplayAfterReopen() throws Exception {
+        Spool spool = open();
+        assertTrue(append(spool, 100, "a"));
+        assertTrue(append(spool, 200, "b"));
+        assertTrue(append(spool, 300, "c"));
+        DeviceCycle a = next(spool);
+        DeviceCycle b = next(spool);
+        assertEquals("a", a.getDevice());
+        assertEquals("b", b.getDevice());
+        spool.acknowledge(a.getPosition());
+        assertEquals(b.getPosition(), getStoredPosition());
+        Spool reopened = open();
+        assertEquals("b", next(reopened).getDevice());
+        assertEquals("c", next(reopened).getDevice());
+        assertTrue(append(reopened, 400, "d"));
+        assertEquals("d", next(reopened).getDevice());
+    }
+
+    /**
+     * Test of appending and reading across segments, of class Spool.
+     */
+    @Test
+    public void testSegmentRollover() throws Exception {
+        Spool spool = open();
+        int count = SEGMENT_SIZE / LARGE + 2;
+        for (int i = 0; i < count; i++) {
+            assertTrue(append(spool, i, large((char) ('a' + i % 26))));
+        }
+        assertTrue(hasSegment(1));
+        for (int i = 0; i < count; i++) {
+            DeviceCycle cycle = next(spool);
+            assertEquals(large((char) ('a' + i % 26)), cycle.getDevice());
+            if (i == count - 1) {
+                assertEquals(1, cycle.getPosition() / SEGMENT_SIZE);
+            }
+        }
+        Spool reopened = open();
+        assertEquals(large('a'), next(reopened).getDevice());
+    }
+
+    /**
+     * Test of a record, whose length was not written, of class Spool.
+     */
+    @Test
+    public void testPartialRecord() throws Exception {
+        Spool spool = open();
+        assertTrue(append(spool, 100, "a"));
+        assertTrue(append(spool, 200, "b"));
+        long end = spool.getLagBytes();
+        /*
+         * Write the time and the cycle of a record, but not its length, like
+         * a crash while appending.
+         */
+        RandomAccessFile segment =
+                new RandomAccessFile(new File(directory, "segment-0"), "rw");
+        try {
+            segment.seek(end + 4);
+            segment.writeLong(300);
+            segment.write(new byte[]{0, 1, 'x', 0, 0, 0, 0});
+        } finally {
+            segment.close();
+        }
+        Spool reopened = open();
+        assertEquals(end, reopened.getLagBytes());
+        assertEquals("a", next(reopened).getDevice());
+        assertEquals("b", next(reopened).getDevice());
+        assertTrue(append(reopened, 400, "c"));
+        DeviceCycle c = next(reopened);
+        assertEquals("c", c.getDevice());
+        assertEquals(end, c.getPosition());
+    }
+
+    /**
+     * Test of acknowledging out of order, of class Spool.
+     */
+    @Test
+    public void testAcknowledgeOrdering() throws Exception {
+        Spool spool = open();
+        assertTrue(append(spool, 100, "a"));
+        assertTrue(append(spool, 200, "b"));
+        assertTrue(append(spool, 300, "c"));
+        DeviceCycle a = next(spool);
+        DeviceCycle b = next(spool);
+        DeviceCycle c = next(spool);
+        spool.acknowledge(b.getPosition());
+        assertEquals(0, getStoredPosition());
+        spool.acknowledge(c.getPosition());
+        assertEquals(0, getStoredPosition());
+        // An unknown or repeated acknowledgement is ignored.
+        spool.acknowledge(c.getPosition());
+        spool.acknowledge(12345);
+        assertEquals(0, getStoredPosition());
+        spool.acknowledge(a.getPosition());
+        // The records have the same size, so c ends one record after it.
+        assertEquals(2 * c.getPosition() - b.getPosition(),
+                     getStoredPosition());
+        assertEquals(0, spool.getLagBytes());
+        assertEquals(3L, spool.getConsumed());
+    }
+
+    /**
+     * Test of deleting the segments, which have been acknowledged, of class
+     * Spool.
+     */
+    @Test
+    public void testSegmentDeletion() throws Exception {
+        Spool spool = open();
+        int count = SEGMENT_SIZE / LARGE + 2;
+        List<DeviceCycle> cycles = new ArrayList<DeviceCycle>(count);
+        for (int i = 0; i < count; i++) {
+            assertTrue(append(spool, i, large('a')));
+        }
+        for (int i = 0; i < count; i++) {
+            cycles.add(next(spool));
+        }
+        for (int i = 0; i < count - 1; i++) {
+            spool.acknowledge(cycles.get(i).getPosition());
+        }
+        assertFalse(hasSegment(0));
+        assertTrue(hasSegment(1));
+        assertEquals(cycles.get(count - 1).getPosition(), getStoredPosition());
+        Spool reopened = open();
+        DeviceCycle last = next(reopened);
+        assertEquals(cycles.get(count - 1).getPosition(), last.getPosition());
+    }
+}
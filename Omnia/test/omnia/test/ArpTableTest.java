@@ -0,0 +1,113 @@
+package omnia.test;
+
+import omnia.db.ArpTable;
+import omnia.db.MacTable;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class ArpTableTest {
+
+    public ArpTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of parse method, of class ArpTable.
+     */
+    @Test
+    public void testParse() {
+        long[] address = new long[2];
+        assertTrue(ArpTable.parse("10.0.1.254", address));
+        assertEquals(ArpTable.IPV4_HIGH, address[0]);
+        assertEquals(ArpTable.IPV4_LOW | 0x0a0001feL, address[1]);
+        long[] mapped = new long[2];
+        assertTrue(ArpTable.parse("::ffff:10.0.1.254", mapped));
+        assertArrayEquals(address, mapped);
+        assertTrue(ArpTable.parse("2001:db8::1", address));
+        assertEquals(0x20010db800000000L, address[0]);
+        assertEquals(1, address[1]);
+        assertTrue(ArpTable.parse("fe80:0:0:0:21a:2bff:fe3c:4d5e", address));
+        assertEquals(0xfe80000000000000L, address[0]);
+        assertEquals(0x021a2bfffe3c4d5eL, address[1]);
+        assertFalse(ArpTable.parse("10.0.1", address));
+        assertFalse(ArpTable.parse("10.0.1.256", address));
+        assertFalse(ArpTable.parse("2001::db8::1", address));
+        assertFalse(ArpTable.parse("2001:db8:1:2:3:4:5:6:7", address));
+        assertFalse(ArpTable.parse(null, address));
+    }
+
+    /**
+     * Test of replace and getMac methods, of class ArpTable.
+     */
+    @Test
+    public void testReplaceAndGetMac() {
+        ArpTable table = new ArpTable();
+        long[] one = new long[2];
+        long[] two = new long[2];
+        ArpTable.parse("10.0.0.5", one);
+        ArpTable.parse("2001:db8::5", two);
+        long mac = MacTable.pack("00:00:00:00:00:05");
+        table.replace("10.0.0.1", new long[]{one[0], two[0]},
+                      new long[]{one[1], two[1]}, new long[]{mac, mac}, 2,
+                      100);
+        assertEquals(mac, table.getMac("10.0.0.5"));
+        assertEquals(mac, table.getMac("2001:db8::5"));
+        assertEquals(MacTable.INVALID, table.getMac("10.0.0.6"));
+        long newer = MacTable.pack("00:00:00:00:00:06");
+        table.replace("10.0.0.2", new long[]{one[0]}, new long[]{one[1]},
+                      new long[]{newer}, 1, 200);
+        assertEquals(newer, table.getMac("10.0.0.5"));
+        assertEquals(2, table.devices());
+        assertEquals(3, table.size());
+        assertEquals(1, table.expire(150));
+        assertEquals(MacTable.INVALID, table.getMac("2001:db8::5"));
+        // The last row of an address wins, and a replaced row is gone.
+        table.replace("10.0.0.2", new long[]{one[0], one[0]},
+                      new long[]{one[1], one[1]}, new long[]{newer, mac}, 2,
+                      300);
+        assertEquals(mac, table.getMac("10.0.0.5"));
+        table.replace("10.0.0.2", new long[0], new long[0], new long[0], 0,
+                      400);
+        assertEquals(MacTable.INVALID, table.getMac("10.0.0.5"));
+    }
+
+    /**
+     * Test of locate method, of class ArpTable.
+     */
+    @Test
+    public void testLocate() {
+        ArpTable table = new ArpTable();
+        long[] address = new long[2];
+        ArpTable.parse("10.0.0.5", address);
+        long mac = MacTable.pack("00:00:00:00:00:05");
+        table.replace("10.0.0.1", new long[]{address[0]},
+                      new long[]{address[1]}, new long[]{mac}, 1, 100);
+        MacTable macs = new MacTable();
+        macs.replace("10.0.0.2", new long[]{mac}, new int[]{7}, new int[]{1},
+                     1, 100);
+        MacTable.Location[] locations = table.locate("10.0.0.5", macs);
+        assertEquals(1, locations.length);
+        assertEquals("10.0.0.2", locations[0].getDevice());
+        assertEquals(7, locations[0].getPort());
+        assertEquals(0, table.locate("10.0.0.6", macs).length);
+    }
+}
@@ -0,0 +1,119 @@
+package omnia.test;
+
+import omnia.snmp.FingerprintStore;
+import omnia.snmp.InterfaceTemplate;
+import omnia.snmp.RowBatch;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class FingerprintStoreTest {
+
+    FingerprintStore store;
+
+    public FingerprintStoreTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        store = new FingerprintStore();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private RowBatch batch(long time, int[] indexes, String[] names) {
+        InterfaceTemplate prepared = new InterfaceTemplate(time);
+        RowBatch batch = new RowBatch(prepared, "10.0.0.1", indexes.length);
+        for (int row = 0; row < indexes.length; row++) {
+            InterfaceTemplate parsed = prepared.clone();
+            parsed.setLong(InterfaceTemplate.INDEX, indexes[row]);
+            parsed.setValue(InterfaceTemplate.NAME, names[row]);
+            batch.set(row, parsed);
+        }
+        return batch;
+    }
+
+    /**
+     * Test of compare method, of class FingerprintStore.
+     */
+    @Test
+    public void testCompare() {
+        FingerprintStore.Changes changes = store.compare(
+                batch(1, new int[]{1, 2, 3}, new String[]{"a", "b", "c"}),
+                new InterfaceTemplate(1));
+        assertEquals(3, changes.getRows().length);
+        assertEquals(1, changes.getBaseline());
+        changes.commit();
+        changes = store.compare(
+                batch(2, new int[]{1, 2, 4}, new String[]{"a", "x", "d"}),
+                new InterfaceTemplate(2));
+        assertArrayEquals(new int[]{1, 2}, changes.getRows());
+        assertArrayEquals(new long[]{3}, changes.getRemoved());
+        assertEquals(1, changes.getBaseline());
+        changes.commit();
+        changes = store.compare(
+                batch(3, new int[]{1, 2, 4}, new String[]{"a", "x", "d"}),
+                new InterfaceTemplate(3));
+        assertEquals(0, changes.getRows().length);
+        assertEquals(0, changes.getRemoved().length);
+    }
+
+    /**
+     * Test that changes are only stored on commit.
+     */
+    @Test
+    public void testCommit() {
+        store.compare(batch(1, new int[]{1}, new String[]{"a"}),
+                      new InterfaceTemplate(1));
+        FingerprintStore.Changes changes = store.compare(
+                batch(2, new int[]{1}, new String[]{"a"}),
+                new InterfaceTemplate(2));
+        assertEquals(1, changes.getRows().length);
+        assertEquals(2, changes.getBaseline());
+    }
+
+    /**
+     * Test of compare method with a batch of a walk, which did not finish.
+     */
+    @Test
+    public void testCompareTruncated() {
+        store.compare(batch(1, new int[]{1, 2, 3, 4},
+                            new String[]{"a", "b", "c", "d"}),
+                      new InterfaceTemplate(1)).commit();
+        RowBatch truncated = batch(2, new int[]{1, 2},
+                                   new String[]{"a", "x"});
+        truncated.setComplete(false);
+        FingerprintStore.Changes changes = store.compare(
+                truncated, new InterfaceTemplate(2));
+        assertArrayEquals(new int[]{1}, changes.getRows());
+        assertEquals(0, changes.getRemoved().length);
+        assertEquals(1, changes.getBaseline());
+        changes.commit();
+        // The rows cut off are still known, so a complete walk finds them.
+        changes = store.compare(
+                batch(3, new int[]{1, 2, 3, 4},
+                      new String[]{"a", "x", "c", "d"}),
+                new InterfaceTemplate(3));
+        assertEquals(0, changes.getRows().length);
+        assertEquals(0, changes.getRemoved().length);
+        assertEquals(1, changes.getBaseline());
+        changes.commit();
+        changes = store.compare(
+                batch(4, new int[]{1, 2, 4}, new String[]{"a", "x", "d"}),
+                new InterfaceTemplate(4));
+        assertArrayEquals(new long[]{3}, changes.getRemoved());
+    }
+}
@@ -0,0 +1,77 @@
+package omnia.test;
+
+import omnia.db.IdentityCache;
+import omnia.util.LongLongMap;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class IdentityCacheTest {
+
+    public IdentityCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of putAll, getDevice and getInterface methods, of class
+     * IdentityCache.
+     */
+    @Test
+    public void testPutAndGet() {
+        IdentityCache cache = new IdentityCache();
+        LongLongMap devices = new LongLongMap();
+        LongLongMap interfaces = new LongLongMap();
+        devices.put(IdentityCache.deviceKey("chassisId", "00:11:22"), 7);
+        interfaces.put(IdentityCache.interfaceKey(7, "index", Integer.valueOf(
+                1)), 8);
+        cache.putAll(devices, interfaces);
+        assertEquals(7, cache.getDevice("chassisId", "00:11:22"));
+        assertEquals(IdentityCache.MISSING,
+                     cache.getDevice("snmpAddress", "00:11:22"));
+        assertEquals(8, cache.getInterface(7, "index", "1"));
+        assertEquals(8, cache.getInterface(7, "index", Integer.valueOf(1)));
+        assertEquals(IdentityCache.MISSING, cache.getInterface(9, "index", "1"));
+        assertEquals(IdentityCache.MISSING, cache.getInterface(7, "alias", "1"));
+    }
+
+    /**
+     * Test of evictDevice and evictInterface methods, of class IdentityCache.
+     */
+    @Test
+    public void testEvict() {
+        IdentityCache cache = new IdentityCache();
+        LongLongMap devices = new LongLongMap();
+        LongLongMap interfaces = new LongLongMap();
+        devices.put(IdentityCache.deviceKey("snmpAddress", "10.0.0.1"), 3);
+        interfaces.put(IdentityCache.interfaceKey(3, "nameX", "Gi0/1"), 4);
+        interfaces.put(IdentityCache.interfaceKey(3, "nameX", "Gi0/2"), 5);
+        cache.putAll(devices, interfaces);
+        cache.evictDevice("snmpAddress", "10.0.0.1");
+        cache.evictInterface(3, "nameX", "Gi0/1");
+        assertEquals(IdentityCache.MISSING,
+                     cache.getDevice("snmpAddress", "10.0.0.1"));
+        assertEquals(IdentityCache.MISSING,
+                     cache.getInterface(3, "nameX", "Gi0/1"));
+        assertEquals(5, cache.getInterface(3, "nameX", "Gi0/2"));
+        assertEquals(0, cache.devices());
+        assertEquals(1, cache.interfaces());
+    }
+}
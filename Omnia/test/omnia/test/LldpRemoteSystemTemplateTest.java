@@ -0,0 +1,74 @@
+package omnia.test;
+
+import omnia.snmp.ElementTemplate;
+import omnia.snmp.LldpRemoteSystemTemplate;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class LldpRemoteSystemTemplateTest {
+
+    /**
+     * An element of a row of lldpRemManAddrTable with the time mark 0, the
+     * local port 5, the remote index 2 and the address 10.0.0.1.
+     */
+    private static final String ROW =
+            "1.0.8802.1.1.2.1.4.2.1.3.0.5.2.1.4.10.0.0.1";
+
+    public LldpRemoteSystemTemplateTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of getManagementAddress method, of class LldpRemoteSystemTemplate.
+     */
+    @Test
+    public void testGetManagementAddress() {
+        assertEquals("10.0.0.1",
+                     LldpRemoteSystemTemplate.getManagementAddress(ROW));
+        assertEquals("192.168.200.254",
+                     LldpRemoteSystemTemplate.getManagementAddress(
+                "1.0.8802.1.1.2.1.4.2.1.3.0.5.2.1.4.192.168.200.254"));
+        assertNull(LldpRemoteSystemTemplate.getManagementAddress(null));
+        assertNull(LldpRemoteSystemTemplate.getManagementAddress("not an oid"));
+        assertNull(LldpRemoteSystemTemplate.getManagementAddress("1.4.10.0.0.1"));
+        // An IPv6 address has subtype 2 and length 16.
+        assertNull(LldpRemoteSystemTemplate.getManagementAddress(
+                "1.0.8802.1.1.2.1.4.2.1.3.0.5.2.2.16"
+                + ".254.128.0.0.0.0.0.0.0.0.0.0.0.0.0.1"));
+    }
+
+    /**
+     * Test of getRemoteKey method, of class LldpRemoteSystemTemplate.
+     */
+    @Test
+    public void testGetRemoteKey() {
+        assertEquals((5L << 32) | 2,
+                     LldpRemoteSystemTemplate.getRemoteKey(ROW));
+        assertEquals((1000L << 32) | 0xfffffffeL,
+                     LldpRemoteSystemTemplate.getRemoteKey(
+                "1.0.8802.1.1.2.1.4.2.1.3.0.1000.4294967294.1.4.10.0.0.1"));
+        assertEquals(ElementTemplate.NO_KEY,
+                     LldpRemoteSystemTemplate.getRemoteKey(null));
+        assertEquals(ElementTemplate.NO_KEY,
+                     LldpRemoteSystemTemplate.getRemoteKey("1.4.10.0.0.1"));
+    }
+}
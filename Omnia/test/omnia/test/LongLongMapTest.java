@@ -0,0 +1,77 @@
+package omnia.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import omnia.util.LongLongMap;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class LongLongMapTest {
+
+    public LongLongMapTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of put, get and remove methods, of class LongLongMap.
+     */
+    @Test
+    public void testPutGetRemove() {
+        LongLongMap map = new LongLongMap();
+        map.put(1, 10);
+        map.put(Long.MIN_VALUE, 20);
+        map.put(1, 11);
+        assertEquals(2, map.size());
+        assertEquals(11, map.get(1, -1));
+        assertEquals(20, map.get(Long.MIN_VALUE, -1));
+        assertEquals(-1, map.get(2, -1));
+        assertTrue(map.remove(1));
+        assertFalse(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.keys().length);
+    }
+
+    /**
+     * Test of class LongLongMap against a HashMap.
+     */
+    @Test
+    public void testAgainstHashMap() {
+        LongLongMap map = new LongLongMap();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                expected.put(key, (long) i);
+                map.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(),
+                         map.get(entry.getKey(), -1));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package omnia.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import omnia.util.LongMultiMap;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class LongMultiMapTest {
+
+    public LongMultiMapTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static List<Integer> getOwners(LongMultiMap map, long key) {
+        List<Integer> owners = new ArrayList<Integer>();
+        for (int entry = map.first(key); entry != LongMultiMap.END;
+             entry = map.next(entry)) {
+            owners.add(map.getOwner(entry));
+        }
+        Collections.sort(owners);
+        return owners;
+    }
+
+    /**
+     * Test of add and remove methods, of class LongMultiMap.
+     */
+    @Test
+    public void testAddRemove() {
+        LongMultiMap map = new LongMultiMap();
+        map.add(1, 10, 0);
+        map.add(1, 11, 5);
+        map.add(1, 12, 0);
+        map.add(2, 11, 7);
+        assertEquals(4, map.size());
+        assertEquals(2, map.keys());
+        assertEquals(3, getOwners(map, 1).size());
+        assertEquals(7, map.getRow(map.first(2)));
+        assertEquals(LongMultiMap.END, map.first(3));
+        // Remove the head, the middle and the tail of a chain.
+        assertEquals(1, map.remove(1, 11));
+        assertEquals(0, map.remove(1, 11));
+        assertEquals(2, getOwners(map, 1).size());
+        assertEquals(1, map.remove(1, 12));
+        assertEquals(1, map.remove(1, 10));
+        assertEquals(LongMultiMap.END, map.first(1));
+        assertEquals(1, map.size());
+        assertEquals(1, map.keys());
+    }
+
+    /**
+     * Test of reusing removed entries and growing, of class LongMultiMap.
+     */
+    @Test
+    public void testReuseAndGrow() {
+        LongMultiMap map = new LongMultiMap(2);
+        for (int round = 0; round < 3; round++) {
+            for (int owner = 0; owner < 100; owner++) {
+                map.add(owner % 7, owner, owner);
+            }
+            assertEquals(100, map.size());
+            assertEquals(15, getOwners(map, 0).size());
+            for (int owner = 0; owner < 100; owner++) {
+                assertEquals(1, map.remove(owner % 7, owner));
+            }
+            assertEquals(0, map.size());
+            assertEquals(0, map.keys());
+        }
+        map.add(0, 1, 2);
+        map.add(0, 1, 3);
+        assertEquals(2, map.remove(0, 1));
+    }
+}
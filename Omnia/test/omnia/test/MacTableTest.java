@@ -0,0 +1,127 @@
+package omnia.test;
+
+import omnia.db.MacTable;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class MacTableTest {
+
+    public MacTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of pack and unpack methods, of class MacTable.
+     */
+    @Test
+    public void testPackAndUnpack() {
+        long mac = MacTable.pack("00:1A:2b:3c:4d:5e");
+        assertEquals(0x001a2b3c4d5eL, mac);
+        assertEquals("00:1a:2b:3c:4d:5e", MacTable.unpack(mac));
+        assertEquals(mac, MacTable.pack("00-1a-2b-3c-4d-5e"));
+        assertEquals(mac, MacTable.pack(new int[]{7, 0, 0x1a, 0x2b, 0x3c,
+                                                  0x4d, 0x5e}, 1));
+        assertEquals(MacTable.INVALID, MacTable.pack("00:1a:2b"));
+        assertEquals(MacTable.INVALID, MacTable.pack("00:1a:2b:3c:4d:zz"));
+        assertEquals(MacTable.INVALID, MacTable.pack((String) null));
+    }
+
+    /**
+     * Test of pack method, of class MacTable, with raw octets which are all
+     * printable characters.
+     */
+    @Test
+    public void testPackOctets() {
+        byte[] octets = "ABCDEF".getBytes();
+        assertEquals(0x414243444546L, MacTable.pack(octets, 0));
+        assertEquals("41:42:43:44:45:46",
+                     MacTable.unpack(MacTable.pack(octets, 0)));
+        assertEquals(0xff0000000001L, MacTable.pack(new byte[]{(byte) 0xff, 0,
+                                                               0, 0, 0, 1}, 0));
+        assertEquals(MacTable.INVALID, MacTable.pack(octets, 1));
+        assertEquals(MacTable.INVALID, MacTable.pack((byte[]) null, 0));
+    }
+
+    /**
+     * Test of replace and locate methods, of class MacTable.
+     */
+    @Test
+    public void testReplaceAndLocate() {
+        MacTable table = new MacTable();
+        long host = MacTable.pack("00:00:00:00:00:01");
+        long other = MacTable.pack("00:00:00:00:00:02");
+        table.replace("10.0.0.1", new long[]{host, other}, new int[]{48, 48},
+                      new int[]{10, 10}, 2, 100);
+        table.replace("10.0.0.2", new long[]{host}, new int[]{3},
+                      new int[]{10}, 1, 100);
+        assertEquals(2, table.devices());
+        assertEquals(3, table.size());
+        MacTable.Location[] locations = table.locate("00:00:00:00:00:01");
+        assertEquals(2, locations.length);
+        assertEquals("10.0.0.2", locations[0].getDevice());
+        assertEquals(3, locations[0].getPort());
+        assertEquals(10, locations[0].getVlan());
+        assertEquals(1, locations[0].getMacs());
+        assertEquals(2, locations[1].getMacs());
+        table.replace("10.0.0.2", new long[0], new int[0], new int[0], 0, 200);
+        assertEquals(1, table.locate(host).length);
+        assertEquals(0, table.locate(MacTable.pack("00:00:00:00:00:03")).length);
+    }
+
+    /**
+     * Test of expire method, of class MacTable.
+     */
+    @Test
+    public void testExpire() {
+        MacTable table = new MacTable();
+        long host = MacTable.pack("00:00:00:00:00:01");
+        table.replace("10.0.0.1", new long[]{host}, new int[]{1}, new int[]{0},
+                      1, 100);
+        table.replace("10.0.0.2", new long[]{host}, new int[]{1}, new int[]{0},
+                      1, 300);
+        assertEquals(1, table.expire(200));
+        assertEquals(1, table.devices());
+        assertEquals(1, table.locate(host).length);
+        assertEquals("10.0.0.2", table.locate(host)[0].getDevice());
+    }
+
+    /**
+     * Test of replacePorts and getIfIndex methods, of class MacTable.
+     */
+    @Test
+    public void testReplacePorts() {
+        MacTable table = new MacTable();
+        long host = MacTable.pack("00:00:00:00:00:01");
+        table.replace("10.0.0.1", new long[]{host}, new int[]{3}, new int[]{0},
+                      1, 100);
+        assertEquals(0, table.locate(host)[0].getIfIndex());
+        table.replacePorts("10.0.0.1", new int[]{3, 4}, new int[]{503, 504},
+                           2, 100);
+        assertEquals(3, table.locate(host)[0].getPort());
+        assertEquals(503, table.locate(host)[0].getIfIndex());
+        assertEquals(504, table.getIfIndex("10.0.0.1", 4));
+        assertEquals(0, table.getIfIndex("10.0.0.1", 5));
+        assertEquals(0, table.getIfIndex("10.0.0.2", 3));
+        table.expire(200);
+        assertEquals(0, table.getIfIndex("10.0.0.1", 3));
+    }
+}
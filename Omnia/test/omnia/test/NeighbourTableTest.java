@@ -0,0 +1,111 @@
+package omnia.test;
+
+import java.util.List;
+import omnia.db.NeighbourTable;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class NeighbourTableTest {
+
+    public NeighbourTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of claim and take methods, of class NeighbourTable.
+     */
+    @Test
+    public void testClaimAndTake() {
+        NeighbourTable table = new NeighbourTable();
+        table.claim(10, 1, "aa:bb", "alias", "uplink", 100, 1000);
+        table.claim(11, 1, "aa:bb", "index", "3", 100, 1000);
+        table.claim(12, 1, "cc:dd", "nameX", "Gi0/1", 100, 1000);
+        table.claim(10, 1, "aa:bb", "alias", "uplink", 200, 2000);
+        assertEquals(3, table.size());
+        List<NeighbourTable.Claim> taken = table.take("aa:bb");
+        assertEquals(2, taken.size());
+        assertEquals(1, table.size());
+        for (int i = 0; i < taken.size(); i++) {
+            if (taken.get(i).getLocalInterface() == 10) {
+                assertEquals(200, taken.get(i).getCycleTime());
+                assertEquals(2000, taken.get(i).getClaimed());
+            }
+        }
+        assertTrue(table.take("aa:bb").isEmpty());
+        table.putBack(taken.get(0));
+        assertEquals(2, table.size());
+        assertEquals(2, table.getChassisIds().length);
+    }
+
+    /**
+     * Test of expire method, of class NeighbourTable.
+     */
+    @Test
+    public void testExpire() {
+        NeighbourTable table = new NeighbourTable();
+        table.claim(10, 1, "aa:bb", "alias", "uplink", 100, 1000);
+        table.claim(11, 1, "aa:bb", "index", "3", 100, 3000);
+        table.claim(12, 1, "cc:dd", "nameX", "Gi0/1", 100, 1000);
+        assertEquals(2, table.expire(2000));
+        assertEquals(1, table.size());
+        assertArrayEquals(new String[]{"aa:bb"}, table.getChassisIds());
+        assertEquals(11, table.take("aa:bb").get(0).getLocalInterface());
+    }
+
+    /**
+     * Test of putAll method, of class NeighbourTable.
+     */
+    @Test
+    public void testPutAll() {
+        NeighbourTable pending = new NeighbourTable();
+        pending.claim(10, 1, "aa:bb", "alias", "uplink", 100, 1000);
+        pending.claim(12, 1, "cc:dd", "nameX", "Gi0/1", 100, 1000);
+        NeighbourTable table = new NeighbourTable();
+        table.claim(10, 1, "aa:bb", "alias", "uplink", 50, 500);
+        table.putAll(pending);
+        assertEquals(0, pending.size());
+        assertEquals(2, table.size());
+        assertEquals(100, table.take("aa:bb").get(0).getCycleTime());
+    }
+
+    /**
+     * Test of withdraw method, of class NeighbourTable.
+     */
+    @Test
+    public void testWithdraw() {
+        NeighbourTable table = new NeighbourTable();
+        table.claim(10, 1, "aa:bb", "alias", "uplink", 100, 1000);
+        table.claim(10, 2, "aa:bb", "alias", "downlink", 100, 1000);
+        table.claim(11, 1, "aa:bb", "index", "3", 100, 1000);
+        table.claim(10, 1, "cc:dd", "nameX", "Gi0/1", 100, 1000);
+        assertEquals(2, table.withdraw(10, 1));
+        assertEquals(0, table.withdraw(10, 1));
+        assertEquals(2, table.size());
+        assertArrayEquals(new String[]{"aa:bb"}, table.getChassisIds());
+        List<NeighbourTable.Claim> taken = table.take("aa:bb");
+        assertEquals(2, taken.size());
+        for (int i = 0; i < taken.size(); i++) {
+            assertFalse(taken.get(i).getLocalInterface() == 10
+                        && taken.get(i).getRow() == 1);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package omnia.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import omnia.snmp.OidTrie;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class OidTrieTest {
+
+    OidTrie<String> trie;
+
+    public OidTrieTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        Map<String, String> prefixes = new HashMap<String, String>();
+        prefixes.put("1.3.6.1.4.1.2636", "juniper");
+        prefixes.put("1.3.6.1.4.1.2636.1.1.1.2", "juniperRouter");
+        prefixes.put("1.3.6.1.4.1.9", "cisco");
+        trie = new OidTrie<String>(prefixes);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testLongestPrefix() {
+        assertEquals("juniperRouter",
+                     trie.get("1.3.6.1.4.1.2636.1.1.1.2.29"));
+        assertEquals("juniper", trie.get("1.3.6.1.4.1.2636.3.1"));
+        assertEquals("cisco", trie.get(".1.3.6.1.4.1.9.1.516"));
+        assertEquals("1.3.6.1.4.1.2636".length(),
+                     trie.matchLength("1.3.6.1.4.1.2636.3.1"));
+    }
+
+    @Test
+    public void testNoMatchInsideArc() {
+        assertNull(trie.get("1.3.6.1.4.1.26361.1"));
+        assertNull(trie.get("1.3.6.1.4.1.99"));
+        assertEquals(0, trie.matchLength("1.3.6.1.2.1.1"));
+    }
+
+    @Test
+    public void testToPrefix() {
+        assertEquals("1.3.6.1.4.1.2636",
+                     OidTrie.toPrefix("^1.3.6.1.4.1.2636"));
+        assertEquals("1.3.6.1.4.1.9",
+                     OidTrie.toPrefix("^1\\.3\\.6\\.1\\.4\\.1\\.9\\."));
+        assertNull(OidTrie.toPrefix("1.3.6.1.4.1.9"));
+        assertNull(OidTrie.toPrefix("^1.3.6.1.4.1.(9|2636)"));
+    }
+}
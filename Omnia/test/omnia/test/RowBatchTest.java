@@ -0,0 +1,127 @@
+package omnia.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import omnia.snmp.InterfaceTemplate;
+import omnia.snmp.RowBatch;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class RowBatchTest {
+
+    private static final String COLUMN = "1.3.6.1.2.1.2.2.1.1";
+    InterfaceTemplate prepared;
+    RowBatch batch;
+
+    public RowBatchTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        prepared = new InterfaceTemplate(1000);
+        prepared.setOid(InterfaceTemplate.INDEX, COLUMN);
+        batch = new RowBatch(prepared, "10.0.0.1", 3);
+        for (int row = 0; row < 3; row++) {
+            InterfaceTemplate parsed = prepared.clone();
+            parsed.setLong(InterfaceTemplate.INDEX, row + 1);
+            parsed.setOid(InterfaceTemplate.INDEX, COLUMN + "." + (row + 1));
+            parsed.setEnum(InterfaceTemplate.OPERSTATUS, 1, "up");
+            if (row != 1) {
+                parsed.setValue(InterfaceTemplate.NAME, "ge-0/0/" + row);
+            }
+            batch.set(row, parsed);
+        }
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of read method, of class RowBatch.
+     */
+    @Test
+    public void testRead() {
+        InterfaceTemplate row = new InterfaceTemplate(batch.getTime());
+        batch.read(2, row);
+        assertEquals(Integer.valueOf(3), row.getValue(InterfaceTemplate.INDEX));
+        assertEquals("up", row.getValue(InterfaceTemplate.OPERSTATUS));
+        assertEquals(1, row.getLong(InterfaceTemplate.OPERSTATUS));
+        assertEquals("ge-0/0/2", row.getValue(InterfaceTemplate.NAME));
+        assertEquals("10.0.0.1", row.getDevice());
+        batch.read(1, row);
+        assertEquals(Integer.valueOf(2), row.getValue(InterfaceTemplate.INDEX));
+        assertFalse(row.hasValue(InterfaceTemplate.NAME));
+        assertFalse(row.hasValue(InterfaceTemplate.MTU));
+    }
+
+    /**
+     * Test of getOid method, of class RowBatch.
+     */
+    @Test
+    public void testGetOid() {
+        assertEquals(COLUMN + ".2", batch.getOid(1, InterfaceTemplate.INDEX));
+        assertNull(batch.getOid(1, InterfaceTemplate.NAME));
+    }
+
+    /**
+     * Test of fingerprint method, of class RowBatch, with names of the same
+     * length and String hash code.
+     */
+    @Test
+    public void testFingerprint() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        RowBatch names = new RowBatch(prepared, "10.0.0.1", 2);
+        InterfaceTemplate parsed = prepared.clone();
+        parsed.setLong(InterfaceTemplate.INDEX, 1);
+        parsed.setValue(InterfaceTemplate.NAME, "Aa");
+        names.set(0, parsed);
+        parsed.setValue(InterfaceTemplate.NAME, "BB");
+        names.set(1, parsed);
+        assertFalse(names.fingerprint(0) == names.fingerprint(1));
+        assertFalse(batch.fingerprint(0) == batch.fingerprint(2));
+    }
+
+    /**
+     * Test of write and read methods, of class RowBatch.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        batch.setComplete(false);
+        batch.write(new DataOutputStream(bytes));
+        RowBatch copy = RowBatch.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())),
+                                      new InterfaceTemplate(batch.getTime()));
+        assertEquals(batch.rows(), copy.rows());
+        assertEquals("10.0.0.1", copy.getDevice());
+        assertFalse(copy.isComplete());
+        for (int row = 0; row < batch.rows(); row++) {
+            assertTrue(copy.isSet(row));
+            assertEquals(batch.fingerprint(row), copy.fingerprint(row));
+            assertEquals(batch.getOid(row, InterfaceTemplate.INDEX),
+                         copy.getOid(row, InterfaceTemplate.INDEX));
+            assertEquals(batch.getOid(row, InterfaceTemplate.NAME),
+                         copy.getOid(row, InterfaceTemplate.NAME));
+        }
+        InterfaceTemplate row = new InterfaceTemplate(copy.getTime());
+        copy.read(2, row);
+        assertEquals("ge-0/0/2", row.getValue(InterfaceTemplate.NAME));
+        assertEquals("up", row.getValue(InterfaceTemplate.OPERSTATUS));
+    }
+}
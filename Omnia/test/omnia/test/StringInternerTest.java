@@ -0,0 +1,96 @@
+package omnia.test;
+
+import java.util.concurrent.CountDownLatch;
+import omnia.util.StringInterner;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ *
+ * @author Marcus Hoff <marcus.hoff@ring2.dk>
+ */
+public class StringInternerTest {
+
+    public StringInternerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of intern method, of class StringInterner.
+     */
+    @Test
+    public void testIntern() {
+        StringInterner interner = new StringInterner(2);
+        String first = interner.intern(new String("ethernetCsmacd"));
+        assertSame(first, interner.intern(new String("ethernetCsmacd")));
+        assertEquals(1, interner.getHits());
+        assertEquals(1, interner.getMisses());
+        assertEquals(0.5, interner.getHitRate(), 0.0);
+        assertNull(interner.intern(null));
+    }
+
+    /**
+     * Test of the capacity of class StringInterner.
+     */
+    @Test
+    public void testCapacity() {
+        StringInterner interner = new StringInterner(2);
+        interner.intern("up");
+        interner.intern("down");
+        String testing = new String("testing");
+        assertSame(testing, interner.intern(testing));
+        assertNotSame(testing, interner.intern(new String("testing")));
+        assertEquals(2, interner.size());
+        assertEquals(2, interner.getRejected());
+    }
+
+    /**
+     * Test of the capacity with several threads adding at once, of class
+     * StringInterner.
+     */
+    @Test
+    public void testConcurrentCapacity() throws Exception {
+        final StringInterner interner = new StringInterner(100);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        interner.intern(thread + "." + j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(100, interner.size());
+        assertEquals(8000 - 100, interner.getRejected());
+    }
+}